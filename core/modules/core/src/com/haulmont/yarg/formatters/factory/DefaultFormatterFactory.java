@@ -20,9 +20,13 @@ import com.haulmont.yarg.formatters.ReportFormatter;
 import com.haulmont.yarg.formatters.factory.inline.DefaultInlinersProvider;
 import com.haulmont.yarg.formatters.factory.inline.ReportInlinersProvider;
 import com.haulmont.yarg.formatters.impl.*;
+import com.haulmont.yarg.formatters.impl.doc.RowCopyPolicy;
 import com.haulmont.yarg.formatters.impl.doc.connector.OfficeIntegrationAPI;
 import com.haulmont.yarg.formatters.impl.docx.HtmlImportProcessor;
 import com.haulmont.yarg.formatters.impl.docx.HtmlImportProcessorImpl;
+import com.haulmont.yarg.formatters.impl.docx.PdfConverter;
+import com.haulmont.yarg.formatters.impl.docx.TocPolicy;
+import com.haulmont.yarg.formatters.impl.xls.ConversionCache;
 import com.haulmont.yarg.formatters.impl.xls.DocumentConverter;
 import com.haulmont.yarg.formatters.impl.xls.DocumentConverterImpl;
 import com.haulmont.yarg.structure.BandData;
@@ -37,11 +41,18 @@ import java.util.Map;
 public class DefaultFormatterFactory implements ReportFormatterFactory {
     protected OfficeIntegrationAPI officeIntegration;
     protected DocumentConverter documentConverter;
+    protected ConversionCache conversionCache;
     protected DefaultFormatProvider defaultFormatProvider;
     protected HtmlImportProcessor htmlImportProcessor;
     protected HtmlToPdfConverterFactory htmlToPdfConverterFactory;
     protected String fontsDirectory;
     protected Scripting scripting;
+    protected int docxStreamingRowsThreshold;
+    protected int xlsStreamingRowsThreshold;
+    protected TocPolicy docxTocPolicy = TocPolicy.FULL;
+    protected boolean docxParallelHtmlProcessing;
+    protected PdfConverter docxPdfConverter = new PdfConverter();
+    protected RowCopyPolicy docRowCopyPolicy = RowCopyPolicy.CLIPBOARD;
 
     protected Map<String, FormatterCreator> formattersMap = new HashMap<>();
 
@@ -55,6 +66,7 @@ public class DefaultFormatterFactory implements ReportFormatterFactory {
             xlsFormatter.setDocumentConverter(documentConverter);
             xlsFormatter.setDefaultFormatProvider(defaultFormatProvider);
             xlsFormatter.setScripting(scripting);
+            xlsFormatter.setStreamingRowsThreshold(xlsStreamingRowsThreshold);
             return xlsFormatter;
         });
 
@@ -64,6 +76,7 @@ public class DefaultFormatterFactory implements ReportFormatterFactory {
             }
             DocFormatter docFormatter = new DocFormatter(factoryInput, officeIntegration);
             docFormatter.setDefaultFormatProvider(defaultFormatProvider);
+            docFormatter.setRowCopyPolicy(docRowCopyPolicy);
             return docFormatter;
         };
         formattersMap.put("odt", docCreator);
@@ -84,6 +97,10 @@ public class DefaultFormatterFactory implements ReportFormatterFactory {
             docxFormatter.setDocumentConverter(documentConverter);
             docxFormatter.setHtmlImportProcessor(htmlImportProcessor);
             docxFormatter.setScripting(scripting);
+            docxFormatter.setStreamingRowsThreshold(docxStreamingRowsThreshold);
+            docxFormatter.setTocPolicy(docxTocPolicy);
+            docxFormatter.setParallelHtmlProcessing(docxParallelHtmlProcessing);
+            docxFormatter.setPdfConverter(docxPdfConverter);
             return docxFormatter;
         });
         FormatterCreator xlsxCreator = factoryInput -> {
@@ -108,7 +125,25 @@ public class DefaultFormatterFactory implements ReportFormatterFactory {
 
     public void setOfficeIntegration(OfficeIntegrationAPI officeIntegrationAPI) {
         this.officeIntegration = officeIntegrationAPI;
-        this.documentConverter = new DocumentConverterImpl(officeIntegrationAPI);
+        DocumentConverterImpl documentConverter = new DocumentConverterImpl(officeIntegrationAPI);
+        documentConverter.setConversionCache(conversionCache);
+        this.documentConverter = documentConverter;
+    }
+
+    public ConversionCache getConversionCache() {
+        return conversionCache;
+    }
+
+    /**
+     * Sets cache of office conversion results.
+     *
+     * @see DocumentConverterImpl#setConversionCache(ConversionCache)
+     */
+    public void setConversionCache(ConversionCache conversionCache) {
+        this.conversionCache = conversionCache;
+        if (documentConverter instanceof DocumentConverterImpl) {
+            ((DocumentConverterImpl) documentConverter).setConversionCache(conversionCache);
+        }
     }
 
     public void setHtmlImportProcessor(HtmlImportProcessor htmlImportProcessor) {
@@ -147,6 +182,72 @@ public class DefaultFormatterFactory implements ReportFormatterFactory {
         this.scripting = scripting;
     }
 
+    public int getDocxStreamingRowsThreshold() {
+        return docxStreamingRowsThreshold;
+    }
+
+    /**
+     * @see DocxFormatter#setStreamingRowsThreshold(int)
+     */
+    public void setDocxStreamingRowsThreshold(int docxStreamingRowsThreshold) {
+        this.docxStreamingRowsThreshold = docxStreamingRowsThreshold;
+    }
+
+    public int getXlsStreamingRowsThreshold() {
+        return xlsStreamingRowsThreshold;
+    }
+
+    /**
+     * @see XLSFormatter#setStreamingRowsThreshold(int)
+     */
+    public void setXlsStreamingRowsThreshold(int xlsStreamingRowsThreshold) {
+        this.xlsStreamingRowsThreshold = xlsStreamingRowsThreshold;
+    }
+
+    public TocPolicy getDocxTocPolicy() {
+        return docxTocPolicy;
+    }
+
+    /**
+     * @see DocxFormatter#setTocPolicy(TocPolicy)
+     */
+    public void setDocxTocPolicy(TocPolicy docxTocPolicy) {
+        this.docxTocPolicy = docxTocPolicy;
+    }
+
+    public boolean isDocxParallelHtmlProcessing() {
+        return docxParallelHtmlProcessing;
+    }
+
+    /**
+     * @see DocxFormatter#setParallelHtmlProcessing(boolean)
+     */
+    public void setDocxParallelHtmlProcessing(boolean docxParallelHtmlProcessing) {
+        this.docxParallelHtmlProcessing = docxParallelHtmlProcessing;
+    }
+
+    public PdfConverter getDocxPdfConverter() {
+        return docxPdfConverter;
+    }
+
+    /**
+     * @see DocxFormatter#setPdfConverter(PdfConverter)
+     */
+    public void setDocxPdfConverter(PdfConverter docxPdfConverter) {
+        this.docxPdfConverter = docxPdfConverter;
+    }
+
+    public RowCopyPolicy getDocRowCopyPolicy() {
+        return docRowCopyPolicy;
+    }
+
+    /**
+     * @see DocFormatter#setRowCopyPolicy(RowCopyPolicy)
+     */
+    public void setDocRowCopyPolicy(RowCopyPolicy docRowCopyPolicy) {
+        this.docRowCopyPolicy = docRowCopyPolicy;
+    }
+
     public ReportFormatter createFormatter(FormatterFactoryInput factoryInput) {
         String templateExtension = factoryInput.templateExtension;
         BandData rootBand = factoryInput.rootBand;
@@ -56,6 +56,8 @@ public abstract class AbstractFormatter implements ReportFormatter {
     public static final Pattern UNIVERSAL_ALIAS_PATTERN = Pattern.compile(UNIVERSAL_ALIAS_REGEXP, Pattern.CASE_INSENSITIVE);
     public static final Pattern ALIAS_WITH_BAND_NAME_PATTERN = Pattern.compile(ALIAS_WITH_BAND_NAME_REGEXP);
     public static final Pattern BAND_NAME_DECLARATION_PATTERN = Pattern.compile(BAND_NAME_DECLARATION_REGEXP);
+    public static final Pattern SINGLE_ALIAS_PATTERN = Pattern.compile("\\$\\{[^\\$\\{\\}]*\\}");
+    public static final Pattern TABLE_ALIAS_PATTERN = Pattern.compile("[A-z0-9_\\.]+?");
     public static final String VALUE = "value";
 
 
@@ -72,6 +74,9 @@ public abstract class AbstractFormatter implements ReportFormatter {
      */
     protected List<ContentInliner> contentInliners = new ArrayList<>();
 
+    protected BandPathIndex bandPathIndex;
+    protected Map<String, Pattern> parameterPatterns = new HashMap<>();
+
     public void setScripting(Scripting scripting) {
         this.scripting = scripting;
     }
@@ -229,18 +234,18 @@ public abstract class AbstractFormatter implements ReportFormatter {
 
     protected String inlineParameterValue(String template, String parameterName, String value) {
         checkThreadInterrupted();
-        String parameterRegex = UNIVERSAL_ALIAS_REGEXP.replace(ALIAS_GROUP, parameterName);
-        return template.replaceAll(parameterRegex, Matcher.quoteReplacement(value));
+        Pattern parameterPattern = parameterPatterns.computeIfAbsent(parameterName,
+                name -> Pattern.compile(UNIVERSAL_ALIAS_REGEXP.replace(ALIAS_GROUP, name)));
+        return parameterPattern.matcher(template).replaceAll(Matcher.quoteReplacement(value));
     }
 
     protected boolean containsJustOneAlias(String value) {
-        return !StringUtils.isBlank(value) && value.matches("\\$\\{[^\\$\\{\\}]*\\}");
+        return !StringUtils.isBlank(value) && SINGLE_ALIAS_PATTERN.matcher(value).matches();
     }
 
     protected List<String> getAllAliases(String value) {
-        Pattern aliasPattern = Pattern.compile("\\$\\{[^\\$\\{\\}]*\\}");
         List<String> aliases = new ArrayList<>();
-        Matcher m = aliasPattern.matcher(value);
+        Matcher m = SINGLE_ALIAS_PATTERN.matcher(value);
         while (m.find()) {
             aliases.add(m.group());
         }
@@ -248,38 +253,18 @@ public abstract class AbstractFormatter implements ReportFormatter {
     }
 
     protected BandData findBandByPath(String path) {
-        if (rootBand.getName().equals(path)) return rootBand;
-
-        String[] pathParts = path.split("\\.");
-        BandData currentBand = rootBand;
-        for (String pathPart : pathParts) {
-            if (currentBand == null) return null;
-            currentBand = currentBand.findBandRecursively(pathPart);
-        }
-
-        return currentBand;
+        return getBandPathIndex().findBandByPath(path);
     }
 
     protected BandPathAndParameterName separateBandNameAndParameterName(String alias) {
-        List<String> bandPathList = new ArrayList<>();
-        String[] pathParts = alias.split("\\.");
-        BandData currentBand = rootBand;
-        for (String pathPart : pathParts) {
-            currentBand = currentBand.findBandRecursively(pathPart);
-            if (currentBand != null) {
-                bandPathList.add(pathPart);
-            } else {
-                break;
-            }
-        }
+        return getBandPathIndex().separateBandNameAndParameterName(alias);
+    }
 
-        if (bandPathList.isEmpty()) {
-            return new BandPathAndParameterName("", alias);
-        } else {
-            String bandPathPart = StringUtils.join(bandPathList, ".");
-            String paramNamePart = alias.replaceFirst(bandPathPart + ".", "");
-            return new BandPathAndParameterName(bandPathPart, paramNamePart);
+    protected BandPathIndex getBandPathIndex() {
+        if (bandPathIndex == null) {
+            bandPathIndex = new BandPathIndex(rootBand);
         }
+        return bandPathIndex;
     }
 
     protected ReportingException wrapWithReportingException(String message, Exception e) {
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.haulmont.yarg.formatters.impl;
+
+import com.haulmont.yarg.structure.BandData;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.*;
+
+/**
+ * Index of band tree which resolves band names and dotted band paths without walking the tree.
+ * Lookups return the same bands as {@link BandData#findBandRecursively(String)}:
+ * the first band with the name in depth-first order of the subtree.
+ * The index is built once per render, so the band tree should not be changed after it is built.
+ */
+public class BandPathIndex {
+    protected final BandData rootBand;
+    protected final List<BandData> bandsInVisitOrder = new ArrayList<>();
+    protected final Map<BandData, Integer> positions = new IdentityHashMap<>();
+    protected final Map<BandData, Integer> subtreeEnds = new IdentityHashMap<>();
+    protected final Map<String, int[]> positionsByName = new HashMap<>();
+
+    protected final Map<String, Optional<BandData>> bandsByPath = new HashMap<>();
+    protected final Map<String, AbstractFormatter.BandPathAndParameterName> aliases = new HashMap<>();
+
+    public BandPathIndex(BandData rootBand) {
+        this.rootBand = rootBand;
+
+        Map<String, List<Integer>> namePositions = new HashMap<>();
+        Deque<BandData> stack = new ArrayDeque<>();
+        Deque<Iterator<BandData>> childIterators = new ArrayDeque<>();
+        addBand(rootBand, namePositions);
+        stack.push(rootBand);
+        childIterators.push(rootBand.getChildrenList().iterator());
+        while (!stack.isEmpty()) {
+            Iterator<BandData> children = childIterators.peek();
+            if (children.hasNext()) {
+                BandData child = children.next();
+                addBand(child, namePositions);
+                stack.push(child);
+                childIterators.push(child.getChildrenList().iterator());
+            } else {
+                subtreeEnds.put(stack.pop(), bandsInVisitOrder.size() - 1);
+                childIterators.pop();
+            }
+        }
+
+        for (Map.Entry<String, List<Integer>> entry : namePositions.entrySet()) {
+            List<Integer> list = entry.getValue();
+            int[] array = new int[list.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = list.get(i);
+            }
+            positionsByName.put(entry.getKey(), array);
+        }
+    }
+
+    protected void addBand(BandData band, Map<String, List<Integer>> namePositions) {
+        positions.put(band, bandsInVisitOrder.size());
+        namePositions.computeIfAbsent(band.getName(), name -> new ArrayList<>()).add(bandsInVisitOrder.size());
+        bandsInVisitOrder.add(band);
+    }
+
+    /**
+     * @return first band with the name in the subtree of the band (including the band itself) or null
+     */
+    public BandData findBand(BandData band, String name) {
+        int[] namePositions = positionsByName.get(name);
+        Integer position = positions.get(band);
+        if (namePositions == null || position == null) {
+            return null;
+        }
+
+        int index = Arrays.binarySearch(namePositions, position);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        if (index < namePositions.length && namePositions[index] <= subtreeEnds.get(band)) {
+            return bandsInVisitOrder.get(namePositions[index]);
+        }
+        return null;
+    }
+
+    /**
+     * @param path dotted band path, e.g. Band1.Band2
+     * @return band or null if there is no band for the path
+     */
+    public BandData findBandByPath(String path) {
+        return bandsByPath.computeIfAbsent(path, key -> Optional.ofNullable(resolvePath(key))).orElse(null);
+    }
+
+    /**
+     * Splits alias to the band path and the parameter name, results are cached by alias
+     */
+    public AbstractFormatter.BandPathAndParameterName separateBandNameAndParameterName(String alias) {
+        return aliases.computeIfAbsent(alias, this::resolveAlias);
+    }
+
+    protected BandData resolvePath(String path) {
+        if (rootBand.getName().equals(path)) return rootBand;
+
+        BandData currentBand = rootBand;
+        for (String pathPart : path.split("\\.")) {
+            if (currentBand == null) return null;
+            currentBand = findBand(currentBand, pathPart);
+        }
+
+        return currentBand;
+    }
+
+    protected AbstractFormatter.BandPathAndParameterName resolveAlias(String alias) {
+        List<String> bandPathList = new ArrayList<>();
+        BandData currentBand = rootBand;
+        for (String pathPart : alias.split("\\.")) {
+            currentBand = findBand(currentBand, pathPart);
+            if (currentBand != null) {
+                bandPathList.add(pathPart);
+            } else {
+                break;
+            }
+        }
+
+        if (bandPathList.isEmpty()) {
+            return new AbstractFormatter.BandPathAndParameterName("", alias);
+        } else {
+            String bandPathPart = StringUtils.join(bandPathList, ".");
+            String paramNamePart = alias.replaceFirst(bandPathPart + ".", "");
+            return new AbstractFormatter.BandPathAndParameterName(bandPathPart, paramNamePart);
+        }
+    }
+}
@@ -15,12 +15,14 @@
  */
 package com.haulmont.yarg.formatters.impl;
 
+import com.google.common.collect.Lists;
 import com.haulmont.yarg.exception.OpenOfficeException;
 import com.haulmont.yarg.exception.ReportingException;
 import com.haulmont.yarg.exception.ReportingInterruptedException;
 import com.haulmont.yarg.formatters.factory.FormatterFactoryInput;
 import com.haulmont.yarg.formatters.impl.doc.OfficeComponent;
 import com.haulmont.yarg.formatters.impl.doc.OfficeOutputStream;
+import com.haulmont.yarg.formatters.impl.doc.RowCopyPolicy;
 import com.haulmont.yarg.formatters.impl.doc.TableManager;
 import com.haulmont.yarg.formatters.impl.doc.connector.NoFreePortsException;
 import com.haulmont.yarg.formatters.impl.doc.connector.OfficeIntegrationAPI;
@@ -38,6 +40,7 @@ import com.sun.star.lang.WrappedTargetException;
 import com.sun.star.lang.XComponent;
 import com.sun.star.table.XCell;
 import com.sun.star.text.*;
+import com.sun.star.util.XReplaceDescriptor;
 import com.sun.star.util.XReplaceable;
 import com.sun.star.util.XSearchDescriptor;
 import org.apache.commons.io.IOUtils;
@@ -50,6 +53,7 @@ import java.awt.datatransfer.Transferable;
 import java.awt.datatransfer.UnsupportedFlavorException;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
@@ -64,6 +68,7 @@ public class DocFormatter extends AbstractFormatter {
     protected static final Logger log = LoggerFactory.getLogger(DocFormatter.class);
 
     protected static final String SEARCH_REGULAR_EXPRESSION = "SearchRegularExpression";
+    protected static final String SEARCH_CASE_SENSITIVE = "SearchCaseSensitive";
 
     protected static final String PDF_OUTPUT_FILE = "writer_pdf_Export";
     protected static final String MS_WORD_OUTPUT_FILE = "MS Word 97";
@@ -74,6 +79,8 @@ public class DocFormatter extends AbstractFormatter {
 
     protected OfficeIntegrationAPI officeIntegration;
 
+    protected RowCopyPolicy rowCopyPolicy = RowCopyPolicy.CLIPBOARD;
+
     public DocFormatter(FormatterFactoryInput formatterFactoryInput, OfficeIntegrationAPI officeIntegration) {
         super(formatterFactoryInput);
         checkNotNull(officeIntegration, "\"officeIntegration\" parameter can not be null");
@@ -83,6 +90,19 @@ public class DocFormatter extends AbstractFormatter {
         supportedOutputTypes.add(ReportOutputType.pdf);
     }
 
+    public RowCopyPolicy getRowCopyPolicy() {
+        return rowCopyPolicy;
+    }
+
+    /**
+     * Sets how table rows are replicated, by default with the clipboard, which makes table filling of all documents sequential.
+     * Copying through the UNO API may be enabled for templates with simple table rows,
+     * rows with images or nested tables may be copied incompletely by it.
+     */
+    public void setRowCopyPolicy(RowCopyPolicy rowCopyPolicy) {
+        this.rowCopyPolicy = rowCopyPolicy;
+    }
+
     public void renderDocument() {
         try {
             doCreateDocument(outputStream);
@@ -185,27 +205,38 @@ public class DocFormatter extends AbstractFormatter {
 
     protected void fillTable(String name, BandData parentBand, TableManager tableManager, XDispatchHelper xDispatchHelper, int numberOfRowWithAliases)
             throws com.sun.star.uno.Exception {
-        // Lock clipboard, cause uno uses it to grow tables, relevant for desktops
-        synchronized (clipboardLock) {
-            XTextTable xTextTable = tableManager.getXTextTable();
-            if (officeIntegration.isDisplayDeviceAvailable()) {
-                clearClipboard();
+        if (rowCopyPolicy == RowCopyPolicy.CLIPBOARD) {
+            // Lock clipboard, cause uno uses it to grow tables, relevant for desktops
+            synchronized (clipboardLock) {
+                if (officeIntegration.isDisplayDeviceAvailable()) {
+                    clearClipboard();
+                }
+                doFillTable(name, parentBand, tableManager, xDispatchHelper, numberOfRowWithAliases);
             }
+        } else {
+            doFillTable(name, parentBand, tableManager, xDispatchHelper, numberOfRowWithAliases);
+        }
+    }
 
-            List<BandData> childrenByName = parentBand.getChildrenByName(name);
-            for (BandData ignored : childrenByName) {
+    protected void doFillTable(String name, BandData parentBand, TableManager tableManager, XDispatchHelper xDispatchHelper, int numberOfRowWithAliases)
+            throws com.sun.star.uno.Exception {
+        List<BandData> childrenByName = parentBand.getChildrenByName(name);
+        for (BandData ignored : childrenByName) {
+            if (rowCopyPolicy == RowCopyPolicy.CLIPBOARD) {
                 tableManager.copyRow(xDispatchHelper, as(XTextDocument.class, xComponent).getCurrentController(), numberOfRowWithAliases);
+            } else {
+                tableManager.copyRowWithoutClipboard(numberOfRowWithAliases);
             }
+        }
 
-            int i = numberOfRowWithAliases;
-            for (BandData child : childrenByName) {
-                if (name.equals(child.getName())) {
-                    fillRow(child, tableManager, i);
-                    i++;
-                }
+        int i = numberOfRowWithAliases;
+        for (BandData child : childrenByName) {
+            if (name.equals(child.getName())) {
+                fillRow(child, tableManager, i);
+                i++;
             }
-            tableManager.deleteRow(i);
         }
+        tableManager.deleteRow(i);
     }
 
     protected void fillRow(BandData band, TableManager tableManager, int row)
@@ -216,36 +247,40 @@ public class DocFormatter extends AbstractFormatter {
         }
     }
 
+    /**
+     * Reads the cell text once and replaces its aliases from the end backwards,
+     * so positions of the preceding aliases stay valid and the text is not re-read after each replacement.
+     */
     protected void fillCell(BandData band, XCell xCell) throws NoSuchElementException, WrappedTargetException {
         checkThreadInterrupted();
         XText xText = as(XText.class, xCell);
-        String cellText = xText.getString();
-        cellText = cellText.replace("\r\n", "\n");//just a workaround for Windows \r\n break symbol
-        List<String> parametersToInsert = new ArrayList<String>();
+        String cellText = formatCellText(xText.getString());//cursor counts a paragraph break as one symbol
+        List<AliasPosition> aliasPositions = new ArrayList<>();
         Matcher matcher = UNIVERSAL_ALIAS_PATTERN.matcher(cellText);
         while (matcher.find()) {
-            parametersToInsert.add(unwrapParameterName(matcher.group()));
+            String parameterName = matcher.group(1);
+            if (matcher.group().equals("${" + parameterName + "}")) {
+                aliasPositions.add(new AliasPosition(parameterName, matcher.start(), matcher.end()));
+            }
+        }
+        if (aliasPositions.isEmpty()) {
+            return;
         }
-        for (String parameterName : parametersToInsert) {
-            XTextCursor xTextCursor = xText.createTextCursor();
-
-            String paramStr = "${" + parameterName + "}";
-            int index = cellText.indexOf(paramStr);
-            while (index >= 0) {
-                xTextCursor.gotoStart(false);
-                xTextCursor.goRight((short) (index + paramStr.length()), false);
-                xTextCursor.goLeft((short) paramStr.length(), true);
 
-                insertValue(xText, xTextCursor, band, parameterName);
-                cellText = formatCellText(xText.getString());
+        XTextCursor xTextCursor = xText.createTextCursor();
+        for (AliasPosition aliasPosition : Lists.reverse(aliasPositions)) {
+            xTextCursor.gotoStart(false);
+            xTextCursor.goRight((short) aliasPosition.end, false);
+            xTextCursor.goLeft((short) (aliasPosition.end - aliasPosition.start), true);
 
-                index = cellText.indexOf(paramStr);
-            }
+            insertValue(xText, xTextCursor, band, aliasPosition.parameterName);
         }
     }
 
     /**
      * Replaces all aliases ${bandname.paramname} in document text.
+     * Values of aliases without content inliners are calculated once per alias
+     * and replaced in the whole document with one replace call per alias.
      *
      * @throws com.haulmont.yarg.exception.ReportingException If there is not appropriate band or alias is bad
      */
@@ -260,18 +295,29 @@ public class DocFormatter extends AbstractFormatter {
             throw new OpenOfficeException("An error occurred while setting search properties in Open office", e);
         }
 
+        Map<String, String> replacements = new LinkedHashMap<>();
         XIndexAccess indexAccess = xReplaceable.findAll(searchDescriptor);
         for (int i = 0; i < indexAccess.getCount(); i++) {
             try {
                 XTextRange textRange = as(XTextRange.class, indexAccess.getByIndex(i));
-                String alias = unwrapParameterName(textRange.getString());
+                String aliasText = textRange.getString();
+                if (replacements.containsKey(aliasText)) {
+                    continue;
+                }
+
+                String alias = unwrapParameterName(aliasText);
 
                 BandPathAndParameterName bandAndParameter = separateBandNameAndParameterName(alias);
 
                 BandData band = findBandByPath(bandAndParameter.getBandPath());
 
                 if (band != null) {
-                    insertValue(textRange.getText(), textRange, band, bandAndParameter.getParameterName());
+                    String parameterName = bandAndParameter.getParameterName();
+                    if (hasContentInliner(band, parameterName)) {
+                        insertValue(textRange.getText(), textRange, band, parameterName);
+                    } else {
+                        replacements.put(aliasText, formatParameterValue(band, parameterName));
+                    }
                 } else {
                     throw wrapWithReportingException(String.format("No band for alias [%s] found", alias));
                 }
@@ -281,6 +327,48 @@ public class DocFormatter extends AbstractFormatter {
                 throw wrapWithReportingException(String.format("An error occurred while replacing aliases in document. Regexp [%s]. Replacement number [%d]", ALIAS_WITH_BAND_NAME_REGEXP, i), e);
             }
         }
+
+        for (Map.Entry<String, String> replacement : replacements.entrySet()) {
+            checkThreadInterrupted();
+            XReplaceDescriptor replaceDescriptor = xReplaceable.createReplaceDescriptor();
+            replaceDescriptor.setSearchString(replacement.getKey());
+            replaceDescriptor.setReplaceString(replacement.getValue());
+            try {
+                replaceDescriptor.setPropertyValue(SEARCH_REGULAR_EXPRESSION, false);
+                replaceDescriptor.setPropertyValue(SEARCH_CASE_SENSITIVE, true);
+            } catch (Exception e) {
+                throw new OpenOfficeException("An error occurred while setting replace properties in Open office", e);
+            }
+            xReplaceable.replaceAll(replaceDescriptor);
+        }
+    }
+
+    protected boolean hasContentInliner(BandData band, String parameterName) {
+        Map<String, ReportFieldFormat> formats = rootBand.getReportFieldFormats();
+        String fullParameterName = band.getName() + "." + parameterName;
+        if (band.getParameterValue(parameterName) == null || formats == null || !formats.containsKey(fullParameterName)) {
+            return false;
+        }
+
+        String format = formats.get(fullParameterName).getFormat();
+        for (ContentInliner contentInliner : contentInliners) {
+            if (contentInliner.getTagPattern().matcher(format).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected String formatParameterValue(BandData band, String parameterName) {
+        Object paramValue = band.getParameterValue(parameterName);
+        if (paramValue == null) {
+            return "";
+        }
+        try {
+            return formatValue(paramValue, parameterName, band.getName() + "." + parameterName);
+        } catch (Exception ex) {
+            throw wrapWithReportingException(String.format("An error occurred while formatting parameter [%s]", parameterName), ex);
+        }
     }
 
     protected void insertValue(XText text, XTextRange textRange, BandData band, String parameterName) {
@@ -347,6 +435,18 @@ public class DocFormatter extends AbstractFormatter {
         }
     }
 
+    protected static class AliasPosition {
+        protected final String parameterName;
+        protected final int start;
+        protected final int end;
+
+        public AliasPosition(String parameterName, int start, int end) {
+            this.parameterName = parameterName;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
     protected class BandFinder {
         protected String tableName;
         protected TableManager tableManager;
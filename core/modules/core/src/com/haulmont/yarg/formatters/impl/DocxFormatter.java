@@ -16,6 +16,9 @@
 package com.haulmont.yarg.formatters.impl;
 
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
 import com.haulmont.yarg.formatters.factory.FormatterFactoryInput;
 import com.haulmont.yarg.formatters.impl.docx.*;
 import com.haulmont.yarg.formatters.impl.inline.ContentInliner;
@@ -26,16 +29,13 @@ import com.haulmont.yarg.structure.ReportOutputType;
 import org.apache.commons.io.IOUtils;
 import org.docx4j.Docx4J;
 import org.docx4j.TraversalUtil;
-import org.docx4j.convert.in.xhtml.XHTMLImporter;
-import org.docx4j.convert.in.xhtml.XHTMLImporterImpl;
 import org.docx4j.convert.out.HTMLSettings;
 import org.docx4j.openpackaging.exceptions.Docx4JException;
-import org.docx4j.openpackaging.io.SaveToZipFile;
+import org.docx4j.openpackaging.io3.Save;
 import org.docx4j.openpackaging.packages.WordprocessingMLPackage;
 import org.docx4j.openpackaging.parts.JaxbXmlPartAltChunkHost;
 import org.docx4j.openpackaging.parts.WordprocessingML.AltChunkType;
 import org.docx4j.openpackaging.parts.WordprocessingML.AlternativeFormatInputPart;
-import org.docx4j.openpackaging.parts.WordprocessingML.MainDocumentPart;
 import org.docx4j.toc.TocException;
 import org.docx4j.toc.TocFinder;
 import org.docx4j.toc.TocGenerator;
@@ -44,13 +44,17 @@ import org.docx4j.wml.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.regex.Matcher;
 
 /**
@@ -59,10 +63,27 @@ import java.util.regex.Matcher;
 public class DocxFormatter extends AbstractFormatter {
     protected static final Logger log = LoggerFactory.getLogger(DocxFormatter.class);
 
+    protected static final int COMPILED_TEMPLATES_CACHE_SIZE = 32;
+
+    /**
+     * Compiled templates by template content hash.
+     */
+    protected static final Cache<String, CompiledTemplate> compiledTemplates = CacheBuilder.newBuilder()
+            .maximumSize(COMPILED_TEMPLATES_CACHE_SIZE)
+            .softValues()
+            .build();
+
+    protected CompiledTemplate compiledTemplate;
     protected WordprocessingMLPackage wordprocessingMLPackage;
     protected DocumentWrapper documentWrapper;
     protected DocumentConverter documentConverter;
     protected HtmlImportProcessor htmlImportProcessor;
+    protected PdfConverter pdfConverter;
+    protected int streamingRowsThreshold;
+    protected TocPolicy tocPolicy = TocPolicy.FULL;
+    protected List<StreamedRows> streamedRows = new ArrayList<>();
+    protected boolean parallelHtmlProcessing;
+    protected HtmlChunkConverter htmlChunkConverter;
 
     public DocxFormatter(FormatterFactoryInput formatterFactoryInput) {
         super(formatterFactoryInput);
@@ -78,6 +99,52 @@ public class DocxFormatter extends AbstractFormatter {
         this.htmlImportProcessor = htmlImportProcessor;
     }
 
+    /**
+     * Sets converter used for PDF output when no document converter is set,
+     * if it is not set the document is converted by {@link Docx4J#toPDF(WordprocessingMLPackage, OutputStream)}.
+     */
+    public void setPdfConverter(PdfConverter pdfConverter) {
+        this.pdfConverter = pdfConverter;
+    }
+
+    public TocPolicy getTocPolicy() {
+        return tocPolicy;
+    }
+
+    /**
+     * Sets how the table of contents is updated, by default it is regenerated with page numbers.
+     */
+    public void setTocPolicy(TocPolicy tocPolicy) {
+        this.tocPolicy = tocPolicy;
+    }
+
+    public boolean isParallelHtmlProcessing() {
+        return parallelHtmlProcessing;
+    }
+
+    /**
+     * Enables parallel preprocessing of HTML alt chunks by {@link HtmlImportProcessor}, the processor has to be thread safe.
+     * Conversion of the chunks to WordML changes the document and is always sequential.
+     */
+    public void setParallelHtmlProcessing(boolean parallelHtmlProcessing) {
+        this.parallelHtmlProcessing = parallelHtmlProcessing;
+    }
+
+    public int getStreamingRowsThreshold() {
+        return streamingRowsThreshold;
+    }
+
+    /**
+     * Sets minimal number of table rows which are serialized as soon as they are filled instead of being kept in the document,
+     * so huge tables are written with bounded memory. Streaming is disabled if the value is not positive.
+     * Streamed rows are not visible to the processing that follows table filling:
+     * table of contents does not include their headings, urls of their hyperlinks are processed once for the template row.
+     * Streaming is used only when the document is saved as docx (including conversion by office).
+     */
+    public void setStreamingRowsThreshold(int streamingRowsThreshold) {
+        this.streamingRowsThreshold = streamingRowsThreshold;
+    }
+
     @Override
     public void renderDocument() {
         loadDocument();
@@ -94,29 +161,30 @@ public class DocxFormatter extends AbstractFormatter {
     }
 
     protected void updateTableOfContents() {
+        if (tocPolicy == TocPolicy.NONE || !compiledTemplate.hasTableOfContents() || !hasTableOfContents(wordprocessingMLPackage)) {
+            return;
+        }
         try {
-            MainDocumentPart documentPart = wordprocessingMLPackage.getMainDocumentPart();
-            Document wmlDocumentEl;
-            try {
-                wmlDocumentEl = documentPart.getContents();
-            } catch (Docx4JException e) {
-                throw new RuntimeException("Unable to get document content", e);
-            }
-            Body body =  wmlDocumentEl.getBody();
-
-            TocFinder finder = new TocFinder();
-            new TraversalUtil(body.getContent(), finder);
-            SdtBlock structuredDocumentPart = finder.getTocSDT();
-
-            if (structuredDocumentPart != null) {
-                TocGenerator tocGenerator = new TocGenerator(wordprocessingMLPackage);
-                tocGenerator.updateToc(false);
-            }
+            TocGenerator tocGenerator = new TocGenerator(wordprocessingMLPackage);
+            tocGenerator.updateToc(tocPolicy == TocPolicy.ENTRIES_ONLY);
         } catch (TocException e) {
             log.error("An error occurred during updating the Table Of Contents", e);
         }
     }
 
+    protected boolean hasTableOfContents(WordprocessingMLPackage mlPackage) {
+        Body body;
+        try {
+            body = mlPackage.getMainDocumentPart().getContents().getBody();
+        } catch (Docx4JException e) {
+            throw new RuntimeException("Unable to get document content", e);
+        }
+
+        TocFinder finder = new TocFinder();
+        new TraversalUtil(body.getContent(), finder);
+        return finder.getTocSDT() != null;
+    }
+
     protected void handleUrls() {
         UrlVisitor urlVisitor = new UrlVisitor(new DocxFormatterDelegate(this), wordprocessingMLPackage.getMainDocumentPart());
         new TraversalUtil(wordprocessingMLPackage.getMainDocumentPart(), urlVisitor);
@@ -126,13 +194,59 @@ public class DocxFormatter extends AbstractFormatter {
         if (reportTemplate == null)
             throw new NullPointerException("Template file can't be null.");
         try {
-            wordprocessingMLPackage = WordprocessingMLPackage.load(reportTemplate.getDocumentContent());
-            documentWrapper = new DocumentWrapper(new DocxFormatterDelegate(this), wordprocessingMLPackage);
-        } catch (Docx4JException e) {
+            byte[] templateContent = IOUtils.toByteArray(reportTemplate.getDocumentContent());
+            compiledTemplate = getCompiledTemplate(templateContent);
+            DocxFormatterDelegate docxFormatterDelegate = new DocxFormatterDelegate(this);
+            if (compiledTemplate.getLayout() != null) {
+                wordprocessingMLPackage = WordprocessingMLPackage.load(new ByteArrayInputStream(compiledTemplate.getPreprocessedTemplate()));
+                documentWrapper = compiledTemplate.getLayout().createDocumentWrapper(docxFormatterDelegate, wordprocessingMLPackage);
+            }
+            if (documentWrapper == null) {
+                wordprocessingMLPackage = WordprocessingMLPackage.load(new ByteArrayInputStream(templateContent));
+                documentWrapper = new DocumentWrapper(docxFormatterDelegate, wordprocessingMLPackage);
+            }
+        } catch (Docx4JException | IOException e) {
             throw wrapWithReportingException(String.format("An error occurred while reading docx template. File name [%s]", reportTemplate.getDocumentName()), e);
         }
     }
 
+    protected CompiledTemplate getCompiledTemplate(byte[] templateContent) {
+        String templateHash = Hashing.sha256().hashBytes(templateContent).toString();
+        try {
+            return compiledTemplates.get(templateHash, () -> compileTemplate(templateContent));
+        } catch (ExecutionException e) {
+            Exception cause = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            throw wrapWithReportingException(String.format("An error occurred while reading docx template. File name [%s]", reportTemplate.getDocumentName()), cause);
+        }
+    }
+
+    /**
+     * Merges runs of the aliases and removes band declarations of tables in the template,
+     * saves the result and collects layout of the saved document.
+     * Layout is not used if it could not be applied to the saved document.
+     */
+    protected CompiledTemplate compileTemplate(byte[] templateContent) throws Docx4JException {
+        WordprocessingMLPackage templatePackage = WordprocessingMLPackage.load(new ByteArrayInputStream(templateContent));
+        DocxFormatterDelegate docxFormatterDelegate = new DocxFormatterDelegate(this);
+        boolean tableOfContents = hasTableOfContents(templatePackage);
+        DocumentLayout layout = DocumentLayout.compile(docxFormatterDelegate, templatePackage);
+        if (layout == null) {
+            return new CompiledTemplate(null, null, tableOfContents);
+        }
+
+        ByteArrayOutputStream preprocessedTemplate = new ByteArrayOutputStream();
+        writeToOutputStream(templatePackage, preprocessedTemplate);
+        byte[] preprocessedContent = preprocessedTemplate.toByteArray();
+
+        WordprocessingMLPackage preprocessedPackage = WordprocessingMLPackage.load(new ByteArrayInputStream(preprocessedContent));
+        if (layout.createDocumentWrapper(docxFormatterDelegate, preprocessedPackage) == null) {
+            log.debug("Layout of docx template [{}] could not be applied to preprocessed template, template will not be precompiled",
+                    reportTemplate.getDocumentName());
+            return new CompiledTemplate(null, null, tableOfContents);
+        }
+        return new CompiledTemplate(preprocessedContent, layout, tableOfContents);
+    }
+
     protected void saveAndClose() {
         try {
             checkThreadInterrupted();
@@ -147,6 +261,9 @@ public class DocxFormatter extends AbstractFormatter {
                     writeToOutputStream(wordprocessingMLPackage, bos);
                     documentConverter.convertToPdf(DocumentConverter.FileType.DOCUMENT, bos.toByteArray(), outputStream);
                     outputStream.flush();
+                } else if (pdfConverter != null) {
+                    pdfConverter.convertToPdf(wordprocessingMLPackage, outputStream);
+                    outputStream.flush();
                 } else {
                     Docx4J.toPDF(wordprocessingMLPackage, outputStream);
                     outputStream.flush();
@@ -173,6 +290,17 @@ public class DocxFormatter extends AbstractFormatter {
             throw wrapWithReportingException("An error occurred while saving result report to PDF", e);
         } finally {
             IOUtils.closeQuietly(outputStream);
+            closeStreamedRows();
+        }
+    }
+
+    protected void closeStreamedRows() {
+        for (StreamedRows rows : streamedRows) {
+            try {
+                rows.close();
+            } catch (IOException e) {
+                log.warn("Unable to delete temporary file of table rows", e);
+            }
         }
     }
 
@@ -189,12 +317,10 @@ public class DocxFormatter extends AbstractFormatter {
             if (rowWithAliases != null) {
                 List<BandData> bands = rootBand.findBandsRecursively(resultingTable.getBandName());
 
-                if (bands.size() > 1) {
-                    for (final BandData band : bands) {
-                        Tr newRow = resultingTable.copyRow(rowWithAliases);
-                        resultingTable.fillRowFromBand(newRow, band);
-                    }
-                    resultingTable.getTable().getContent().remove(rowWithAliases);
+                if (bands.size() > 1 && isRowsStreamingEnabled(bands.size())) {
+                    streamRowsFromBands(resultingTable, rowWithAliases, bands);
+                } else if (bands.size() > 1) {
+                    resultingTable.fillRowsFromBands(rowWithAliases, bands);
                 } else if (bands.size() == 1) {
                     resultingTable.fillRowFromBand(rowWithAliases, bands.get(0));
                 } else if (bands.size() == 0) {
@@ -208,6 +334,20 @@ public class DocxFormatter extends AbstractFormatter {
         }
     }
 
+    protected boolean isRowsStreamingEnabled(int rowCount) {
+        return streamingRowsThreshold > 0 && rowCount >= streamingRowsThreshold
+                && (ReportOutputType.docx.equals(outputType) || documentConverter != null);
+    }
+
+    protected void streamRowsFromBands(TableManager resultingTable, Tr rowWithAliases, List<BandData> bands) {
+        //hyperlinks of the streamed rows are not visited later
+        new TraversalUtil(rowWithAliases, new UrlVisitor(new DocxFormatterDelegate(this), wordprocessingMLPackage.getMainDocumentPart()));
+
+        StreamedRows rows = new StreamedRows();
+        streamedRows.add(rows);
+        resultingTable.streamRowsFromBands(rowWithAliases, bands, rows);
+    }
+
     protected boolean tryToApplyInliners(String fullParameterName, Object paramValue, Text text) {
         Map<String, ReportFieldFormat> valueFormats = rootBand.getReportFieldFormats();
         if (paramValue != null && valueFormats != null && valueFormats.containsKey(fullParameterName)) {
@@ -225,18 +365,24 @@ public class DocxFormatter extends AbstractFormatter {
 
 
     protected void writeToOutputStream(WordprocessingMLPackage mlPackage, OutputStream outputStream) throws Docx4JException {
-        SaveToZipFile saver = new SaveToZipFile(mlPackage);
+        Save saver = mlPackage == wordprocessingMLPackage && !streamedRows.isEmpty()
+                ? new Save(mlPackage, new StreamingZipPartStore(mlPackage, streamedRows))
+                : new Save(mlPackage);
         saver.save(outputStream);
     }
 
-    @SuppressWarnings("unchecked")
     public void convertAltChunks() throws Docx4JException {
+        convertAltChunks(((ContentAccessor) wordprocessingMLPackage.getMainDocumentPart()).getContent());
+    }
+
+    @SuppressWarnings("unchecked")
+    public void convertAltChunks(List<Object> contentList) {
         JaxbXmlPartAltChunkHost mainDocumentPart = wordprocessingMLPackage.getMainDocumentPart();
-        List<Object> contentList = ((ContentAccessor) mainDocumentPart).getContent();
 
         AltChunkFinder bf = new AltChunkFinder();
         new TraversalUtil(contentList, bf);
 
+        Map<AltChunkFinder.LocatedChunk, String> htmlChunks = new LinkedHashMap<>();
         for (AltChunkFinder.LocatedChunk locatedChunk : bf.getAltChunks()) {
             CTAltChunk altChunk = locatedChunk.getAltChunk();
             AlternativeFormatInputPart part
@@ -244,42 +390,99 @@ public class DocxFormatter extends AbstractFormatter {
                     altChunk.getId());
             if (part.getAltChunkType().equals(AltChunkType.Xhtml)) {
                 try {
-                    XHTMLImporter xHTMLImporter = new XHTMLImporterImpl(wordprocessingMLPackage);
-                    List results = xHTMLImporter.convert(
-                            htmlImportProcessor.processHtml(toString(part.getBuffer())), null);
-                    locatedChunk.getContentList().remove(locatedChunk.getIndex());
-                    Object chunkParent = locatedChunk.getAltChunk().getParent();
-                    R run = (R) chunkParent;//always should be R
-                    P paragraph = (P) run.getParent();
-
-                    if (results.size() == 1 && results.get(0) instanceof P) {
-                        P resultP = (P)results.get(0);
-                        paragraph.getContent().addAll(resultP.getContent());
+                    htmlChunks.put(locatedChunk, toString(part.getBuffer()));
+                } catch (Exception e) {
+                    log.error("An error occurred while converting HTML parts of DOCX document:", e);
+                }
+            }
+        }
+        if (htmlChunks.isEmpty()) {
+            return;
+        }
+
+        HtmlChunkConverter converter = getHtmlChunkConverter();
+        try {
+            converter.processHtml(htmlChunks.values());
+        } catch (Exception e) {
+            log.error("An error occurred while converting HTML parts of DOCX document:", e);
+        }
+
+        for (Map.Entry<AltChunkFinder.LocatedChunk, String> entry : htmlChunks.entrySet()) {
+            AltChunkFinder.LocatedChunk locatedChunk = entry.getKey();
+            try {
+                List results = converter.convert(entry.getValue());
+                locatedChunk.getContentList().remove(locatedChunk.getIndex());
+                Object chunkParent = locatedChunk.getAltChunk().getParent();
+                R run = (R) chunkParent;//always should be R
+                P paragraph = (P) run.getParent();
+
+                if (results.size() == 1 && results.get(0) instanceof P) {
+                    P resultP = (P)results.get(0);
+                    paragraph.getContent().addAll(resultP.getContent());
+                } else {
+                    if (paragraph.getParent() instanceof ArrayListWml) {
+                        ArrayListWml parent = (ArrayListWml) paragraph.getParent();
+                        parent.addAll(parent.indexOf(paragraph), results);
+                        if (results.get(0) instanceof P) {
+                            P resultParagraph = (P) results.get(0);
+                            resultParagraph.setPPr(paragraph.getPPr());
+                        }
+                        parent.remove(paragraph);
                     } else {
-                        if (paragraph.getParent() instanceof ArrayListWml) {
-                            ArrayListWml parent = (ArrayListWml) paragraph.getParent();
-                            parent.addAll(parent.indexOf(paragraph), results);
-                            if (results.get(0) instanceof P) {
-                                P resultParagraph = (P) results.get(0);
-                                resultParagraph.setPPr(paragraph.getPPr());
-                            }
-                            parent.remove(paragraph);
-                        } else {
-                            for (Object result : results) {
-                                if (result instanceof P) {
-                                    P resultParagraph = (P) result;
-                                    paragraph.getContent().addAll(resultParagraph.getContent());
-                                }
+                        for (Object result : results) {
+                            if (result instanceof P) {
+                                P resultParagraph = (P) result;
+                                paragraph.getContent().addAll(resultParagraph.getContent());
                             }
                         }
                     }
-                } catch (Exception e) {
-                    log.error("An error occurred while converting HTML parts of DOCX document:", e);
                 }
+            } catch (Exception e) {
+                log.error("An error occurred while converting HTML parts of DOCX document:", e);
             }
         }
     }
 
+    protected HtmlChunkConverter getHtmlChunkConverter() {
+        if (htmlChunkConverter == null) {
+            htmlChunkConverter = new HtmlChunkConverter(wordprocessingMLPackage, htmlImportProcessor, parallelHtmlProcessing);
+        }
+        return htmlChunkConverter;
+    }
+
+    /**
+     * Template preprocessed before data is applied, shared between renders.
+     */
+    protected static class CompiledTemplate {
+        protected final byte[] preprocessedTemplate;
+        protected final DocumentLayout layout;
+        protected final boolean tableOfContents;
+
+        protected CompiledTemplate(byte[] preprocessedTemplate, DocumentLayout layout, boolean tableOfContents) {
+            this.preprocessedTemplate = preprocessedTemplate;
+            this.layout = layout;
+            this.tableOfContents = tableOfContents;
+        }
+
+        public byte[] getPreprocessedTemplate() {
+            return preprocessedTemplate;
+        }
+
+        /**
+         * @return layout of the preprocessed template or null if the template should be processed as is
+         */
+        public DocumentLayout getLayout() {
+            return layout;
+        }
+
+        /**
+         * @return true if the template contains table of contents
+         */
+        public boolean hasTableOfContents() {
+            return tableOfContents;
+        }
+    }
+
     private String toString(ByteBuffer bb) throws UnsupportedEncodingException {
         byte[] bytes = new byte[bb.limit()];
         bb.get(bytes);
@@ -91,6 +91,14 @@ public class DocxFormatterDelegate {
         return docxFormatter.tryToApplyInliners(fullParameterName, paramValue, text);
     }
 
+    public void checkThreadInterrupted() {
+        docxFormatter.checkThreadInterrupted();
+    }
+
+    public void convertAltChunks(List<Object> contentList) {
+        docxFormatter.convertAltChunks(contentList);
+    }
+
     public String handleStringWithAliases(String template) {
         String result = template;
         Matcher matcher = AbstractFormatter.ALIAS_WITH_BAND_NAME_PATTERN.matcher(result);
@@ -101,7 +109,7 @@ public class DocxFormatterDelegate {
             AbstractFormatter.BandPathAndParameterName bandAndParameter = separateBandNameAndParameterName(alias);
 
             if (isBlank(bandAndParameter.getBandPath()) || isBlank(bandAndParameter.getParameterName())) {
-                if (alias.matches("[A-z0-9_\\.]+?")) {//skip aliases in tables
+                if (AbstractFormatter.TABLE_ALIAS_PATTERN.matcher(alias).matches()) {//skip aliases in tables
                     continue;
                 }
 
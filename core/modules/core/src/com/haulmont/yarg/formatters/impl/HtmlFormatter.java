@@ -15,10 +15,14 @@
  */
 package com.haulmont.yarg.formatters.impl;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
 import com.haulmont.yarg.exception.ReportingException;
 import com.haulmont.yarg.exception.UnsupportedFormatException;
 import com.haulmont.yarg.formatters.factory.FormatterFactoryInput;
 import com.haulmont.yarg.formatters.factory.HtmlToPdfConverterFactory;
+import com.haulmont.yarg.formatters.impl.html.BandModel;
 import com.haulmont.yarg.formatters.impl.pdf.ITextPdfConverter;
 import com.haulmont.yarg.formatters.impl.pdf.HtmlToPdfConverter;
 import com.haulmont.yarg.structure.BandData;
@@ -37,10 +41,9 @@ import org.xhtmlrenderer.pdf.ITextRenderer;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
 import static java.lang.String.format;
 
@@ -50,6 +53,29 @@ import static java.lang.String.format;
 public class HtmlFormatter extends AbstractFormatter {
     private static final Logger log = LoggerFactory.getLogger(HtmlFormatter.class);
 
+    protected static final int TEMPLATES_CACHE_SIZE = 64;
+
+    /**
+     * Shared configuration, it is thread safe as it is not changed after creation.
+     */
+    protected static final Configuration freemarkerConfiguration = createFreemarkerConfiguration();
+
+    /**
+     * Parsed freemarker templates by template name and content hash.
+     */
+    protected static final Cache<String, freemarker.template.Template> freemarkerTemplates = CacheBuilder.newBuilder()
+            .maximumSize(TEMPLATES_CACHE_SIZE)
+            .softValues()
+            .build();
+
+    /**
+     * Compiled groovy templates by template name and content hash, each of them holds a generated class.
+     */
+    protected static final Cache<String, groovy.text.Template> groovyTemplates = CacheBuilder.newBuilder()
+            .maximumSize(TEMPLATES_CACHE_SIZE)
+            .softValues()
+            .build();
+
     protected BeansWrapper beansWrapper = new BeansWrapper();
     protected ObjectWrapper objectWrapper;
     protected String fontsDirectory;
@@ -194,7 +220,8 @@ public class HtmlFormatter extends AbstractFormatter {
             Writer htmlWriter = new OutputStreamWriter(outputStream);
 
             try {
-                htmlTemplate.process(templateModel, htmlWriter);
+                //template is shared, so the object wrapper is passed to the processing instead of the template
+                htmlTemplate.createProcessingEnvironment(templateModel, htmlWriter, objectWrapper).process();
                 htmlWriter.close();
             } catch (TemplateException fmException) {
                 throw wrapWithReportingException("FreeMarkerException: " + fmException.getMessage());
@@ -212,51 +239,49 @@ public class HtmlFormatter extends AbstractFormatter {
         return model;
     }
 
+    /**
+     * @return view of the band, bands are not copied to the model, templates read them when they need.
+     * Models of the children bands are created by this method as well.
+     */
+    @SuppressWarnings("unchecked")
     protected Map getBandModel(BandData band) {
-        Map<String, Object> model = new HashMap<String, Object>();
-
-        Map<String, Object> bands = new HashMap<String, Object>();
-        for (String bandName : band.getChildrenBands().keySet()) {
-            List<BandData> subBands = band.getChildrenBands().get(bandName);
-            List<Map> bandModels = new ArrayList<Map>();
-            for (BandData child : subBands)
-                bandModels.add(getBandModel(child));
-
-            bands.put(bandName, bandModels);
-        }
-        model.put("bands", bands);
-
-        model.put("fields", band.getData());
-
-        return model;
+        return new BandModel(band, this::getBandModel);
     }
 
     protected freemarker.template.Template getFreemarkerTemplate() {
         try {
             String templateContent = IOUtils.toString(reportTemplate.getDocumentContent(), StandardCharsets.UTF_8);
-            StringTemplateLoader stringLoader = new StringTemplateLoader();
-            stringLoader.putTemplate(reportTemplate.getDocumentName(), templateContent);
-
-            Configuration fmConfiguration = new Configuration();
-            fmConfiguration.setTemplateLoader(stringLoader);
-            fmConfiguration.setDefaultEncoding("UTF-8");
-
-            freemarker.template.Template htmlTemplate = fmConfiguration.getTemplate(reportTemplate.getDocumentName());
-            htmlTemplate.setObjectWrapper(objectWrapper);
-            return htmlTemplate;
+            return freemarkerTemplates.get(getTemplateKey(templateContent), () ->
+                    new freemarker.template.Template(reportTemplate.getDocumentName(), new StringReader(templateContent), freemarkerConfiguration));
         } catch (Exception e) {
-            throw wrapWithReportingException("An error occurred while creating freemarker template", e);
+            throw wrapWithReportingException("An error occurred while creating freemarker template",
+                    e instanceof ExecutionException && e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
         }
     }
 
     protected groovy.text.Template getGroovyTemplate() {
         try {
-            GStringTemplateEngine templateEngine = new GStringTemplateEngine();
             String templateContent = IOUtils.toString(reportTemplate.getDocumentContent(), StandardCharsets.UTF_8);
-            groovy.text.Template htmlTemplate = templateEngine.createTemplate(templateContent);
-            return htmlTemplate;
+            return groovyTemplates.get(getTemplateKey(templateContent), () ->
+                    new GStringTemplateEngine().createTemplate(templateContent));
         } catch (Exception e) {
-            throw wrapWithReportingException("An error occurred while creating groovy template", e);
+            throw wrapWithReportingException("An error occurred while creating groovy template",
+                    e instanceof ExecutionException && e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
         }
     }
+
+    protected String getTemplateKey(String templateContent) {
+        return reportTemplate.getDocumentName() + ":" + Hashing.sha256().hashString(templateContent, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Templates are parsed from the report content, so the configuration gets an empty loader
+     * instead of the default one reading files from the working directory.
+     */
+    protected static Configuration createFreemarkerConfiguration() {
+        Configuration configuration = new Configuration();
+        configuration.setTemplateLoader(new StringTemplateLoader());
+        configuration.setDefaultEncoding("UTF-8");
+        return configuration;
+    }
 }
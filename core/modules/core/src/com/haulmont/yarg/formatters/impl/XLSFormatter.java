@@ -16,8 +16,11 @@
 
 package com.haulmont.yarg.formatters.impl;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
+import com.google.common.hash.Hashing;
 import com.haulmont.yarg.exception.ReportingException;
 import com.haulmont.yarg.exception.UnsupportedFormatException;
 import com.haulmont.yarg.formatters.factory.FormatterFactoryInput;
@@ -25,9 +28,11 @@ import com.haulmont.yarg.formatters.impl.xls.Area;
 import com.haulmont.yarg.formatters.impl.xls.AreaDependencyManager;
 import com.haulmont.yarg.formatters.impl.xls.Cell;
 import com.haulmont.yarg.formatters.impl.xls.DocumentConverter;
+import com.haulmont.yarg.formatters.impl.xls.RangeLayout;
+import com.haulmont.yarg.formatters.impl.xls.StreamingWorkbookWriter;
+import com.haulmont.yarg.formatters.impl.xls.caches.HSSFStyleCacheKey;
 import com.haulmont.yarg.formatters.impl.xls.caches.XlsFontCache;
 import com.haulmont.yarg.formatters.impl.xls.caches.XlsStyleCache;
-import com.haulmont.yarg.formatters.impl.xls.caches.XslStyleHelper;
 import com.haulmont.yarg.formatters.impl.xls.hints.*;
 import com.haulmont.yarg.formatters.impl.xlsx.Range;
 import com.haulmont.yarg.structure.BandData;
@@ -36,24 +41,31 @@ import com.haulmont.yarg.structure.ReportOutputType;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.poi.hssf.model.HSSFFormulaParser;
 import org.apache.poi.hssf.record.EscherAggregate;
+import org.apache.poi.hssf.record.aggregates.FormulaRecordAggregate;
 import org.apache.poi.hssf.usermodel.*;
 import org.apache.poi.ss.SpreadsheetVersion;
 import org.apache.poi.ss.formula.ptg.AreaPtg;
 import org.apache.poi.ss.formula.ptg.Ptg;
 import org.apache.poi.ss.formula.ptg.RefPtg;
 import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.ss.util.AreaReference;
 import org.apache.poi.ss.util.CellRangeAddress;
 import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.ss.util.PaneInformation;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
 
+import static com.haulmont.yarg.formatters.impl.xls.HSSFCellHelper.copyFormulaTokens;
 import static com.haulmont.yarg.formatters.impl.xls.HSSFCellHelper.getCellFromReference;
+import static com.haulmont.yarg.formatters.impl.xls.HSSFCellHelper.getFormulaRecord;
+import static com.haulmont.yarg.formatters.impl.xls.HSSFPicturesHelper.copyAnchor;
 import static com.haulmont.yarg.formatters.impl.xls.HSSFPicturesHelper.getAllAnchors;
 import static com.haulmont.yarg.formatters.impl.xls.HSSFRangeHelper.*;
 
@@ -64,7 +76,18 @@ import static com.haulmont.yarg.formatters.impl.xls.HSSFRangeHelper.*;
 //todo : we need to rewrite logic in the way similar to XlsxFormatter (store rendered ranges in memory) - use bandsToResultRanges etc.
 public class XLSFormatter extends AbstractFormatter {
     protected static final String DYNAMIC_HEIGHT_STYLE = "styleWithoutHeight";
+    protected static final int COMPILED_TEMPLATES_CACHE_SIZE = 32;
+    protected static final int MAX_SHEET_NAME_LENGTH = 31;
 
+    /**
+     * Compiled templates by template content hash. Template workbooks are shared between renders.
+     */
+    protected static final Cache<String, CompiledTemplate> compiledTemplates = CacheBuilder.newBuilder()
+            .maximumSize(COMPILED_TEMPLATES_CACHE_SIZE)
+            .softValues()
+            .build();
+
+    protected CompiledTemplate compiledTemplate;
     protected HSSFWorkbook templateWorkbook;
     protected HSSFWorkbook resultWorkbook;
 
@@ -72,6 +95,10 @@ public class XLSFormatter extends AbstractFormatter {
 
     protected XlsFontCache fontCache = new XlsFontCache();
     protected XlsStyleCache styleCache = new XlsStyleCache();
+    /**
+     * Result styles by template style index
+     */
+    protected HSSFCellStyle[] resultStyles;
 
     protected int rownum = 0;
     protected int colnum = 0;
@@ -81,9 +108,19 @@ public class XLSFormatter extends AbstractFormatter {
     protected Map<String, List<SheetRange>> mergeRegionsForRangeNames = new HashMap<>();
     protected Map<HSSFSheet, HSSFSheet> templateToResultSheetsMapping = new HashMap<>();
     protected Map<String, Bounds> templateBounds = new HashMap<>();
+    protected Map<String, RangeLayout> rangeLayouts = new HashMap<>();
 
     protected AreaDependencyManager areaDependencyManager = new AreaDependencyManager();
     protected Map<Area, List<Area>> areasDependency = areaDependencyManager.getAreasDependency();
+    /**
+     * Formula cells by result areas which contain them
+     */
+    protected Map<Area, List<ResultFormula>> formulaCells = new IdentityHashMap<>();
+    /**
+     * Result sheets by result areas, areas of continuation sheets have the same coordinates as areas of the first sheet
+     */
+    protected Map<Area, HSSFSheet> resultAreaSheets = new IdentityHashMap<>();
+    protected Set<HSSFSheet> continuationSheets = new HashSet<>();
 
     protected List<Integer> orderedPicturesId = new ArrayList<>();
     protected Map<String, EscherAggregate> sheetToEscherAggregate = new HashMap<>();
@@ -93,6 +130,15 @@ public class XLSFormatter extends AbstractFormatter {
 
     protected DocumentConverter documentConverter;
 
+    protected int streamingRowsThreshold;
+    protected StreamingWorkbookWriter streamingWriter;
+    protected int rowsInMemory;
+    /**
+     * Index of the last root band which contains a band with the name, used to check formulas of streamed rows
+     */
+    protected Map<String, Integer> lastRootBandIndexes = new HashMap<>();
+    protected int writtenRootBands;
+
     protected BiMap<BandData, Range> bandsToResultRanges = HashBiMap.create();
 
     public XLSFormatter(FormatterFactoryInput formatterFactoryInput) {
@@ -110,21 +156,44 @@ public class XLSFormatter extends AbstractFormatter {
         this.documentConverter = documentConverter;
     }
 
+    public int getStreamingRowsThreshold() {
+        return streamingRowsThreshold;
+    }
+
+    /**
+     * Sets number of result rows kept in memory, then the rows of finished root bands are serialized to BIFF8 records
+     * and removed from the workbook, see {@link StreamingWorkbookWriter}. Streaming is disabled if the value is not positive.
+     * Streaming is used only when the document is saved as xls and supports simple templates:
+     * cell hints are not supported, formulas may refer only to their own band and to bands written before them,
+     * bands of a sheet have to be written from top to bottom.
+     */
+    public void setStreamingRowsThreshold(int streamingRowsThreshold) {
+        this.streamingRowsThreshold = streamingRowsThreshold;
+    }
+
     @Override
     public void renderDocument() {
-        initWorkbook();
+        try {
+            initWorkbook();
 
-        processDocument();
+            processDocument();
 
-        applyHints();
+            applyHints();
 
-        outputDocument();
+            outputDocument();
+        } finally {
+            IOUtils.closeQuietly(streamingWriter);
+        }
     }
 
     protected void initWorkbook() {
+        compiledTemplate = getCompiledTemplate();
+        templateWorkbook = compiledTemplate.getTemplateWorkbook();
+        mergeRegionsForRangeNames = compiledTemplate.getMergeRegionsForRangeNames();
+        templateBounds.putAll(compiledTemplate.getTemplateBounds());
+
         try {
-            templateWorkbook = new HSSFWorkbook(reportTemplate.getDocumentContent());
-            resultWorkbook = new HSSFWorkbook(reportTemplate.getDocumentContent());
+            resultWorkbook = new HSSFWorkbook(new ByteArrayInputStream(compiledTemplate.getResultSkeleton()));
         } catch (IOException e) {
             throw wrapWithReportingException("An error occurred while parsing xls template " + reportTemplate.getDocumentName(), e);
         }
@@ -134,36 +203,175 @@ public class XLSFormatter extends AbstractFormatter {
             HSSFSheet resultSheet = resultWorkbook.getSheetAt(sheetNumber);
             templateToResultSheetsMapping.put(templateSheet, resultSheet);
 
-            initMergeRegions(templateSheet);
             copyCharts(resultSheet);
-            removeMergedRegions(resultSheet);
-            cleanupCells(resultSheet);
         }
 
         copyPicturesToResultWorkbook();
 
         initNamedStyleCache();
+
+        resultStyles = new HSSFCellStyle[compiledTemplate.getStyleKeys().length];
+
+        if (isRowsStreamingEnabled()) {
+            streamingWriter = new StreamingWorkbookWriter(resultWorkbook);
+        }
     }
 
-    protected void initNamedStyleCache() {
-        for (short i = 0; i < resultWorkbook.getNumCellStyles(); i++) {
-            HSSFCellStyle cellStyle = resultWorkbook.getCellStyleAt(i);
+    protected boolean isRowsStreamingEnabled() {
+        return streamingRowsThreshold > 0 && ReportOutputType.xls.equals(outputType);
+    }
+
+    protected CompiledTemplate getCompiledTemplate() {
+        byte[] templateContent;
+        try {
+            templateContent = IOUtils.toByteArray(reportTemplate.getDocumentContent());
+        } catch (IOException e) {
+            throw wrapWithReportingException("An error occurred while reading xls template " + reportTemplate.getDocumentName(), e);
+        }
+
+        String templateHash = Hashing.sha256().hashBytes(templateContent).toString();
+        try {
+            return compiledTemplates.get(templateHash, () -> compileTemplate(templateContent));
+        } catch (ExecutionException e) {
+            Exception cause = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            throw wrapWithReportingException("An error occurred while parsing xls template " + reportTemplate.getDocumentName(), cause);
+        }
+    }
+
+    /**
+     * Parses the template, collects all data which does not depend on report data
+     * and prepares cleaned result workbook skeleton.
+     * Compiled template is shared between renders, so the template workbook is prepared to be used read-only:
+     * cells of named ranges are created beforehand, fonts and picture anchors are loaded.
+     * The formatter state is not changed here, {@link #initWorkbook()} takes it from the compiled template.
+     */
+    protected CompiledTemplate compileTemplate(byte[] templateContent) throws IOException {
+        HSSFWorkbook templateWorkbook = new HSSFWorkbook(new ByteArrayInputStream(templateContent));
+        HSSFWorkbook skeletonWorkbook = new HSSFWorkbook(new ByteArrayInputStream(templateContent));
+        CompiledTemplate compiled = new CompiledTemplate(templateWorkbook);
+
+        for (int sheetNumber = 0; sheetNumber < templateWorkbook.getNumberOfSheets(); sheetNumber++) {
+            HSSFSheet templateSheet = templateWorkbook.getSheetAt(sheetNumber);
+            HSSFSheet skeletonSheet = skeletonWorkbook.getSheetAt(sheetNumber);
+
+            initMergeRegions(templateWorkbook, templateSheet, compiled.mergeRegionsForRangeNames);
+            compiled.anchors.put(templateSheet.getSheetName(), getAllAnchors(templateSheet.getDrawingEscherAggregate()));
+            collectFormulaTokens(templateSheet, compiled.formulaTokens);
+            removeMergedRegions(skeletonSheet);
+            cleanupCells(skeletonSheet);
+        }
+
+        for (int i = 0; i < templateWorkbook.getNumberOfNames(); i++) {
+            HSSFName aNamedRange = templateWorkbook.getNameAt(i);
+            String refersToFormula = aNamedRange.getRefersToFormula();
+            if (!AreaReference.isContiguous(refersToFormula)) {
+                continue;
+            }
+
+            AreaReference aref = new AreaReference(refersToFormula, SpreadsheetVersion.EXCEL97);
+            HSSFSheet templateSheet = templateWorkbook.getSheet(aNamedRange.getSheetName());
+            if (templateSheet != null && !aref.isWholeColumnReference()) {
+                CellReference[] crefs = aref.getAllReferencedCells();
+                for (CellReference cref : crefs) {
+                    getCellFromReference(cref, templateSheet);
+                }
+                compiled.templateBounds.put(aNamedRange.getNameName(), new Bounds(crefs[0].getRow(), crefs[0].getCol(),
+                        crefs[crefs.length - 1].getRow(), crefs[crefs.length - 1].getCol()));
+            }
+        }
+
+        compiled.styleKeys = new HSSFStyleCacheKey[templateWorkbook.getNumCellStyles()];
+        for (short i = 0; i < templateWorkbook.getNumCellStyles(); i++) {
+            HSSFCellStyle cellStyle = templateWorkbook.getCellStyleAt(i);
+            //fonts are lazily loaded by the workbook, so load them before sharing
+            cellStyle.getFont(templateWorkbook);
+            compiled.styleKeys[i] = new HSSFStyleCacheKey(cellStyle);
             if (StringUtils.isNotBlank(cellStyle.getUserStyleName())) {
-                styleCache.addNamedStyle(cellStyle);
+                compiled.namedStyleIndexes.add(i);
             }
         }
+
+        for (HSSFPictureData pictureData : templateWorkbook.getAllPictures()) {
+            compiled.pictures.add(pictureData.getData());
+        }
+
+        ByteArrayOutputStream skeleton = new ByteArrayOutputStream();
+        skeletonWorkbook.write(skeleton);
+        compiled.resultSkeleton = skeleton.toByteArray();
+        return compiled;
+    }
+
+    /**
+     * Parses formulas of the template sheet once, formulas with aliases are written as text after aliases are inserted.
+     * Array formulas are not supported.
+     */
+    protected void collectFormulaTokens(HSSFSheet templateSheet, Map<String, Ptg[]> formulaTokens) {
+        for (int rowNumber = templateSheet.getFirstRowNum(); rowNumber <= templateSheet.getLastRowNum(); rowNumber++) {
+            HSSFRow row = templateSheet.getRow(rowNumber);
+            if (row == null) {
+                continue;
+            }
+            for (int columnNumber = Math.max(row.getFirstCellNum(), 0); columnNumber < row.getLastCellNum(); columnNumber++) {
+                HSSFCell cell = row.getCell(columnNumber);
+                if (cell == null || cell.getCellType() != CellType.FORMULA || cell.isPartOfArrayFormulaGroup()
+                        || UNIVERSAL_ALIAS_PATTERN.matcher(cell.getCellFormula()).find()) {
+                    continue;
+                }
+                formulaTokens.put(CompiledTemplate.getCellKey(cell), getFormulaRecord(cell).getFormulaTokens());
+            }
+        }
+    }
+
+    protected void initNamedStyleCache() {
+        for (short styleIndex : compiledTemplate.getNamedStyleIndexes()) {
+            styleCache.addNamedStyle(resultWorkbook.getCellStyleAt(styleIndex));
+        }
     }
 
     protected void processDocument() {
-        for (BandData childBand : rootBand.getChildrenList()) {
+        List<BandData> childBands = rootBand.getChildrenList();
+        if (streamingWriter != null) {
+            for (int i = 0; i < childBands.size(); i++) {
+                collectBandIndexes(childBands.get(i), i);
+            }
+        }
+
+        for (BandData childBand : childBands) {
             checkThreadInterrupted();
             writeBand(childBand);
+            writtenRootBands++;
+
+            if (streamingWriter != null && rowsInMemory >= streamingRowsThreshold) {
+                streamRows();
+            }
         }
 
         updateFormulas();
         copyPictures();
     }
 
+    protected void collectBandIndexes(BandData band, int rootBandIndex) {
+        lastRootBandIndexes.put(band.getName(), rootBandIndex);
+        for (BandData child : band.getChildrenList()) {
+            collectBandIndexes(child, rootBandIndex);
+        }
+    }
+
+    /**
+     * Shifts formulas of the written bands and serializes rows of the result sheets
+     * except rows which may be filled by the next root bands of the same vertical band.
+     */
+    protected void streamRows() {
+        updateFormulas();
+
+        HSSFSheet currentResultSheet = templateToResultSheetsMapping.get(currentTemplateSheet);
+        for (int sheetNumber = 0; sheetNumber < resultWorkbook.getNumberOfSheets(); sheetNumber++) {
+            HSSFSheet resultSheet = resultWorkbook.getSheetAt(sheetNumber);
+            streamingWriter.flushRows(resultSheet, resultSheet == currentResultSheet ? rownum : Integer.MAX_VALUE);
+        }
+        rowsInMemory = 0;
+    }
+
     protected void applyHints() {
         for (XlsHint option : hints) {
             option.apply();
@@ -174,7 +382,11 @@ public class XLSFormatter extends AbstractFormatter {
         checkThreadInterrupted();
         if (ReportOutputType.xls.equals(outputType)) {
             try {
-                resultWorkbook.write(outputStream);
+                if (streamingWriter != null) {
+                    streamingWriter.write(outputStream);
+                } else {
+                    resultWorkbook.write(outputStream);
+                }
             } catch (Exception e) {
                 throw wrapWithReportingException("An error occurred while writing result to file.", e);
             } finally {
@@ -198,9 +410,8 @@ public class XLSFormatter extends AbstractFormatter {
     }
 
     protected void copyPicturesToResultWorkbook() {
-        List<HSSFPictureData> allPictures = templateWorkbook.getAllPictures();
-        for (HSSFPictureData allPicture : allPictures) {
-            int i = resultWorkbook.addPicture(allPicture.getData(), Workbook.PICTURE_TYPE_JPEG);
+        for (byte[] picture : compiledTemplate.getPictures()) {
+            int i = resultWorkbook.addPicture(picture, Workbook.PICTURE_TYPE_JPEG);
             orderedPicturesId.add(i);
         }
     }
@@ -284,6 +495,7 @@ public class XLSFormatter extends AbstractFormatter {
     /**
      * Method writes horizontal band
      * Note: Only one band for row is supported. Now we think that many bands for row aren't usable.
+     * When the result sheet reaches xls rows limit, the rest of the report rolls over to a continuation sheet.
      *
      * @param band          - band to write
      * @param templateSheet - template sheet
@@ -291,85 +503,68 @@ public class XLSFormatter extends AbstractFormatter {
      */
     protected void writeHorizontalBand(BandData band, HSSFSheet templateSheet, HSSFSheet resultSheet) {
         String rangeName = band.getName();
-        AreaReference templateRange = getAreaForRange(templateWorkbook, rangeName);
-        if (templateRange == null) {
+        RangeLayout layout = getRangeLayout(rangeName);
+        if (layout == null) {
             throw wrapWithReportingException(String.format("No such named range in xls file: %s", rangeName));
         }
-        CellReference[] crefs = templateRange.getAllReferencedCells();
 
-        CellReference topLeft, bottomRight;
-        AreaReference resultRange;
+        if (rownum + rowsAddedByHorizontalBand + layout.getRows().size() > SpreadsheetVersion.EXCEL97.getMaxRows()) {
+            resultSheet = createContinuationSheet(templateSheet, resultSheet);
+            rownum = 0;
+            rowsAddedByHorizontalBand = 0;
+        }
 
         int rowsAddedByHorizontalBandBackup = rowsAddedByHorizontalBand;
         int rownumBackup = rownum;
 
-        if (crefs != null) {
-            addRangeBounds(band, crefs);
+        addRangeBounds(band, layout.getCellReferences());
 
-            ArrayList<HSSFRow> resultRows = new ArrayList<>();
+        CellReference topLeft = new CellReference(rownum + rowsAddedByHorizontalBand, 0);
+        List<ResultFormula> bandFormulaCells = new ArrayList<>();
+        // no child bands - merge regions now
+        if (band.getChildrenList().isEmpty()) {
+            copyMergeRegions(resultSheet, layout, rownum + rowsAddedByHorizontalBand, layout.getFirstColumn());
+        }
 
-            int currentRowNum = -1;
-            int currentRowCount = -1;
-            int currentColumnCount = 0;
-            int offset = 0;
+        for (RangeLayout.RowLayout rowLayout : layout.getRows()) {
+            HSSFRow resultRow = createRow(resultSheet, rownum + rowsAddedByHorizontalBand);
+            if (rowLayout.isPageBreak()) {
+                resultSheet.setRowBreak(resultRow.getRowNum());
+            }
+            rowsAddedByHorizontalBand += 1;
 
-            topLeft = new CellReference(rownum + rowsAddedByHorizontalBand, 0);
-            // no child bands - merge regions now
-            if (band.getChildrenList().isEmpty()) {
-                copyMergeRegions(resultSheet, rangeName, rownum + rowsAddedByHorizontalBand,
-                        getCellFromReference(crefs[0], templateSheet).getColumnIndex());
+            //todo move to options
+            if (!rowLayout.isDynamicHeight()) {
+                resultRow.setHeight(rowLayout.getHeight());
             }
 
-            for (CellReference cellRef : crefs) {
-                HSSFCell templateCell = getCellFromReference(cellRef, templateSheet);
-                HSSFRow resultRow;
-                if (templateCell.getRowIndex() != currentRowNum) { //create new row
-                    resultRow = resultSheet.createRow(rownum + rowsAddedByHorizontalBand);
-                    copyPageBreaks(templateSheet, resultSheet, templateCell.getRowIndex(), resultRow.getRowNum());
-                    rowsAddedByHorizontalBand += 1;
-
-                    //todo move to options
-                    if (templateCell.getCellStyle().getParentStyle() != null
-                            && templateCell.getCellStyle().getParentStyle().getUserStyleName() != null
-                            && templateCell.getCellStyle().getParentStyle().getUserStyleName().equals(DYNAMIC_HEIGHT_STYLE)
-                            ) {
-                        //resultRow.setHeight(templateCell.getRow().getHeight());
-                    } else {
-                        resultRow.setHeight(templateCell.getRow().getHeight());
-                    }
-                    resultRows.add(resultRow);
-
-                    currentRowNum = templateCell.getRowIndex();
-                    currentRowCount++;
-                    currentColumnCount = 0;
-                    offset = templateCell.getColumnIndex();
-                } else {                                          // or write cell to current row
-                    resultRow = resultRows.get(currentRowCount);
-                    currentColumnCount++;
+            for (RangeLayout.CellLayout cellLayout : rowLayout.getCells()) {
+                HSSFCell resultCell = copyCellFromTemplate(cellLayout, resultRow, layout.getFirstColumn() + cellLayout.getColumnOffset(), band);
+                if (resultCell.getCellType() == CellType.FORMULA) {
+                    bandFormulaCells.add(new ResultFormula(resultCell, cellLayout.getFormulaTokens()));
                 }
-
-                copyCellFromTemplate(templateCell, resultRow, offset + currentColumnCount, band);
             }
+        }
 
-            bottomRight = new CellReference(rownum + rowsAddedByHorizontalBand - 1, offset + currentColumnCount);
-            resultRange = new AreaReference(topLeft, bottomRight, SpreadsheetVersion.EXCEL97);
+        CellReference bottomRight = new CellReference(rownum + rowsAddedByHorizontalBand - 1, layout.getLastColumn());
+        AreaReference resultRange = new AreaReference(topLeft, bottomRight, SpreadsheetVersion.EXCEL97);
 
-            areaDependencyManager.addDependency(new Area(band.getName(), Area.AreaAlign.HORIZONTAL, templateRange),
-                    new Area(band.getName(), Area.AreaAlign.HORIZONTAL, resultRange));
-            bandsToResultRanges.put(band, new Range(resultSheet.getSheetName(),
-                    resultRange.getFirstCell().getCol() + 1, resultRange.getFirstCell().getRow() + 1,
-                    resultRange.getLastCell().getCol() + 1, resultRange.getLastCell().getRow() + 1
-            ));
-        }
+        Area resultArea = new Area(band.getName(), Area.AreaAlign.HORIZONTAL, resultRange);
+        areaDependencyManager.addDependency(new Area(band.getName(), Area.AreaAlign.HORIZONTAL, layout.getTemplateArea()), resultArea);
+        formulaCells.put(resultArea, bandFormulaCells);
+        resultAreaSheets.put(resultArea, resultSheet);
+        bandsToResultRanges.put(band, new Range(resultSheet.getSheetName(),
+                resultRange.getFirstCell().getCol() + 1, resultRange.getFirstCell().getRow() + 1,
+                resultRange.getLastCell().getCol() + 1, resultRange.getLastCell().getRow() + 1
+        ));
 
         for (BandData child : band.getChildrenList()) {
             writeBand(child);
         }
 
         // scheduled merge regions
-        if (!band.getChildrenList().isEmpty() && crefs != null) {
-            copyMergeRegions(resultSheet, rangeName, rownumBackup + rowsAddedByHorizontalBandBackup,
-                    getCellFromReference(crefs[0], templateSheet).getColumnIndex());
+        if (!band.getChildrenList().isEmpty()) {
+            copyMergeRegions(resultSheet, layout, rownumBackup + rowsAddedByHorizontalBandBackup, layout.getFirstColumn());
         }
 
         rownum += rowsAddedByHorizontalBand;
@@ -378,6 +573,80 @@ public class XLSFormatter extends AbstractFormatter {
         rowsAddedByVerticalBand = 0;
     }
 
+    /**
+     * Creates sheet to continue the result sheet when it reaches xls rows limit (row-limit rollover).
+     * The sheet is added to the end of the workbook and replaces the result sheet for the rest of the report,
+     * column widths, print setup, header and footer, repeating rows and columns and freeze pane are copied.
+     * Formulas which refer to bands on another sheet are not supported, see {@link #checkReferencedSheets(Area, Area, Ptg)}.
+     *
+     * @param templateSheet - template sheet
+     * @param resultSheet   - filled result sheet
+     * @return continuation sheet
+     */
+    protected HSSFSheet createContinuationSheet(HSSFSheet templateSheet, HSSFSheet resultSheet) {
+        String baseName = templateSheet.getSheetName();
+        String sheetName;
+        int sheetNumber = 2;
+        do {
+            String suffix = " (" + sheetNumber++ + ")";
+            sheetName = StringUtils.left(baseName, MAX_SHEET_NAME_LENGTH - suffix.length()) + suffix;
+        } while (resultWorkbook.getSheet(sheetName) != null);
+
+        HSSFSheet continuationSheet = resultWorkbook.createSheet(sheetName);
+        continuationSheet.setDefaultColumnWidth(resultSheet.getDefaultColumnWidth());
+        continuationSheet.setDefaultRowHeight(resultSheet.getDefaultRowHeight());
+        for (int column = 0; column <= SpreadsheetVersion.EXCEL97.getLastColumnIndex(); column++) {
+            continuationSheet.setColumnWidth(column, resultSheet.getColumnWidth(column));
+        }
+        copyPrintSetup(resultSheet, continuationSheet);
+
+        continuationSheet.setRepeatingRows(resultSheet.getRepeatingRows());
+        continuationSheet.setRepeatingColumns(resultSheet.getRepeatingColumns());
+        PaneInformation paneInformation = resultSheet.getPaneInformation();
+        if (paneInformation != null && paneInformation.isFreezePane()) {
+            continuationSheet.createFreezePane(paneInformation.getHorizontalSplitPosition(), paneInformation.getVerticalSplitPosition(),
+                    paneInformation.getVerticalSplitLeftColumn(), paneInformation.getHorizontalSplitTopRow());
+        }
+        continuationSheet.setDisplayGridlines(resultSheet.isDisplayGridlines());
+
+        copyCharts(continuationSheet);
+        templateToResultSheetsMapping.put(templateSheet, continuationSheet);
+        continuationSheets.add(continuationSheet);
+        return continuationSheet;
+    }
+
+    protected void copyPrintSetup(HSSFSheet sheet, HSSFSheet targetSheet) {
+        HSSFPrintSetup printSetup = sheet.getPrintSetup();
+        HSSFPrintSetup targetPrintSetup = targetSheet.getPrintSetup();
+        targetPrintSetup.setPaperSize(printSetup.getPaperSize());
+        targetPrintSetup.setScale(printSetup.getScale());
+        targetPrintSetup.setPageStart(printSetup.getPageStart());
+        targetPrintSetup.setFitWidth(printSetup.getFitWidth());
+        targetPrintSetup.setFitHeight(printSetup.getFitHeight());
+        //options contain orientation, page order, black and white, draft quality and notes flags
+        targetPrintSetup.setOptions(printSetup.getOptions());
+        targetPrintSetup.setHResolution(printSetup.getHResolution());
+        targetPrintSetup.setVResolution(printSetup.getVResolution());
+        targetPrintSetup.setCopies(printSetup.getCopies());
+
+        for (short margin : new short[]{Sheet.LeftMargin, Sheet.RightMargin, Sheet.TopMargin, Sheet.BottomMargin,
+                Sheet.HeaderMargin, Sheet.FooterMargin}) {
+            targetSheet.setMargin(margin, sheet.getMargin(margin));
+        }
+        targetSheet.setFitToPage(sheet.getFitToPage());
+        targetSheet.setAutobreaks(sheet.getAutobreaks());
+        targetSheet.setHorizontallyCenter(sheet.getHorizontallyCenter());
+        targetSheet.setVerticallyCenter(sheet.getVerticallyCenter());
+        targetSheet.setPrintGridlines(sheet.isPrintGridlines());
+
+        targetSheet.getHeader().setLeft(sheet.getHeader().getLeft());
+        targetSheet.getHeader().setCenter(sheet.getHeader().getCenter());
+        targetSheet.getHeader().setRight(sheet.getHeader().getRight());
+        targetSheet.getFooter().setLeft(sheet.getFooter().getLeft());
+        targetSheet.getFooter().setCenter(sheet.getFooter().getCenter());
+        targetSheet.getFooter().setRight(sheet.getFooter().getRight());
+    }
+
     /**
      * Method writes vertical band
      * Note: no child support for vertical band ;)
@@ -388,12 +657,12 @@ public class XLSFormatter extends AbstractFormatter {
      */
     protected void writeVerticalBand(BandData band, HSSFSheet templateSheet, HSSFSheet resultSheet) {
         String rangeName = band.getName();
-        CellReference[] crefs = getRangeContent(templateWorkbook, rangeName);
+        RangeLayout layout = getRangeLayout(rangeName);
 
-        Set<Integer> addedRowNumbers = new HashSet<>();
+        int addedRows = 0;
 
-        if (crefs != null) {
-            addRangeBounds(band, crefs);
+        if (layout != null) {
+            addRangeBounds(band, layout.getCellReferences());
 
             Bounds thisBounds = templateBounds.get(band.getName());
             Bounds parentBounds = templateBounds.get(band.getParentBand().getName());
@@ -403,45 +672,58 @@ public class XLSFormatter extends AbstractFormatter {
                     parentRange.getFirstRow() - 1 + thisBounds.row0 - parentBounds.row0 :
                     rownum;
 
-            colnum = colnum == 0 ? getCellFromReference(crefs[0], templateSheet).getColumnIndex() : colnum;
-            copyMergeRegions(resultSheet, rangeName, localRowNum, colnum);
+            if (localRowNum + layout.getRows().size() > SpreadsheetVersion.EXCEL97.getMaxRows()) {
+                //only the first of root vertical bands with the same name can start continuation sheet, the others fill its rows
+                if (!BandData.ROOT_BAND_NAME.equals(band.getParentBand().getName())
+                        || band.getParentBand().getChildrenByName(band.getName()).get(0) != band) {
+                    throw wrapWithReportingException(String.format("Band [%s] exceeds xls rows limit", band.getName()));
+                }
+                resultSheet = createContinuationSheet(templateSheet, resultSheet);
+                rownum = 0;
+                localRowNum = 0;
+                colnum = 0;
+            }
 
-            int firstRow = crefs[0].getRow();
-            int firstColumn = crefs[0].getCol();
+            colnum = colnum == 0 ? layout.getFirstColumn() : colnum;
+            copyMergeRegions(resultSheet, layout, localRowNum, colnum);
 
-            for (CellReference cref : crefs) {//create necessary rows
-                int currentRow = cref.getRow();
-                final int rowOffset = currentRow - firstRow;
-                if (!rowExists(resultSheet, localRowNum + rowOffset)) {
-                    HSSFRow resultRow = resultSheet.createRow(localRowNum + rowOffset);
-                    copyPageBreaks(templateSheet, resultSheet, cref.getRow(), resultRow.getRowNum());
+            for (RangeLayout.RowLayout rowLayout : layout.getRows()) {//create necessary rows
+                int resultRowNum = localRowNum + rowLayout.getRowOffset();
+                if (!rowExists(resultSheet, resultRowNum)) {
+                    createRow(resultSheet, resultRowNum);
+                    if (rowLayout.isPageBreak()) {
+                        resultSheet.setRowBreak(resultRowNum);
+                    }
                 }
-                addedRowNumbers.add(cref.getRow());
             }
+            addedRows = layout.getRows().size();
 
             CellReference topLeft = null;
             CellReference bottomRight = null;
-            for (CellReference cref : crefs) {
-                int currentRow = cref.getRow();
-                int currentColumn = cref.getCol();
-                final int rowOffset = currentRow - firstRow;
-                final int columnOffset = currentColumn - firstColumn;
-
-                HSSFCell templateCell = getCellFromReference(cref, templateSheet);
-                resultSheet.setColumnWidth(colnum + columnOffset, templateSheet.getColumnWidth(templateCell.getColumnIndex()));
-                HSSFCell resultCell = copyCellFromTemplate(templateCell, resultSheet.getRow(localRowNum + rowOffset), colnum + columnOffset, band);
-                if (topLeft == null) {
-                    topLeft = new CellReference(resultCell);
+            List<ResultFormula> bandFormulaCells = new ArrayList<>();
+            for (RangeLayout.RowLayout rowLayout : layout.getRows()) {
+                HSSFRow resultRow = resultSheet.getRow(localRowNum + rowLayout.getRowOffset());
+                for (RangeLayout.CellLayout cellLayout : rowLayout.getCells()) {
+                    int resultColumn = colnum + cellLayout.getColumnOffset();
+                    resultSheet.setColumnWidth(resultColumn, cellLayout.getColumnWidth());
+                    HSSFCell resultCell = copyCellFromTemplate(cellLayout, resultRow, resultColumn, band);
+                    if (resultCell.getCellType() == CellType.FORMULA) {
+                        bandFormulaCells.add(new ResultFormula(resultCell, cellLayout.getFormulaTokens()));
+                    }
+                    if (topLeft == null) {
+                        topLeft = new CellReference(resultCell);
+                    }
+                    bottomRight = new CellReference(resultCell);
                 }
-                bottomRight = new CellReference(resultCell);
             }
 
-            colnum += crefs[crefs.length - 1].getCol() - firstColumn + 1;
+            colnum += layout.getLastColumn() - layout.getFirstColumn() + 1;
 
-            AreaReference templateRange = getAreaForRange(templateWorkbook, rangeName);
             AreaReference resultRange = new AreaReference(topLeft, bottomRight, SpreadsheetVersion.EXCEL97);
-            areaDependencyManager.addDependency(new Area(band.getName(), Area.AreaAlign.VERTICAL, templateRange),
-                    new Area(band.getName(), Area.AreaAlign.VERTICAL, resultRange));
+            Area resultArea = new Area(band.getName(), Area.AreaAlign.VERTICAL, resultRange);
+            areaDependencyManager.addDependency(new Area(band.getName(), Area.AreaAlign.VERTICAL, layout.getTemplateArea()), resultArea);
+            formulaCells.put(resultArea, bandFormulaCells);
+            resultAreaSheets.put(resultArea, resultSheet);
             bandsToResultRanges.put(band, new Range(resultSheet.getSheetName(),
                     resultRange.getFirstCell().getCol() + 1, resultRange.getFirstCell().getRow() + 1,
                     resultRange.getLastCell().getCol() + 1, resultRange.getLastCell().getRow() + 1
@@ -453,24 +735,89 @@ public class XLSFormatter extends AbstractFormatter {
         if (BandData.ROOT_BAND_NAME.equals(band.getParentBand().getName())) {
             List<BandData> sameBands = band.getParentBand().getChildrenByName(band.getName());
             if (sameBands.size() > 0 && sameBands.get(sameBands.size() - 1) == band) {//check if this vertical band is last vertical band with same name
-                rownum += addedRowNumbers.size();
+                rownum += addedRows;
                 //      rowsAddedByVerticalBand = 0;
             }
         }
     }
 
+    /**
+     * Returns compiled layout of the named range, the layout is built once per render
+     *
+     * @param rangeName - range name
+     * @return range layout or null if there is no such named range
+     */
+    protected RangeLayout getRangeLayout(String rangeName) {
+        if (!rangeLayouts.containsKey(rangeName)) {
+            rangeLayouts.put(rangeName, createRangeLayout(rangeName));
+        }
+        return rangeLayouts.get(rangeName);
+    }
+
+    protected RangeLayout createRangeLayout(String rangeName) {
+        AreaReference templateArea = getAreaForRange(templateWorkbook, rangeName);
+        if (templateArea == null) {
+            return null;
+        }
+
+        HSSFSheet templateSheet = getTemplateSheetForRangeName(templateWorkbook, rangeName);
+        RangeLayout layout = new RangeLayout(rangeName, templateSheet, templateArea);
+        Set<Integer> rowBreaks = new HashSet<>();
+        for (int rowBreak : templateSheet.getRowBreaks()) {
+            rowBreaks.add(rowBreak);
+        }
+
+        RangeLayout.RowLayout rowLayout = null;
+        for (CellReference cref : layout.getCellReferences()) {
+            HSSFCell templateCell = getCellFromReference(cref, templateSheet);
+            if (rowLayout == null || templateCell.getRowIndex() != layout.getFirstRow() + rowLayout.getRowOffset()) {
+                HSSFCellStyle parentStyle = templateCell.getCellStyle().getParentStyle();
+                boolean dynamicHeight = parentStyle != null && DYNAMIC_HEIGHT_STYLE.equals(parentStyle.getUserStyleName());
+                rowLayout = layout.addRow(templateCell.getRowIndex() - layout.getFirstRow(), templateCell.getRow().getHeight(),
+                        dynamicHeight, rowBreaks.contains(templateCell.getRowIndex()));
+            }
+
+            rowLayout.addCell(createCellLayout(templateCell, templateCell.getColumnIndex() - layout.getFirstColumn()));
+        }
+
+        return layout;
+    }
+
+    protected RangeLayout.CellLayout createCellLayout(HSSFCell templateCell, int columnOffset) {
+        String templateCellValue = "";
+        List<XlsHint> cellHints = new ArrayList<>();
+        CellType cellType = templateCell.getCellType();
+
+        if (cellType != CellType.FORMULA && cellType != CellType.NUMERIC) {
+            HSSFRichTextString richStringCellValue = templateCell.getRichStringCellValue();
+            templateCellValue = richStringCellValue != null ? richStringCellValue.getString() : "";
+
+            templateCellValue = extractHints(templateCellValue, cellHints);
+        }
+
+        boolean alias = cellType == CellType.STRING && containsJustOneAlias(templateCellValue);
+        String value = cellType == CellType.STRING ? templateCellValue : StringUtils.defaultString(templateCell.toString());
+
+        Ptg[] formulaTokens = cellType == CellType.FORMULA ? compiledTemplate.getFormulaTokens(templateCell) : null;
+        return new RangeLayout.CellLayout(templateCell, columnOffset,
+                templateCell.getSheet().getColumnWidth(templateCell.getColumnIndex()), value, alias, cellHints, formulaTokens);
+    }
+
     /**
      * Method creates mapping [rangeName : List&lt;CellRangeAddress&gt;].
      * List contains all merge regions for this named range.
      * Attention: if merged regions writes wrong - look on methods isMergeRegionInsideNamedRange or isNamedRangeInsideMergeRegion
      * todo: how to recognize if merge region must be copied with named range
      *
-     * @param currentSheet Sheet which contains merge regions
+     * @param workbook           Workbook which contains named ranges
+     * @param currentSheet       Sheet which contains merge regions
+     * @param mergeRegionsByName Map to collect merge regions by range names
      */
-    protected void initMergeRegions(HSSFSheet currentSheet) {
-        int rangeNumber = templateWorkbook.getNumberOfNames();
+    protected void initMergeRegions(HSSFWorkbook workbook, HSSFSheet currentSheet,
+                                    Map<String, List<SheetRange>> mergeRegionsByName) {
+        int rangeNumber = workbook.getNumberOfNames();
         for (int i = 0; i < rangeNumber; i++) {
-            HSSFName aNamedRange = templateWorkbook.getNameAt(i);
+            HSSFName aNamedRange = workbook.getNameAt(i);
 
             String refersToFormula = aNamedRange.getRefersToFormula();
             if (!AreaReference.isContiguous(refersToFormula)) {
@@ -502,12 +849,12 @@ public class XLSFormatter extends AbstractFormatter {
                     if (mergedInsideNamed || namedInsideMerged) {
                         String name = aNamedRange.getNameName();
                         SheetRange sheetRange = new SheetRange(mergedRegion, currentSheet.getSheetName());
-                        if (mergeRegionsForRangeNames.get(name) == null) {
+                        if (mergeRegionsByName.get(name) == null) {
                             ArrayList<SheetRange> list = new ArrayList<>();
                             list.add(sheetRange);
-                            mergeRegionsForRangeNames.put(name, list);
+                            mergeRegionsByName.put(name, list);
                         } else {
-                            mergeRegionsForRangeNames.get(name).add(sheetRange);
+                            mergeRegionsByName.get(name).add(sheetRange);
                         }
                     }
                 }
@@ -526,15 +873,18 @@ public class XLSFormatter extends AbstractFormatter {
      */
     protected void copyMergeRegions(HSSFSheet resultSheet, String rangeName,
                                     int firstTargetRangeRow, int firstTargetRangeColumn) {
-        int rangeNameIdx = templateWorkbook.getNameIndex(rangeName);
-        if (rangeNameIdx == -1) return;
+        RangeLayout layout = getRangeLayout(rangeName);
+        if (layout == null) return;
 
-        HSSFName aNamedRange = templateWorkbook.getNameAt(rangeNameIdx);
-        AreaReference aref = new AreaReference(aNamedRange.getRefersToFormula(), SpreadsheetVersion.EXCEL97);
-        int column = aref.getFirstCell().getCol();
-        int row = aref.getFirstCell().getRow();
+        copyMergeRegions(resultSheet, layout, firstTargetRangeRow, firstTargetRangeColumn);
+    }
 
-        List<SheetRange> regionsList = mergeRegionsForRangeNames.get(rangeName);
+    protected void copyMergeRegions(HSSFSheet resultSheet, RangeLayout layout,
+                                    int firstTargetRangeRow, int firstTargetRangeColumn) {
+        int column = layout.getFirstColumn();
+        int row = layout.getFirstRow();
+
+        List<SheetRange> regionsList = mergeRegionsForRangeNames.get(layout.getRangeName());
         if (regionsList != null)
             for (SheetRange sheetRange : regionsList) {
                 if (resultSheet.getSheetName().equals(sheetRange.getSheetName())) {
@@ -588,37 +938,36 @@ public class XLSFormatter extends AbstractFormatter {
     /**
      * copies template cell to result row into result column. Fills this cell with data from band
      *
-     * @param templateCell - template cell
+     * @param cellLayout   - compiled template cell
      * @param resultRow    - result row
      * @param resultColumn - result column
      * @param band         - band
      */
-    private HSSFCell copyCellFromTemplate(HSSFCell templateCell, HSSFRow resultRow, int resultColumn, BandData band) {
+    protected HSSFCell copyCellFromTemplate(RangeLayout.CellLayout cellLayout, HSSFRow resultRow, int resultColumn, BandData band) {
         checkThreadInterrupted();
-        if (templateCell == null) return null;
 
-        HSSFCell resultCell = resultRow.createCell(resultColumn);
+        HSSFCell templateCell = cellLayout.getTemplateCell();
+        Ptg[] formulaTokens = cellLayout.getFormulaTokens();
+        HSSFCell resultCell = formulaTokens != null ?
+                resultRow.createCell(resultColumn, CellType.FORMULA) : resultRow.createCell(resultColumn);
 
-        HSSFCellStyle templateStyle = templateCell.getCellStyle();
-        HSSFCellStyle resultStyle = copyCellStyle(templateStyle);
+        HSSFCellStyle resultStyle = copyCellStyle(templateCell.getCellStyle());
         resultCell.setCellStyle(resultStyle);
 
-        String templateCellValue = "";
-        CellType cellType = templateCell.getCellType();
-
-        if (cellType != CellType.FORMULA && cellType != CellType.NUMERIC) {
-            HSSFRichTextString richStringCellValue = templateCell.getRichStringCellValue();
-            templateCellValue = richStringCellValue != null ? richStringCellValue.getString() : "";
-
-            templateCellValue = extractStyles(templateCell, resultCell, templateCellValue, band);
+        for (XlsHint hint : cellLayout.getHints()) {
+            hint.add(templateCell, resultCell, band);
         }
 
-        if (cellType == CellType.STRING && containsJustOneAlias(templateCellValue)) {
-            updateValueCell(rootBand, band, templateCellValue, resultCell,
+        if (cellLayout.isAlias()) {
+            updateValueCell(rootBand, band, cellLayout.getValue(), resultCell,
                     drawingPatriarchsMap.get(resultCell.getSheet()));
+        } else if (formulaTokens != null) {
+            //template formula is written as is, references are shifted by updateFormulas
+            getFormulaRecord(resultCell).setParsedExpression(formulaTokens);
         } else {
-            String cellValue = inlineBandDataToCellString(templateCell, templateCellValue, band);
-            setValueToCell(resultCell, cellValue, cellType);
+            String cellValue = StringUtils.isNotEmpty(cellLayout.getValue()) ?
+                    insertBandDataToString(band, cellLayout.getValue()) : "";
+            setValueToCell(resultCell, cellValue, cellLayout.getCellType());
         }
 
         return resultCell;
@@ -689,19 +1038,6 @@ public class XLSFormatter extends AbstractFormatter {
         }
     }
 
-    protected String inlineBandDataToCellString(HSSFCell cell, String templateCellValue, BandData band) {
-        String resultStr = "";
-        if (cell.getCellType() == CellType.STRING) {
-            if (templateCellValue != null) resultStr = templateCellValue;
-        } else {
-            if (cell.toString() != null) resultStr = cell.toString();
-        }
-
-        if (StringUtils.isNotEmpty(resultStr)) return insertBandDataToString(band, resultStr);
-
-        return "";
-    }
-
     /**
      * This method adds range bounds to cache. Key is bandName
      *
@@ -715,18 +1051,25 @@ public class XLSFormatter extends AbstractFormatter {
         templateBounds.put(band.getName(), bounds);
     }
 
+    /**
+     * Shifts references of formulas written for the result area, formulas of each result area are shifted once.
+     * Parsed template formulas are copied and shifted, formulas written as text are read from the cell record,
+     * so formula text is not parsed here.
+     */
     protected void updateFormulas(Area templateArea, Area dependentResultArea) {
-        HSSFSheet templateSheet = getTemplateSheetForRangeName(templateWorkbook, templateArea.getName());
-        HSSFSheet resultSheet = templateToResultSheetsMapping.get(templateSheet);
-
-        AreaReference area = dependentResultArea.toAreaReference();
-        for (CellReference cell : area.getAllReferencedCells()) {
-            HSSFCell resultCell = getCellFromReference(cell, resultSheet);
+        List<ResultFormula> resultFormulas = formulaCells.remove(dependentResultArea);
+        if (resultFormulas == null) return;
 
+        for (ResultFormula resultFormula : resultFormulas) {
+            HSSFCell resultCell = resultFormula.getCell();
             if (resultCell.getCellType() == CellType.FORMULA) {
-                Ptg[] ptgs = HSSFFormulaParser.parse(resultCell.getCellFormula(), resultWorkbook);
+                FormulaRecordAggregate formulaRecord = getFormulaRecord(resultCell);
+                Ptg[] ptgs = resultFormula.getTemplateTokens() != null ?
+                        copyFormulaTokens(resultFormula.getTemplateTokens()) : formulaRecord.getFormulaTokens();
 
                 for (Ptg ptg : ptgs) {
+                    checkReferencedSheets(templateArea, dependentResultArea, ptg);
+                    checkStreamedReference(templateArea, dependentResultArea, ptg);
                     if (ptg instanceof AreaPtg) {
                         areaDependencyManager.updateAreaPtg(templateArea, dependentResultArea, (AreaPtg) ptg);
                     } else if (ptg instanceof RefPtg) {
@@ -734,18 +1077,84 @@ public class XLSFormatter extends AbstractFormatter {
                     }
                 }
 
-                String calculatedFormula = HSSFFormulaParser.toFormulaString(templateWorkbook, ptgs);
-                resultCell.setCellFormula(calculatedFormula);
+                formulaRecord.setParsedExpression(ptgs);
             }
         }
     }
 
-    protected String extractStyles(HSSFCell templateCell, HSSFCell resultCell, String templateCellValue, BandData bandData) {
+    /**
+     * Fails if the formula token refers to a band written to another sheet by row-limit rollover,
+     * the token would be shifted to the rows of the formula sheet instead.
+     */
+    protected void checkReferencedSheets(Area templateArea, Area dependentResultArea, Ptg ptg) {
+        if (continuationSheets.isEmpty() || !(ptg instanceof AreaPtg || ptg instanceof RefPtg)) {
+            return;
+        }
+
+        Area referencedTemplateArea = getReferencedTemplateArea(ptg);
+        boolean firstAreaOnly = ptg instanceof RefPtg;
+        List<Area> referencedAreas = areasDependency.get(referencedTemplateArea);
+        if (referencedTemplateArea == templateArea || CollectionUtils.isEmpty(referencedAreas)) {
+            return;
+        }
+
+        HSSFSheet sheet = resultAreaSheets.get(dependentResultArea);
+        for (Area referencedArea : firstAreaOnly ? referencedAreas.subList(0, 1) : referencedAreas) {
+            HSSFSheet referencedSheet = resultAreaSheets.get(referencedArea);
+            if (referencedSheet != sheet && (continuationSheets.contains(sheet) || continuationSheets.contains(referencedSheet))) {
+                throw wrapWithReportingException(String.format("Formula of band [%s] refers to band [%s] which is written to another sheet " +
+                        "after xls rows limit, such formulas are not supported", dependentResultArea.getName(), referencedArea.getName()));
+            }
+        }
+    }
+
+    /**
+     * Fails if formulas are shifted before the xls rows are streamed and the formula token refers to a band
+     * which is not written yet, the token could not be shifted to the rows of the band.
+     */
+    protected void checkStreamedReference(Area templateArea, Area dependentResultArea, Ptg ptg) {
+        if (streamingWriter == null || !(ptg instanceof AreaPtg || ptg instanceof RefPtg)) {
+            return;
+        }
+
+        Area referencedTemplateArea = getReferencedTemplateArea(ptg);
+        if (referencedTemplateArea == null || referencedTemplateArea == templateArea) {
+            return;
+        }
+
+        Integer lastRootBandIndex = lastRootBandIndexes.get(referencedTemplateArea.getName());
+        if (lastRootBandIndex != null && lastRootBandIndex >= writtenRootBands) {
+            throw wrapWithReportingException(String.format("Formula of band [%s] refers to band [%s] which is written after it, " +
+                    "such formulas are not supported when xls rows are streamed", dependentResultArea.getName(), referencedTemplateArea.getName()));
+        }
+    }
+
+    protected Area getReferencedTemplateArea(Ptg ptg) {
+        if (ptg instanceof AreaPtg) {
+            AreaPtg areaPtg = (AreaPtg) ptg;
+            return areaDependencyManager.getTemplateAreaByCoordinate(areaPtg.getFirstColumn(), areaPtg.getFirstRow());
+        } else {
+            RefPtg refPtg = (RefPtg) ptg;
+            return areaDependencyManager.getTemplateAreaByCoordinate(refPtg.getColumn(), refPtg.getRow());
+        }
+    }
+
+    /**
+     * Collects hints applicable to the template cell value
+     *
+     * @param templateCellValue - template cell value
+     * @param cellHints         - list to add applicable hints to
+     * @return template cell value without hints
+     */
+    protected String extractHints(String templateCellValue, List<XlsHint> cellHints) {
         for (XlsHint hint : hints) {
             XlsHint.CheckResult check = hint.check(templateCellValue);
             if (check.result) {
+                if (streamingWriter != null) {
+                    throw wrapWithReportingException(String.format("Cell hints are not supported when xls rows are streamed: %s", templateCellValue));
+                }
                 templateCellValue = check.cellValue;
-                hint.add(templateCell, resultCell, bandData);
+                cellHints.add(hint);
             }
         }
 
@@ -755,22 +1164,13 @@ public class XLSFormatter extends AbstractFormatter {
     }
 
     protected HSSFCellStyle copyCellStyle(HSSFCellStyle templateStyle) {
-        HSSFCellStyle style = styleCache.getCellStyleByTemplate(templateStyle);
+        short styleIndex = templateStyle.getIndex();
+        HSSFCellStyle style = resultStyles[styleIndex];
 
         if (style == null) {
-            HSSFCellStyle newStyle = resultWorkbook.createCellStyle();
-
-            XslStyleHelper.cloneStyleRelations(templateStyle, newStyle);
-            HSSFFont templateFont = templateStyle.getFont(templateWorkbook);
-            HSSFFont font = fontCache.getFontByTemplate(templateFont);
-            if (font != null)
-                newStyle.setFont(font);
-            else {
-                XslStyleHelper.cloneFont(templateStyle, newStyle);
-                fontCache.addCachedFont(templateFont, newStyle.getFont(resultWorkbook));
-            }
-            styleCache.addCachedStyle(templateStyle, newStyle);
-            style = newStyle;
+            style = styleCache.processCellStyle(compiledTemplate.getStyleKeys()[styleIndex],
+                    resultWorkbook.getCellStyleAt(styleIndex));
+            resultStyles[styleIndex] = style;
         }
 
         return style;
@@ -798,11 +1198,12 @@ public class XLSFormatter extends AbstractFormatter {
      * @param resultSheet   - result sheet
      */
     protected void copyPicturesFromTemplateToResult(HSSFSheet templateSheet, HSSFSheet resultSheet) {
-        List<HSSFClientAnchor> list = getAllAnchors(getEscherAggregate(templateSheet));
+        List<HSSFClientAnchor> list = compiledTemplate.getAnchors(templateSheet.getSheetName());
 
         int i = 0;
         if (CollectionUtils.isNotEmpty(orderedPicturesId)) {//just a shitty workaround for anchors without pictures
-            for (HSSFClientAnchor anchor : list) {
+            for (HSSFClientAnchor templateAnchor : list) {
+                HSSFClientAnchor anchor = copyAnchor(templateAnchor);
                 Cell topLeft = getCellFromTemplate(new Cell(anchor.getCol1(), anchor.getRow1()));
                 anchor.setCol1(topLeft.getCol());
                 anchor.setRow1(topLeft.getRow());
@@ -822,6 +1223,15 @@ public class XLSFormatter extends AbstractFormatter {
         return sheet.getRow(rowNumber) != null;
     }
 
+    protected HSSFRow createRow(HSSFSheet sheet, int rowNumber) {
+        if (streamingWriter != null && streamingWriter.isRowFlushed(sheet, rowNumber)) {
+            throw wrapWithReportingException(String.format("Row %d of sheet [%s] is already streamed, " +
+                    "bands of a sheet have to be written from top to bottom when xls rows are streamed", rowNumber + 1, sheet.getSheetName()));
+        }
+        rowsInMemory++;
+        return sheet.createRow(rowNumber);
+    }
+
     protected Cell getCellFromTemplate(Cell cell) {
         Cell newCell = new Cell(cell);
         updateCell(newCell);
@@ -843,16 +1253,6 @@ public class XLSFormatter extends AbstractFormatter {
         }
     }
 
-    protected void copyPageBreaks(HSSFSheet templateSheet, HSSFSheet resultSheet, int templateRowIndex, int resultRowIndex) {
-        int[] rowBreaks = templateSheet.getRowBreaks();
-        for (int rowBreak : rowBreaks) {
-            if (rowBreak == templateRowIndex) {
-                resultSheet.setRowBreak(resultRowIndex);
-                break;
-            }
-        }
-    }
-
     //---------------------Utility classes------------------------
 
     /**
@@ -892,4 +1292,102 @@ public class XLSFormatter extends AbstractFormatter {
             this.column1 = column1;
         }
     }
+
+    /**
+     * Formula cell of the result with parsed formula of its template cell
+     */
+    protected static class ResultFormula {
+        protected final HSSFCell cell;
+        protected final Ptg[] templateTokens;
+
+        protected ResultFormula(HSSFCell cell, Ptg[] templateTokens) {
+            this.cell = cell;
+            this.templateTokens = templateTokens;
+        }
+
+        public HSSFCell getCell() {
+            return cell;
+        }
+
+        /**
+         * @return shared template formula tokens or null if the formula is written as text
+         */
+        public Ptg[] getTemplateTokens() {
+            return templateTokens;
+        }
+    }
+
+    /**
+     * Parsed template with all data which does not depend on report data.
+     * Shared between renders, so it must be used read-only.
+     */
+    protected static class CompiledTemplate {
+        protected final HSSFWorkbook templateWorkbook;
+        protected byte[] resultSkeleton;
+        protected final Map<String, List<SheetRange>> mergeRegionsForRangeNames = new HashMap<>();
+        protected final Map<String, Bounds> templateBounds = new HashMap<>();
+        protected final Map<String, List<HSSFClientAnchor>> anchors = new HashMap<>();
+        protected final List<byte[]> pictures = new ArrayList<>();
+        protected final List<Short> namedStyleIndexes = new ArrayList<>();
+        protected final Map<String, Ptg[]> formulaTokens = new HashMap<>();
+        protected HSSFStyleCacheKey[] styleKeys;
+
+        protected CompiledTemplate(HSSFWorkbook templateWorkbook) {
+            this.templateWorkbook = templateWorkbook;
+        }
+
+        public HSSFWorkbook getTemplateWorkbook() {
+            return templateWorkbook;
+        }
+
+        /**
+         * @return serialized template workbook without cells and merge regions
+         */
+        public byte[] getResultSkeleton() {
+            return resultSkeleton;
+        }
+
+        public Map<String, List<SheetRange>> getMergeRegionsForRangeNames() {
+            return mergeRegionsForRangeNames;
+        }
+
+        public Map<String, Bounds> getTemplateBounds() {
+            return templateBounds;
+        }
+
+        /**
+         * @return picture anchors of the template sheet, they should be copied before modification
+         */
+        public List<HSSFClientAnchor> getAnchors(String sheetName) {
+            List<HSSFClientAnchor> sheetAnchors = anchors.get(sheetName);
+            return sheetAnchors != null ? sheetAnchors : Collections.emptyList();
+        }
+
+        public List<byte[]> getPictures() {
+            return pictures;
+        }
+
+        public List<Short> getNamedStyleIndexes() {
+            return namedStyleIndexes;
+        }
+
+        /**
+         * @return style cache keys by template style index
+         */
+        public HSSFStyleCacheKey[] getStyleKeys() {
+            return styleKeys;
+        }
+
+        /**
+         * @return parsed formula of the template cell or null if the formula is written as text
+         */
+        public Ptg[] getFormulaTokens(HSSFCell templateCell) {
+            return formulaTokens.get(getCellKey(templateCell));
+        }
+
+        protected static String getCellKey(HSSFCell cell) {
+            return new CellReference(cell.getSheet().getSheetName(), cell.getRowIndex(), cell.getColumnIndex(), false, false)
+                    .formatAsString();
+        }
+    }
 }
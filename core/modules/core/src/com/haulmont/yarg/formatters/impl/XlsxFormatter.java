@@ -26,7 +26,6 @@ import com.haulmont.yarg.structure.BandData;
 import com.haulmont.yarg.structure.BandOrientation;
 import com.haulmont.yarg.structure.BandVisitor;
 import com.haulmont.yarg.structure.ReportOutputType;
-import com.haulmont.yarg.util.docx4j.XmlCopyUtils;
 import com.opencsv.CSVWriter;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.io.IOUtils;
@@ -49,8 +48,6 @@ import org.xlsx4j.jaxb.Context;
 import org.xlsx4j.sml.*;
 import org.xlsx4j.sml.CTHeaderFooter;
 
-import javax.xml.bind.Marshaller;
-import javax.xml.bind.Unmarshaller;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -77,8 +74,7 @@ public class XlsxFormatter extends AbstractFormatter {
     protected BandData previousRangeBandData;
     protected int previousRangesRightOffset;
 
-    protected Unmarshaller unmarshaller;
-    protected Marshaller marshaller;
+    protected Map<Range, RangePrototype> rangePrototypes = new HashMap<>();
 
     protected static final Logger log = LoggerFactory.getLogger(XlsxFormatter.class);
 
@@ -175,8 +171,6 @@ public class XlsxFormatter extends AbstractFormatter {
             result = Document.create(SpreadsheetMLPackage.load(reportTemplate.getDocumentContent()));
             result.getWorkbook().getCalcPr().setCalcMode(STCalcMode.AUTO);
             result.getWorkbook().getCalcPr().setFullCalcOnLoad(true);
-            marshaller = XmlCopyUtils.createMarshaller(Context.jcSML);
-            unmarshaller = XmlCopyUtils.createUnmarshaller(Context.jcSML);
         } catch (Exception e) {
             throw wrapWithReportingException(String.format("An error occurred while loading template [%s]", reportTemplate.getDocumentName()), e);
         }
@@ -219,83 +213,93 @@ public class XlsxFormatter extends AbstractFormatter {
         }
     }
 
+    /**
+     * Shifts charts and rewrites their series references.
+     * Charts are processed sheet by sheet, so only template ranges of the chart sheet are checked,
+     * and each distinct series formula is rewritten only once.
+     */
     protected void updateCharts() {
+        Map<String, List<Map.Entry<Range, Document.ChartWrapper>>> chartsBySheet = new LinkedHashMap<>();
         for (Map.Entry<Range, Document.ChartWrapper> entry : result.getChartSpaces().entrySet()) {
-            for (Range templateRange : rangeDependencies.templates()) {
-                if (templateRange.intersects(entry.getKey())) {
-                    List<Range> chartBandResultRanges = rangeDependencies.resultsForTemplate(templateRange);
-                    if (chartBandResultRanges.size() > 0) {
-                        Range firstResultRange = getFirst(chartBandResultRanges);
-
-                        shiftChart(entry.getValue(), templateRange, firstResultRange);
-
-                        CTChart chart = entry.getValue().getChartSpace().getChart();
-                        CTPlotArea plotArea = chart.getPlotArea();
-                        List<Object> areaChartOrArea3DChartOrLineChart = plotArea.getAreaChartOrArea3DChartOrLineChart();
-                        for (Object series : areaChartOrArea3DChartOrLineChart) {
-                            processSeries(series);
+            if (entry.getKey() != null) {
+                chartsBySheet.computeIfAbsent(entry.getKey().getSheet(), s -> new ArrayList<>()).add(entry);
+            }
+        }
+
+        Map<String, String> seriesFormulas = new HashMap<>();
+        for (Map.Entry<String, List<Map.Entry<Range, Document.ChartWrapper>>> sheetCharts : chartsBySheet.entrySet()) {
+            List<Range> sheetTemplateRanges = rangeDependencies.templatesForSheet(sheetCharts.getKey());
+            for (Map.Entry<Range, Document.ChartWrapper> entry : sheetCharts.getValue()) {
+                boolean chartShifted = false;
+                for (Range templateRange : sheetTemplateRanges) {
+                    if (templateRange.intersects(entry.getKey())) {
+                        List<Range> chartBandResultRanges = rangeDependencies.resultsForTemplate(templateRange);
+                        if (chartBandResultRanges.size() > 0) {
+                            Range firstResultRange = getFirst(chartBandResultRanges);
+
+                            shiftChart(entry.getValue(), templateRange, firstResultRange);
+                            chartShifted = true;
                         }
                     }
                 }
+
+                if (chartShifted) {
+                    CTChart chart = entry.getValue().getChartSpace().getChart();
+                    CTPlotArea plotArea = chart.getPlotArea();
+                    List<Object> areaChartOrArea3DChartOrLineChart = plotArea.getAreaChartOrArea3DChartOrLineChart();
+                    for (Object series : areaChartOrArea3DChartOrLineChart) {
+                        processSeries(series, seriesFormulas);
+                    }
+                }
             }
         }
     }
 
-    private void processSeries(Object series) {
+    private void processSeries(Object series, Map<String, String> seriesFormulas) {
         List areas = ChartUtils.getAreas(series);
         if (areas != null) {
             for (Object area : areas) {
                 CTAxDataSource captions = ChartUtils.getAreaCat(area);
                 if (captions != null && captions.getStrRef() != null) {
-                    Range temlpateCaptionsRange = Range.fromFormula(captions.getStrRef().getF());
-                    for (Range bandRange : rangeDependencies.templates()) {
-                        if (bandRange.contains(temlpateCaptionsRange)) {
-                            List<Range> seriesResultRanges = rangeDependencies.resultsForTemplate(bandRange);
-
-                            Range seriesFirstRange = getFirst(seriesResultRanges);
-                            Range seriesLastRange = getLast(seriesResultRanges);
-
-                            Offset offset = calculateOffset(temlpateCaptionsRange, seriesFirstRange);
-                            Offset initialOffset = calculateOffset(temlpateCaptionsRange, bandRange);
-                            temlpateCaptionsRange = temlpateCaptionsRange.shift(
-                                    offset.downOffset - initialOffset.downOffset,
-                                    offset.rightOffset - initialOffset.rightOffset);
-
-                            Offset grow = calculateOffset(seriesFirstRange, seriesLastRange);
-                            temlpateCaptionsRange.grow(grow.downOffset, grow.rightOffset);
-
-                            captions.getStrRef().setF(temlpateCaptionsRange.toFormula());
-                            break;
-                        }
-                    }
+                    String formula = captions.getStrRef().getF();
+                    captions.getStrRef().setF(seriesFormulas.computeIfAbsent(formula, this::updateSeriesFormula));
                 }
 
                 CTNumDataSource data = ChartUtils.getAreaVal(area);
                 if (data != null && data.getNumRef() != null) {
-                    Range templateDataRange = Range.fromFormula(data.getNumRef().getF());
-                    for (Range bandRange : rangeDependencies.templates()) {
-                        if (bandRange.contains(templateDataRange)) {
-                            List<Range> seriesResultRanges = rangeDependencies.resultsForTemplate(bandRange);
+                    String formula = data.getNumRef().getF();
+                    data.getNumRef().setF(seriesFormulas.computeIfAbsent(formula, this::updateSeriesFormula));
+                }
+            }
+        }
+    }
 
-                            Range seriesFirstRange = getFirst(seriesResultRanges);
-                            Range seriesLastRange = getLast(seriesResultRanges);
+    /**
+     * Shifts and grows series range formula according to the rendered ranges of the band containing it.
+     * If there is no such band, the formula is returned unchanged.
+     */
+    protected String updateSeriesFormula(String formula) {
+        Range templateSeriesRange = Range.fromFormula(formula);
+        Range bandRange = rangeDependencies.templateContaining(templateSeriesRange);
+        if (bandRange == null) {
+            return formula;
+        }
 
-                            Offset offset = calculateOffset(templateDataRange, seriesFirstRange);
-                            Offset initialOffset = calculateOffset(templateDataRange, bandRange);
-                            templateDataRange = templateDataRange.shift(
-                                    offset.downOffset - initialOffset.downOffset,
-                                    offset.rightOffset - initialOffset.rightOffset);
+        List<Range> seriesResultRanges = rangeDependencies.resultsForTemplate(bandRange);
 
-                            Offset grow = calculateOffset(seriesFirstRange, seriesLastRange);
-                            templateDataRange.grow(grow.downOffset, grow.rightOffset);
+        Range seriesFirstRange = getFirst(seriesResultRanges);
+        Range seriesLastRange = getLast(seriesResultRanges);
 
-                            data.getNumRef().setF(templateDataRange.toFormula());
-                            break;
-                        }
-                    }
-                }
-            }
-        }
+        Offset offset = calculateOffset(templateSeriesRange, seriesFirstRange);
+        Offset initialOffset = calculateOffset(templateSeriesRange, bandRange);
+        Range resultSeriesRange = templateSeriesRange.shift(
+                offset.downOffset - initialOffset.downOffset,
+                offset.rightOffset - initialOffset.rightOffset);
+
+        Offset grow = calculateOffset(seriesFirstRange, seriesLastRange);
+        resultSeriesRange.grow(grow.downOffset, grow.rightOffset);
+
+        return resultSeriesRange.toFormula();
     }
 
     protected void shiftChart(Document.ChartWrapper chart, Range templateRange, Range firstResultRange) {
@@ -327,7 +331,7 @@ public class XlsxFormatter extends AbstractFormatter {
                 List<String> references = new ArrayList<>();
                 for (String ref : ctConditionalFormatting.getSqref()) {
                     Range formulaRange = Range.fromRange(sheetWrapper.getName(), ref);
-                    for (Range templateRange : rangeDependencies.templates()) {
+                    for (Range templateRange : rangeDependencies.templatesForSheet(sheetWrapper.getName())) {
                         if (templateRange.contains(formulaRange)) {
                             List<Range> resultRanges = new ArrayList<>(rangeDependencies.resultsForTemplate(templateRange));
                             for (Range resultRange : resultRanges) {
@@ -529,7 +533,7 @@ public class XlsxFormatter extends AbstractFormatter {
                         .ifPresent(ws -> {
                             if (StringUtils.isNotBlank(ws.getRef())) {
                                 Range pivotRange = Range.fromRange(ws.getSheet(), ws.getRef());
-                                for (Range templateRange : rangeDependencies.templates()) {
+                                for (Range templateRange : rangeDependencies.templatesForSheet(pivotRange.getSheet())) {
                                     if (pivotRange.contains(templateRange)) {
                                         List<Range> resultRanges = rangeDependencies.resultsForTemplate(templateRange);
                                         if (CollectionUtils.isNotEmpty(resultRanges)) {
@@ -550,34 +554,41 @@ public class XlsxFormatter extends AbstractFormatter {
     }
 
     protected void updateMergeRegions() {
+        Map<String, MergeRegions> resultMergeRegions = new LinkedHashMap<>();
         for (Range templateRange : rangeDependencies.templates()) {
-            Worksheet templateSheet = template.getSheetByName(templateRange.getSheet());
-            Worksheet resultSheet = result.getSheetByName(templateRange.getSheet());
-
-            if (templateSheet.getMergeCells() != null) {
-                if (resultSheet.getMergeCells() == null) {
-                    CTMergeCells resultMergeCells = new CTMergeCells();
-                    resultMergeCells.setParent(resultSheet);
-                    resultSheet.setMergeCells(resultMergeCells);
-                }
+            List<Range> templateMergeRegions = getRangePrototype(templateRange).getMergeRegions();
+            if (templateMergeRegions.isEmpty()) {
+                continue;
             }
 
+            MergeRegions mergeRegions = resultMergeRegions.computeIfAbsent(templateRange.getSheet(), s -> new MergeRegions());
             for (Range resultRange : rangeDependencies.resultsForTemplate(templateRange)) {
-                if (templateSheet.getMergeCells() != null && templateSheet.getMergeCells().getMergeCell() != null) {
-                    for (CTMergeCell templateMergeRegion : templateSheet.getMergeCells().getMergeCell()) {
-                        Range mergeRange = Range.fromRange(templateRange.getSheet(), templateMergeRegion.getRef());
-                        if (templateRange.contains(mergeRange) || templateRange.isOneCellRange() && mergeRange.contains(templateRange)) {
-                            Offset offset = calculateOffset(templateRange, resultRange);
-                            Range resultMergeRange = mergeRange.copy().shift(offset.downOffset, offset.rightOffset);
-                            CTMergeCell resultMergeRegion = new CTMergeCell();
-                            resultMergeRegion.setRef(resultMergeRange.toRange());
-                            resultMergeRegion.setParent(resultSheet.getMergeCells());
-                            resultSheet.getMergeCells().getMergeCell().add(resultMergeRegion);
-                        }
-                    }
+                Offset offset = calculateOffset(templateRange, resultRange);
+                for (Range mergeRange : templateMergeRegions) {
+                    mergeRegions.add(mergeRange.copy().shift(offset.downOffset, offset.rightOffset));
                 }
             }
         }
+
+        for (Map.Entry<String, MergeRegions> entry : resultMergeRegions.entrySet()) {
+            Worksheet resultSheet = result.getSheetByName(entry.getKey());
+            CTMergeCells resultMergeCells = resultSheet.getMergeCells();
+            if (resultMergeCells == null) {
+                resultMergeCells = new CTMergeCells();
+                resultMergeCells.setParent(resultSheet);
+                resultSheet.setMergeCells(resultMergeCells);
+            }
+
+            List<CTMergeCell> mergeCells = new ArrayList<>(entry.getValue().size());
+            for (Range resultMergeRange : entry.getValue().getRegions()) {
+                CTMergeCell resultMergeRegion = new CTMergeCell();
+                resultMergeRegion.setRef(resultMergeRange.toRange());
+                resultMergeRegion.setParent(resultMergeCells);
+                mergeCells.add(resultMergeRegion);
+            }
+            resultMergeCells.getMergeCell().addAll(mergeCells);
+            resultMergeCells.setCount((long) resultMergeCells.getMergeCell().size());
+        }
     }
 
     protected void writeBand(BandData childBand) {
@@ -741,28 +752,91 @@ public class XlsxFormatter extends AbstractFormatter {
     }
 
     protected List<Cell> copyCells(BandData band, Range templateRange, List<Row> resultSheetRows, Row firstRow, Worksheet resultSheet) {
+        RangePrototype rangePrototype = getRangePrototype(templateRange);
+        WorksheetPart worksheetPart = result.getWorksheetPart(resultSheet);
+
         List<Cell> resultCells = new ArrayList<>();
+        List<RangePrototype.RowPrototype> rowPrototypes = rangePrototype.getRows();
+        for (int i = 0; i < rowPrototypes.size(); i++) {
+            RangePrototype.RowPrototype rowPrototype = rowPrototypes.get(i);
+            Row resultRow = resultSheetRows.get((int) (firstRow.getR() + i - 1));
+
+            List<Cell> currentRowResultCells = copyCells(templateRange, band, resultRow, rowPrototype, worksheetPart);
+
+            resultCells.addAll(currentRowResultCells);
+
+            if (rowPrototype.getTemplateRow() != null) {
+                copyRowSettings(rowPrototype, resultRow, resultSheet);
+            } else {
+                Row templateRow = resultSheet.getSheetData().getRow().get(templateRange.getFirstRow() + i - 1);
+                copyRowSettings(templateRow, resultRow, getWorksheet(templateRow), resultSheet);
+            }
+        }
+        return resultCells;
+    }
+
+    protected RangePrototype getRangePrototype(Range templateRange) {
+        RangePrototype rangePrototype = rangePrototypes.get(templateRange);
+        if (rangePrototype == null) {
+            rangePrototype = createRangePrototype(templateRange);
+            rangePrototypes.put(templateRange, rangePrototype);
+        }
+        return rangePrototype;
+    }
+
+    /**
+     * Compiles template range into prototype: template cells with resolved values, alias slots and columns,
+     * template rows, their page breaks and merge regions. It is done once per range, all band instances reuse it.
+     */
+    protected RangePrototype createRangePrototype(Range templateRange) {
+        RangePrototype rangePrototype = new RangePrototype(templateRange);
+        Worksheet templateSheet = template.getSheetByName(templateRange.getSheet());
+        CTPageBreak rowBreaks = templateSheet.getRowBreaks();
+
+        if (templateSheet.getMergeCells() != null && templateSheet.getMergeCells().getMergeCell() != null) {
+            for (CTMergeCell templateMergeRegion : templateSheet.getMergeCells().getMergeCell()) {
+                Range mergeRange = Range.fromRange(templateRange.getSheet(), templateMergeRegion.getRef());
+                if (templateRange.contains(mergeRange) || templateRange.isOneCellRange() && mergeRange.contains(templateRange)) {
+                    rangePrototype.addMergeRegion(mergeRange);
+                }
+            }
+        }
+
         for (int i = 0; i <= templateRange.getLastRow() - templateRange.getFirstRow(); i++) {
             Range oneRowRange = new Range(templateRange.getSheet(),
                     templateRange.getFirstColumn(), templateRange.getFirstRow() + i,
                     templateRange.getLastColumn(), templateRange.getFirstRow() + i);
             Map<CellReference, Cell> cellsForOneRowRange = template.getCellsByRange(oneRowRange);
             List<Cell> templateCells = new ArrayList<>(cellsForOneRowRange.values());
-            Row templateRow = !templateCells.isEmpty() ?
-                    (Row) templateCells.get(0).getParent() :
-                    resultSheet.getSheetData().getRow().get(oneRowRange.getFirstRow() - 1);
+            Row templateRow = !templateCells.isEmpty() ? (Row) templateCells.get(0).getParent() : null;
 
             createFakeTemplateCellsForEmptyOnes(oneRowRange, cellsForOneRowRange, templateCells);
 
-            Row resultRow = resultSheetRows.get((int) (firstRow.getR() + i - 1));
-
-            List<Cell> currentRowResultCells = copyCells(templateRange, band, resultRow, templateCells);
-
-            resultCells.addAll(currentRowResultCells);
+            List<CTBreak> templateBreaks = null;
+            if (templateRow != null && rowBreaks != null && rowBreaks.getBrk() != null) {
+                templateBreaks = new ArrayList<>();
+                for (CTBreak templateBreak : rowBreaks.getBrk()) {
+                    if (templateRow.getR().equals(templateBreak.getId())) {
+                        templateBreaks.add(templateBreak);
+                    }
+                }
+            }
 
-            copyRowSettings(templateRow, resultRow, getWorksheet(templateRow), getWorksheet(resultRow));
+            RangePrototype.RowPrototype rowPrototype = rangePrototype.addRow(templateRow, templateBreaks);
+            for (Cell templateCell : templateCells) {
+                CellReference templateRef = new CellReference(templateRange.getSheet(), templateCell);
+                Col templateColumn = template.getColumnForCell(templateRange.getSheet(), templateRef);
+                String cellValue = template.getCellValue(templateCell);
+                String parameterName = cellValue != null && UNIVERSAL_ALIAS_PATTERN.matcher(cellValue).matches() ?
+                        unwrapParameterName(cellValue) : null;
+                boolean innerFormula = templateCell.getF() != null
+                        && templateRange.containsAny(Range.fromCellFormula(templateRange.getSheet(), templateCell));
+
+                rowPrototype.addCell(new RangePrototype.CellPrototype(
+                        templateCell, templateRef, templateColumn, cellValue, parameterName, innerFormula));
+            }
         }
-        return resultCells;
+        return rangePrototype;
     }
 
     /**
@@ -829,54 +903,36 @@ public class XlsxFormatter extends AbstractFormatter {
         return newRow;
     }
 
-    protected List<Cell> copyCells(Range templateRange, BandData bandData, Row newRow, List<Cell> templateCells) {
-        List<Cell> resultCells = new ArrayList<>();
+    protected List<Cell> copyCells(Range templateRange, BandData bandData, Row newRow,
+                                   RangePrototype.RowPrototype rowPrototype, WorksheetPart worksheetPart) {
+        List<Cell> resultCells = new ArrayList<>(rowPrototype.getCells().size());
 
         Worksheet resultWorksheet = getWorksheet(newRow);
-        for (Cell templateCell : templateCells) {
+        int newRowNumber = newRow.getR().intValue();
+        for (RangePrototype.CellPrototype cellPrototype : rowPrototype.getCells()) {
             checkThreadInterrupted();
-            Cell newCell = copyCell(templateCell);
+            CellReference tempRef = cellPrototype.getTemplateReference();
+            //if we have vertical band or horizontal band right after vertical band - it should be shifted
+            //only if there is vertical intersection with vertical band?
+            CellReference newRef = new CellReference(templateRange.getSheet(),
+                    newRowNumber, tempRef.getColumn() + previousRangesRightOffset);
 
-            if (newCell.getF() != null) {
-                addFormulaForPostProcessing(templateRange, bandData, newRow, templateCell, newCell);
+            Cell newCell = cellPrototype.createCell(newRef.toReference());
+
+            if (cellPrototype.hasFormula()) {
+                addFormulaForPostProcessing(cellPrototype, bandData, newCell);
             }
 
             resultCells.add(newCell);
 
-            CellReference tempRef = new CellReference(templateRange.getSheet(), templateCell);
-            CellReference newRef = new CellReference(templateRange.getSheet(), newCell.getR());
-            newRef.move(newRow.getR().intValue(), newRef.getColumn());
-
-            //if we have vertical band or horizontal band right after vertical band - it should be shifted
-            //only if there is vertical intersection with vertical band?
-            newRef.shift(0, previousRangesRightOffset);
-
-            newCell.setR(newRef.toReference());
-
             newRow.getC().add(newCell);
             newCell.setParent(newRow);
 
-            WorksheetPart worksheetPart = null;
-            for (Document.SheetWrapper sheetWrapper : result.getWorksheets()) {
-                Worksheet contents;
-                try {
-                    contents = sheetWrapper.getWorksheet().getContents();
-                } catch (Docx4JException e) {
-                    throw new RuntimeException("Unable to get worksheet contents", e);
-                }
-
-                if (contents == resultWorksheet) {
-                    worksheetPart = sheetWrapper.getWorksheet();
-                }
-            }
-
-            updateCell(worksheetPart, bandData, newCell);
+            updateCell(worksheetPart, bandData, newCell, cellPrototype.getValue(), cellPrototype.getParameterName());
 
-            Col templateColumn = template.getColumnForCell(templateRange.getSheet(), tempRef);
-            Col resultColumn = result.getColumnForCell(templateRange.getSheet(), newRef);
-
-            if (templateColumn != null && resultColumn == null) {
-                resultColumn = XmlUtils.deepCopy(templateColumn, Context.jcSML);
+            Col templateColumn = cellPrototype.getTemplateColumn();
+            if (templateColumn != null && result.getColumnForCell(templateRange.getSheet(), newRef) == null) {
+                Col resultColumn = XmlUtils.deepCopy(templateColumn, Context.jcSML);
                 resultColumn.setMin(newRef.getColumn());
                 resultColumn.setMax(newRef.getColumn());
                 resultColumn.setOutlineLevel(templateColumn.getOutlineLevel());
@@ -884,31 +940,46 @@ public class XlsxFormatter extends AbstractFormatter {
                 resultWorksheet.getCols().get(0).getCol().add(resultColumn);
             }
 
-            hintProcessor.add(tempRef, templateCell, newCell, bandData);
+            hintProcessor.add(tempRef, cellPrototype.getTemplateCell(), newCell, bandData);
 
         }
         return resultCells;
     }
 
-    protected Cell copyCell(Cell cell) {
-        return XmlCopyUtils.copyCell(cell, unmarshaller, marshaller);
-    }
-
     protected Worksheet getWorksheet(Row newRow) {
         SheetData resultSheetData = (SheetData) newRow.getParent();
         return (Worksheet) resultSheetData.getParent();
     }
 
-    protected void addFormulaForPostProcessing(Range templateRange, BandData bandData, Row newRow, Cell templateCell, Cell newCell) {
-        Worksheet worksheet = getWorksheet(newRow);
-        Set<Range> formulaRanges = Range.fromCellFormula(result.getSheetName(worksheet), templateCell);
-        if (templateRange.containsAny(formulaRanges)) {
+    protected void addFormulaForPostProcessing(RangePrototype.CellPrototype cellPrototype, BandData bandData, Cell newCell) {
+        if (cellPrototype.isInnerFormula()) {
             innerFormulas.add(new CellWithBand(bandData, newCell));
         } else {
             outerFormulas.add(new CellWithBand(bandData, newCell));
         }
     }
 
+    protected void copyRowSettings(RangePrototype.RowPrototype rowPrototype, Row newRow, Worksheet resultWorksheet) {
+        Row templateRow = rowPrototype.getTemplateRow();
+        newRow.setHt(templateRow.getHt());
+        newRow.setCustomHeight(true);
+        List<CTBreak> templateBreaks = rowPrototype.getTemplateBreaks();
+        if (templateBreaks != null) {
+            CTPageBreak resultWorksheetRowBreaks = resultWorksheet.getRowBreaks();
+            for (CTBreak templateBreak : templateBreaks) {
+                CTBreak newBreak = XmlUtils.deepCopy(templateBreak, Context.jcSML);
+                newBreak.setId(newRow.getR());
+                resultWorksheetRowBreaks.getBrk().add(newBreak);
+            }
+
+            long rowBreaksCount = resultWorksheetRowBreaks.getBrk().size();
+            resultWorksheetRowBreaks.setCount(rowBreaksCount);
+            resultWorksheetRowBreaks.setManualBreakCount(rowBreaksCount);
+        }
+
+        newRow.setOutlineLevel(templateRow.getOutlineLevel());
+    }
+
     protected void copyRowSettings(Row templateRow, Row newRow, Worksheet templateWorksheet, Worksheet resultWorksheet) {
         newRow.setHt(templateRow.getHt());
         newRow.setCustomHeight(true);
@@ -933,14 +1004,22 @@ public class XlsxFormatter extends AbstractFormatter {
 
     protected void updateCell(WorksheetPart worksheetPart, BandData bandData, Cell newCell) {
         String cellValue = template.getCellValue(newCell);
+        String parameterName = cellValue != null && UNIVERSAL_ALIAS_PATTERN.matcher(cellValue).matches() ?
+                unwrapParameterName(cellValue) : null;
+        updateCell(worksheetPart, bandData, newCell, cellValue, parameterName);
+    }
 
+    /**
+     * @param cellValue     template value of the cell
+     * @param parameterName alias name if the template value is just one alias, null otherwise
+     */
+    protected void updateCell(WorksheetPart worksheetPart, BandData bandData, Cell newCell, String cellValue, String parameterName) {
         if (cellValue == null) {
             newCell.setV("");
             return;
         }
 
-        if (UNIVERSAL_ALIAS_PATTERN.matcher(cellValue).matches()) {
-            String parameterName = unwrapParameterName(cellValue);
+        if (parameterName != null) {
             String fullParameterName = bandData.getName() + "." + parameterName;
             Object value = bandData.getData().get(parameterName);
 
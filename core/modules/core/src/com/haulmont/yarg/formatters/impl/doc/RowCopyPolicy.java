@@ -0,0 +1,35 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.haulmont.yarg.formatters.impl.doc;
+
+/**
+ * Defines how rows of doc/odt tables are replicated for band rows.
+ */
+public enum RowCopyPolicy {
+    /**
+     * Rows are copied with copy/paste dispatches, the system clipboard is shared,
+     * so tables of all documents are filled one by one. Used by default
+     */
+    CLIPBOARD,
+
+    /**
+     * Rows are inserted and cells are copied through the UNO API without clipboard,
+     * tables of different documents are filled simultaneously.
+     * Suitable for simple rows: images and nested tables of the row may be copied incompletely
+     */
+    UNO
+}
@@ -18,6 +18,9 @@ package com.haulmont.yarg.formatters.impl.doc;
 import com.haulmont.yarg.exception.ReportFormattingException;
 import com.haulmont.yarg.formatters.impl.AbstractFormatter;
 import com.sun.star.beans.PropertyValue;
+import com.sun.star.beans.XPropertySet;
+import com.sun.star.beans.XPropertySetInfo;
+import com.sun.star.container.XIndexAccess;
 import com.sun.star.container.NoSuchElementException;
 import com.sun.star.container.XNameAccess;
 import com.sun.star.frame.XController;
@@ -30,6 +33,7 @@ import com.sun.star.table.XCell;
 import com.sun.star.table.XCellRange;
 import com.sun.star.table.XTableRows;
 import com.sun.star.text.XText;
+import com.sun.star.text.XTextCopy;
 import com.sun.star.text.XTextTable;
 import com.sun.star.text.XTextTableCursor;
 import com.sun.star.text.XTextTablesSupplier;
@@ -45,6 +49,11 @@ import java.util.regex.Pattern;
 import static com.haulmont.yarg.formatters.impl.doc.UnoConverter.as;
 
 public class TableManager {
+    protected static final String[] ROW_PROPERTIES = {"Height", "IsAutoHeight", "BackColor", "BackTransparent", "IsSplitAllowed"};
+    protected static final String[] CELL_PROPERTIES = {"BackColor", "BackTransparent", "VertOrient",
+            "LeftBorder", "RightBorder", "TopBorder", "BottomBorder",
+            "LeftBorderDistance", "RightBorderDistance", "TopBorderDistance", "BottomBorderDistance"};
+
     protected XTextTable xTextTable;
     protected String tableName;
 
@@ -168,6 +177,44 @@ public class TableManager {
         paste(xDispatchHelper, xDispatchProvider);
     }
 
+    /**
+     * Inserts a copy of the row after it without clipboard: cell text is copied with its formatting,
+     * cell and row properties are copied as well.
+     */
+    public void copyRowWithoutClipboard(int row) throws com.sun.star.uno.Exception {
+        insertEmptyRow(row);
+        XIndexAccess rows = as(XIndexAccess.class, xTextTable.getRows());
+        copyProperties(as(XPropertySet.class, rows.getByIndex(row)), as(XPropertySet.class, rows.getByIndex(row + 1)), ROW_PROPERTIES);
+
+        int cellsCount = getCellNamesForTheRow(row).size();
+        for (int col = 0; col < cellsCount; col++) {
+            XCell sourceCell = getXCell(col, row);
+            XCell targetCell = getXCell(col, row + 1);
+            copyProperties(as(XPropertySet.class, sourceCell), as(XPropertySet.class, targetCell), CELL_PROPERTIES);
+
+            XTextCopy sourceText = as(XTextCopy.class, sourceCell);
+            XTextCopy targetText = as(XTextCopy.class, targetCell);
+            if (sourceText != null && targetText != null) {
+                targetText.copyText(sourceText);
+            } else {
+                as(XText.class, targetCell).setString(as(XText.class, sourceCell).getString());
+            }
+        }
+    }
+
+    protected void copyProperties(XPropertySet source, XPropertySet target, String[] propertyNames) throws com.sun.star.uno.Exception {
+        if (source == null || target == null) {
+            return;
+        }
+        XPropertySetInfo sourceInfo = source.getPropertySetInfo();
+        XPropertySetInfo targetInfo = target.getPropertySetInfo();
+        for (String propertyName : propertyNames) {
+            if (sourceInfo.hasPropertyByName(propertyName) && targetInfo.hasPropertyByName(propertyName)) {
+                target.setPropertyValue(propertyName, source.getPropertyValue(propertyName));
+            }
+        }
+    }
+
     public void copy(XDispatchHelper xDispatchHelper, XDispatchProvider xDispatchProvider) {
         xDispatchHelper.executeDispatch(xDispatchProvider, ".uno:Copy", "", 0, new PropertyValue[]{new PropertyValue()});
     }
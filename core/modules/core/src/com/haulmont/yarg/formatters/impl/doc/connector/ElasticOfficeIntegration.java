@@ -0,0 +1,351 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.haulmont.yarg.formatters.impl.doc.connector;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Office integration with a pool of office processes growing from min to max instances on demand.
+ * Ports are allocated automatically starting from the first port, skipping ports which are in use.
+ * <p>
+ * After {@link #start()} the pool keeps the configured number of idle office processes started (warm spares),
+ * so tasks do not wait for office start. Idle processes are checked periodically: processes which do not respond are closed,
+ * processes idle longer than the idle timeout are stopped while the pool is bigger than min instances.
+ * A process is restarted after the configured number of tasks, an idle process is restarted by the health check
+ * after the configured memory growth.
+ */
+public class ElasticOfficeIntegration extends OfficeIntegration {
+    protected static final Logger log = LoggerFactory.getLogger(ElasticOfficeIntegration.class);
+
+    public static final int MAX_PORT = 65535;
+
+    protected final int firstPort;
+    protected final int minInstances;
+
+    protected int warmSpares = 1;
+    protected int maxTasksPerInstance;
+    protected long maxMemoryGrowthInBytes;
+    protected int healthCheckIntervalInSeconds = 60;
+    protected int idleTimeoutInSeconds = 600;
+
+    protected final Object poolLock = new Object();
+    protected final AtomicBoolean warmUpScheduled = new AtomicBoolean();
+    protected volatile ScheduledExecutorService maintenanceExecutor;
+
+    public ElasticOfficeIntegration(String openOfficePath, int firstPort, int minInstances, int maxInstances) {
+        super(openOfficePath, maxInstances, new Integer[0]);
+        if (minInstances < 0 || maxInstances <= 0 || minInstances > maxInstances) {
+            throw new IllegalArgumentException(String.format("Invalid office instances range [%d, %d]", minInstances, maxInstances));
+        }
+        this.firstPort = firstPort;
+        this.minInstances = minInstances;
+    }
+
+    /**
+     * Sets number of idle office processes kept started, so tasks do not wait for office start.
+     */
+    public void setWarmSpares(int warmSpares) {
+        this.warmSpares = warmSpares;
+    }
+
+    public int getWarmSpares() {
+        return warmSpares;
+    }
+
+    /**
+     * Sets number of tasks after which the office process is restarted, 0 means the process is not restarted.
+     */
+    public void setMaxTasksPerInstance(int maxTasksPerInstance) {
+        this.maxTasksPerInstance = maxTasksPerInstance;
+    }
+
+    public int getMaxTasksPerInstance() {
+        return maxTasksPerInstance;
+    }
+
+    /**
+     * Sets growth of the office process memory after which the process is restarted, 0 means memory is not checked.
+     * Memory is checked for idle processes by the health check, the baseline is taken when the process is started.
+     * Memory is determined only on systems with /proc file system and platform dependent process management.
+     */
+    public void setMaxMemoryGrowthInBytes(long maxMemoryGrowthInBytes) {
+        this.maxMemoryGrowthInBytes = maxMemoryGrowthInBytes;
+    }
+
+    public long getMaxMemoryGrowthInBytes() {
+        return maxMemoryGrowthInBytes;
+    }
+
+    public void setHealthCheckIntervalInSeconds(int healthCheckIntervalInSeconds) {
+        this.healthCheckIntervalInSeconds = healthCheckIntervalInSeconds;
+    }
+
+    public int getHealthCheckIntervalInSeconds() {
+        return healthCheckIntervalInSeconds;
+    }
+
+    /**
+     * Sets time after which an idle office process is stopped if there are more than min instances.
+     */
+    public void setIdleTimeoutInSeconds(int idleTimeoutInSeconds) {
+        this.idleTimeoutInSeconds = idleTimeoutInSeconds;
+    }
+
+    public int getIdleTimeoutInSeconds() {
+        return idleTimeoutInSeconds;
+    }
+
+    public int getMinInstances() {
+        return minInstances;
+    }
+
+    public int getMaxInstances() {
+        return maxConnections;
+    }
+
+    public int getInstancesCount() {
+        return connections.size();
+    }
+
+    /**
+     * Creates min instances, starts warm spares in background and schedules health checks.
+     */
+    public void start() {
+        synchronized (poolLock) {
+            if (maintenanceExecutor != null) {
+                return;
+            }
+            maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("OfficeIntegrationMaintenance-%d")
+                            .setDaemon(true)
+                            .build());
+            while (connections.size() < minInstances) {
+                connectionsQueue.add(addConnection());
+            }
+        }
+        scheduleWarmUp();
+        if (healthCheckIntervalInSeconds > 0) {
+            maintenanceExecutor.scheduleWithFixedDelay(this::checkHealth,
+                    healthCheckIntervalInSeconds, healthCheckIntervalInSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Stops maintenance and all office processes.
+     */
+    public void stop() {
+        synchronized (poolLock) {
+            if (maintenanceExecutor != null) {
+                maintenanceExecutor.shutdownNow();
+                maintenanceExecutor = null;
+            }
+        }
+        for (OfficeConnection connection : connections) {
+            connection.close();
+        }
+    }
+
+    @Override
+    protected OfficeConnection pollConnection() {
+        OfficeConnection connection = connectionsQueue.poll();
+        if (connection == null) {
+            synchronized (poolLock) {
+                if (connections.size() < maxConnections) {
+                    connection = addConnection();
+                }
+            }
+        }
+        scheduleWarmUp();
+        return connection;
+    }
+
+    @Override
+    protected void releaseConnection(OfficeConnection officeConnection) {
+        if (!officeConnection.isClosed() && shouldRecycle(officeConnection)) {
+            log.info("Office instance with port {} is restarted after {} tasks",
+                    officeConnection.getPort(), officeConnection.getTasksSinceOpen() + 1);
+            officeConnection.close();
+        }
+        super.releaseConnection(officeConnection);
+        scheduleWarmUp();
+    }
+
+    protected boolean shouldRecycle(OfficeConnection officeConnection) {
+        return maxTasksPerInstance > 0 && officeConnection.getTasksSinceOpen() + 1 >= maxTasksPerInstance;
+    }
+
+    @Override
+    protected boolean isProcessMemoryTracked() {
+        return maxMemoryGrowthInBytes > 0;
+    }
+
+    /**
+     * Must be called under pool lock.
+     */
+    protected OfficeConnection addConnection() {
+        OfficeConnection connection = createConnection(allocatePort());
+        connections.add(connection);
+        return connection;
+    }
+
+    protected int allocatePort() {
+        Set<Integer> usedPorts = new HashSet<>();
+        for (OfficeConnection connection : connections) {
+            usedPorts.add(connection.getPort());
+        }
+        for (int port = firstPort; port <= MAX_PORT; port++) {
+            if (!usedPorts.contains(port) && isPortFree(port)) {
+                return port;
+            }
+        }
+        throw new NoFreePortsException("Couldn't allocate port for office starting from " + firstPort);
+    }
+
+    protected boolean isPortFree(int port) {
+        try {
+            new ServerSocket(port, 1, InetAddress.getByName("127.0.0.1")).close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    protected void scheduleWarmUp() {
+        ScheduledExecutorService maintenanceExecutor = this.maintenanceExecutor;
+        if (maintenanceExecutor != null && warmUpScheduled.compareAndSet(false, true)) {
+            try {
+                maintenanceExecutor.execute(() -> {
+                    warmUpScheduled.set(false);
+                    warmUp();
+                });
+            } catch (RuntimeException e) {
+                warmUpScheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * Starts office for idle connections until there are enough warm spares, adding connections if needed.
+     */
+    protected void warmUp() {
+        int startedSpares = 0;
+        for (OfficeConnection connection : connectionsQueue) {
+            if (!connection.isClosed()) {
+                startedSpares++;
+            }
+        }
+
+        while (startedSpares < warmSpares && !Thread.currentThread().isInterrupted()) {
+            OfficeConnection connection = takeClosedIdleConnection();
+            if (connection == null) {
+                synchronized (poolLock) {
+                    if (connections.size() >= maxConnections) {
+                        return;
+                    }
+                    connection = addConnection();
+                }
+            }
+
+            try {
+                connection.open();
+                startedSpares++;
+            } catch (Exception e) {
+                log.warn("Unable to start office instance with port {}", connection.getPort(), e);
+                return;
+            } finally {
+                returnIdleConnection(connection);
+            }
+        }
+    }
+
+    protected OfficeConnection takeClosedIdleConnection() {
+        for (OfficeConnection connection : connectionsQueue) {
+            if (connection.isClosed() && connectionsQueue.remove(connection)) {
+                return connection;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the connection taken by maintenance, tasks submitted in the meantime get it.
+     */
+    protected void returnIdleConnection(OfficeConnection connection) {
+        if (!connectionsQueue.contains(connection)) {
+            connectionsQueue.offer(connection);
+        }
+        dispatchTasks();
+    }
+
+    /**
+     * Closes idle office processes which do not respond or have grown in memory too much,
+     * stops processes idle for too long above min instances.
+     */
+    protected void checkHealth() {
+        try {
+            for (OfficeConnection connection : new ArrayList<>(connectionsQueue)) {
+                if (!connectionsQueue.remove(connection)) {
+                    continue;//taken by a task
+                }
+
+                if (!connection.isClosed() && !connection.isAlive()) {
+                    log.warn("Office instance with port {} does not respond and will be restarted", connection.getPort());
+                    connection.close();
+                }
+
+                if (!connection.isClosed() && maxMemoryGrowthInBytes > 0 && connection.getProcessMemoryGrowth() > maxMemoryGrowthInBytes) {
+                    log.info("Office instance with port {} is restarted after memory growth", connection.getPort());
+                    connection.close();
+                }
+
+                if (connection.getIdleTime(TimeUnit.SECONDS) >= idleTimeoutInSeconds && removeConnection(connection)) {
+                    log.info("Office instance with port {} is stopped after idle timeout", connection.getPort());
+                    connection.close();
+                } else {
+                    returnIdleConnection(connection);
+                }
+            }
+        } catch (Exception e) {
+            log.error("An error occurred while checking office instances", e);
+        }
+        warmUp();
+    }
+
+    protected boolean removeConnection(OfficeConnection connection) {
+        synchronized (poolLock) {
+            if (connections.size() > minInstances) {
+                connections.remove(connection);
+                return true;
+            }
+            return false;
+        }
+    }
+}
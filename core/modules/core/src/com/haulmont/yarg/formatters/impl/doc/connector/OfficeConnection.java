@@ -24,6 +24,12 @@ import com.sun.star.connection.XConnector;
 import com.sun.star.lang.XMultiComponentFactory;
 import com.sun.star.uno.XComponentContext;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static com.haulmont.yarg.formatters.impl.doc.UnoConverter.as;
@@ -36,11 +42,20 @@ public class OfficeConnection {
     protected Integer port;
     protected OfficeIntegration officeIntegration;
     protected BootstrapSocketConnector bsc;
+    protected ProcessManager processManager;
 
     protected volatile XComponentContext xComponentContext;
     protected volatile OfficeResourceProvider officeResourceProvider;
     protected volatile boolean closed = true;
 
+    protected final long createdAt = System.nanoTime();
+    protected final AtomicLong busyTimeNanos = new AtomicLong();
+    protected final AtomicLong tasksCount = new AtomicLong();
+    protected volatile long busySince;
+    protected volatile long lastUsedAt = System.nanoTime();
+    protected volatile int tasksSinceOpen;
+    protected volatile long memoryAfterOpen = -1;
+    protected volatile List<Long> processIds;
 
     public OfficeConnection(String openOfficePath, Integer port, ProcessManager processManager, OfficeIntegration officeIntegration) {
         this.port = port;
@@ -48,6 +63,7 @@ public class OfficeConnection {
         this.oooServer = new OOServer(openOfficePath, OOServer.getDefaultOOoOptions(), "localhost", port, processManager);
         this.bsc = new BootstrapSocketConnector(oooServer);
         this.openOfficePath = openOfficePath;
+        this.processManager = processManager;
     }
 
     public OfficeResourceProvider getOOResourceProvider() {
@@ -71,8 +87,10 @@ public class OfficeConnection {
                 XPropertySet properties = as(XPropertySet.class, serviceManager);
                 xComponentContext = as(XComponentContext.class, properties.getPropertyValue("DefaultContext"));
 
-                officeResourceProvider = new OfficeResourceProvider(xComponentContext, officeIntegration);
+                officeResourceProvider = new OfficeResourceProvider(xComponentContext, officeIntegration, this);
+                tasksSinceOpen = 0;
                 closed = false;
+                initProcessMemory();
             } catch (Exception e) {
                 close();
                 throw new OpenOfficeException("Unable to create Open office components.", e);
@@ -83,5 +101,133 @@ public class OfficeConnection {
     public void close() {
         bsc.disconnect();
         closed = true;
+        processIds = null;
     }
-}
\ No newline at end of file
+
+    public Integer getPort() {
+        return port;
+    }
+
+    protected void markAcquired() {
+        busySince = System.nanoTime();
+    }
+
+    protected void markReleased() {
+        lastUsedAt = System.nanoTime();
+        busyTimeNanos.addAndGet(lastUsedAt - busySince);
+        busySince = 0;
+        tasksCount.incrementAndGet();
+        tasksSinceOpen++;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Checks that the office process still responds through the bridge.
+     */
+    public boolean isAlive() {
+        if (closed) {
+            return false;
+        }
+        try {
+            return xComponentContext.getServiceManager() != null;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return number of tasks run since the office process was started
+     */
+    public int getTasksSinceOpen() {
+        return tasksSinceOpen;
+    }
+
+    /**
+     * @return time since the last task finished
+     */
+    public long getIdleTime(TimeUnit unit) {
+        return busySince != 0 ? 0 : unit.convert(System.nanoTime() - lastUsedAt, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return resident memory of the office process in bytes or -1 if it could not be determined
+     */
+    public long getProcessMemory() {
+        if (closed) {
+            return -1;
+        }
+        long memory = -1;
+        for (Long pid : getProcessIds()) {
+            Path status = Paths.get("/proc", String.valueOf(pid), "status");
+            if (pid == ProcessManager.PID_UNKNOWN || !Files.isReadable(status)) {
+                continue;
+            }
+            try {
+                for (String line : Files.readAllLines(status)) {
+                    if (line.startsWith("VmRSS:")) {
+                        memory = Math.max(memory, 0) + Long.parseLong(line.replaceAll("\\D", "")) * 1024;
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                return -1;
+            }
+        }
+        return memory;
+    }
+
+    /**
+     * Takes the memory baseline of the started office process if the integration tracks process memory,
+     * process ids are found once and kept until the connection is closed.
+     */
+    protected void initProcessMemory() {
+        processIds = null;
+        memoryAfterOpen = officeIntegration != null && officeIntegration.isProcessMemoryTracked() ? getProcessMemory() : -1;
+    }
+
+    protected List<Long> getProcessIds() {
+        List<Long> processIds = this.processIds;
+        if (processIds == null) {
+            processIds = processManager.findPid("localhost", port);
+            this.processIds = processIds;
+        }
+        return processIds;
+    }
+
+    /**
+     * @return growth of the office process memory since start, or 0 if it could not be determined
+     */
+    public long getProcessMemoryGrowth() {
+        long memory = getProcessMemory();
+        if (memory < 0) {
+            return 0;
+        }
+        if (memoryAfterOpen < 0) {
+            memoryAfterOpen = memory;
+        }
+        return memory - memoryAfterOpen;
+    }
+
+    public long getTasksCount() {
+        return tasksCount.get();
+    }
+
+    public long getBusyTime(TimeUnit unit) {
+        long busyTime = busyTimeNanos.get();
+        long currentBusySince = busySince;
+        if (currentBusySince != 0) {
+            busyTime += System.nanoTime() - currentBusySince;
+        }
+        return unit.convert(busyTime, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return share of time the connection has been used by tasks since it was created, from 0 to 1
+     */
+    public double getUtilization() {
+        long lifetime = System.nanoTime() - createdAt;
+        return lifetime > 0 ? Math.min(1.0, (double) getBusyTime(TimeUnit.NANOSECONDS) / lifetime) : 0;
+    }
+}
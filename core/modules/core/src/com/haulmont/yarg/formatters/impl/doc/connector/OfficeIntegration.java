@@ -21,26 +21,56 @@ import com.haulmont.yarg.exception.OpenOfficeException;
 import com.haulmont.yarg.exception.ReportingInterruptedException;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class OfficeIntegration implements OfficeIntegrationAPI {
     protected volatile boolean platformDependProcessManagement = true;
     protected final ExecutorService executor;
-    protected final BlockingQueue<OfficeConnection> connectionsQueue = new LinkedBlockingDeque<OfficeConnection>();
+    protected final int maxConnections;
+    protected final BlockingQueue<OfficeConnection> connectionsQueue;
     protected final Set<OfficeConnection> connections = new CopyOnWriteArraySet<OfficeConnection>();
 
+    protected final AtomicInteger waitingTasks = new AtomicInteger();
+    protected final AtomicLong acquisitions = new AtomicLong();
+    protected final AtomicLong acquireTimeouts = new AtomicLong();
+    protected final AtomicLong totalWaitTimeNanos = new AtomicLong();
+    protected final AtomicLong maxWaitTimeNanos = new AtomicLong();
+
+    protected final Queue<AsyncTask> pendingTasks = new ConcurrentLinkedQueue<>();
+    protected final AtomicInteger submittedTasks = new AtomicInteger();
+    protected final AtomicLong rejectedTasks = new AtomicLong();
+    protected volatile ScheduledExecutorService timer;
+    protected volatile ExecutorService completionExecutor;
+
     protected String openOfficePath;
     protected String temporaryDirPath;
     protected Integer[] openOfficePorts;
     protected Integer timeoutInSeconds = 60;
     protected int countOfRetry = 2;
+    protected long acquireTimeoutInMillis = 1000;
+    protected int maxSubmittedTasks = 100;
     protected Boolean displayDeviceAvailable = false;
 
     public OfficeIntegration(String openOfficePath, Integer... ports) {
+        this(openOfficePath, ports.length, ports);
+    }
+
+    /**
+     * @param maxConnections number of connections the pool can grow to, not less than the number of ports
+     */
+    protected OfficeIntegration(String openOfficePath, int maxConnections, Integer... ports) {
         this.openOfficePath = openOfficePath;
         this.openOfficePorts = ports;
+        this.maxConnections = Math.max(Math.max(maxConnections, ports.length), 1);
+        //fair queue: tasks waiting for a free connection get it in the order they came
+        this.connectionsQueue = new ArrayBlockingQueue<>(this.maxConnections, true);
         initConnections(ports);
         executor = createExecutor();
     }
@@ -61,6 +91,30 @@ public class OfficeIntegration implements OfficeIntegrationAPI {
         this.countOfRetry = countOfRetry;
     }
 
+    /**
+     * Sets how long a task waits for a free connection before {@link NoFreePortsException} is thrown,
+     * 0 means the exception is thrown immediately when all connections are busy.
+     */
+    public void setAcquireTimeoutInMillis(long acquireTimeoutInMillis) {
+        this.acquireTimeoutInMillis = acquireTimeoutInMillis;
+    }
+
+    public long getAcquireTimeoutInMillis() {
+        return acquireTimeoutInMillis;
+    }
+
+    /**
+     * Sets how many submitted tasks can be waiting or running at once,
+     * tasks submitted above the limit are rejected with {@link NoFreePortsException}.
+     */
+    public void setMaxSubmittedTasks(int maxSubmittedTasks) {
+        this.maxSubmittedTasks = maxSubmittedTasks;
+    }
+
+    public int getMaxSubmittedTasks() {
+        return maxSubmittedTasks;
+    }
+
     public String getTemporaryDirPath() {
         return temporaryDirPath;
     }
@@ -122,6 +176,168 @@ public class OfficeIntegration implements OfficeIntegrationAPI {
         }
     }
 
+    /**
+     * Submits the task without blocking the caller: the task waits in the queue until a connection is released
+     * and is run by the executor, so no thread is occupied while the task waits.
+     * The task fails with {@link NoFreePortsException} if it does not get a connection within the acquire timeout
+     * or too many tasks are submitted already.
+     */
+    @Override
+    public CompletableFuture<Void> submitTask(OfficeTask officeTask, int timeoutInSeconds) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        if (submittedTasks.incrementAndGet() > maxSubmittedTasks) {
+            submittedTasks.decrementAndGet();
+            rejectedTasks.incrementAndGet();
+            result.completeExceptionally(new NoFreePortsException("Too many office tasks are submitted"));
+            return result;
+        }
+
+        AsyncTask task = new AsyncTask(officeTask, timeoutInSeconds, result);
+        result.whenComplete((r, e) -> {
+            submittedTasks.decrementAndGet();
+            task.cancelTimeout();
+            if (e != null) {
+                //cancelled or timed out, the task is stopped if it is running
+                pendingTasks.remove(task);
+                Future<?> execution = task.execution;
+                if (execution != null && task.runner != Thread.currentThread()) {
+                    execution.cancel(true);
+                }
+            }
+        });
+
+        pendingTasks.add(task);
+        if (acquireTimeoutInMillis > 0) {
+            task.timeout = getTimer().schedule(() -> expire(task), acquireTimeoutInMillis, TimeUnit.MILLISECONDS);
+        }
+        dispatchTasks();
+        if (acquireTimeoutInMillis <= 0) {
+            expire(task);
+        }
+        return result;
+    }
+
+    /**
+     * Starts pending tasks while there are free connections.
+     */
+    protected void dispatchTasks() {
+        while (!pendingTasks.isEmpty()) {
+            OfficeConnection connection = pollConnection();
+            if (connection == null) {
+                return;
+            }
+
+            AsyncTask task = pendingTasks.poll();
+            if (task != null) {
+                startTask(task, connection);
+            } else if (!connectionsQueue.contains(connection)) {
+                connectionsQueue.offer(connection);
+            }
+        }
+    }
+
+    protected void startTask(AsyncTask task, OfficeConnection connection) {
+        task.cancelTimeout();
+        long waitTime = System.nanoTime() - task.submittedAt;
+        totalWaitTimeNanos.addAndGet(waitTime);
+        maxWaitTimeNanos.accumulateAndGet(waitTime, Math::max);
+        acquisitions.incrementAndGet();
+        connection.markAcquired();
+
+        try {
+            task.timeout = getTimer().schedule(() -> {
+                if (task.finish(connection::close)) {
+                    task.result.completeExceptionally(new OpenOfficeException(
+                            new TimeoutException("Open office task is not done in " + task.timeoutInSeconds + " seconds")));
+                }
+            }, task.timeoutInSeconds, TimeUnit.SECONDS);
+            task.execution = executor.submit(() -> runTask(task, connection));
+        } catch (RuntimeException e) {
+            task.result.completeExceptionally(e);
+            releaseConnection(connection);
+        }
+    }
+
+    protected void runTask(AsyncTask task, OfficeConnection connection) {
+        task.runner = Thread.currentThread();
+        Throwable failure = null;
+        try {
+            if (!task.result.isDone()) {
+                connection.open();
+                task.officeTask.processTaskInOpenOffice(connection.getOOResourceProvider());
+            }
+        } catch (Throwable e) {
+            failure = e;
+        } finally {
+            task.runner = null;
+        }
+
+        boolean failed = failure != null;
+        boolean finished = task.finish(() -> {
+            if (failed) {
+                connection.close();
+            }
+        });
+        releaseConnection(connection);
+        if (finished) {
+            //dependent actions of the result could wait for a connection or an executor thread,
+            //so the result is completed by a separate executor after the connection is released
+            RuntimeException exception = failed ? wrapTaskException(failure) : null;
+            getCompletionExecutor().execute(() -> {
+                if (exception != null) {
+                    task.result.completeExceptionally(exception);
+                } else {
+                    task.result.complete(null);
+                }
+            });
+        }
+    }
+
+    protected void expire(AsyncTask task) {
+        if (pendingTasks.remove(task)) {
+            acquireTimeouts.incrementAndGet();
+            task.result.completeExceptionally(new NoFreePortsException("Couldn't get free port from pool"));
+        }
+    }
+
+    protected RuntimeException wrapTaskException(Throwable e) {
+        if (e instanceof BootstrapException || e instanceof com.sun.star.comp.helper.BootstrapException
+                || e.getCause() instanceof BootstrapException || e.getCause() instanceof com.sun.star.comp.helper.BootstrapException) {
+            return new OpenOfficeException("Failed to connect to open office. Please check open office path " + openOfficePath, e);
+        }
+        return e instanceof RuntimeException ? (RuntimeException) e : new OpenOfficeException(e);
+    }
+
+    protected ScheduledExecutorService getTimer() {
+        if (timer == null) {
+            synchronized (this) {
+                if (timer == null) {
+                    timer = Executors.newSingleThreadScheduledExecutor(
+                            new ThreadFactoryBuilder()
+                                    .setNameFormat("OfficeIntegrationTimer-%d")
+                                    .setDaemon(true)
+                                    .build());
+                }
+            }
+        }
+        return timer;
+    }
+
+    protected ExecutorService getCompletionExecutor() {
+        if (completionExecutor == null) {
+            synchronized (this) {
+                if (completionExecutor == null) {
+                    completionExecutor = Executors.newCachedThreadPool(
+                            new ThreadFactoryBuilder()
+                                    .setNameFormat("OfficeIntegrationCompletion-%d")
+                                    .setDaemon(true)
+                                    .build());
+                }
+            }
+        }
+        return completionExecutor;
+    }
+
     public int getCountOfRetry() {
         return countOfRetry;
     }
@@ -161,24 +377,120 @@ public class OfficeIntegration implements OfficeIntegrationAPI {
         this.platformDependProcessManagement = platformDependProcessManagement;
     }
 
+    /**
+     * @return whether connections take memory baseline of office processes on start
+     */
+    protected boolean isProcessMemoryTracked() {
+        return false;
+    }
+
     protected ExecutorService createExecutor() {
-        return Executors.newFixedThreadPool(connections.size(),
+        return Executors.newFixedThreadPool(maxConnections,
                 new ThreadFactoryBuilder()
                         .setNameFormat("OfficeIntegration-%d")
                         .build());
     }
 
     protected OfficeConnection acquireConnection() throws NoFreePortsException {
-        final OfficeConnection connection = connectionsQueue.poll();
+        long start = System.nanoTime();
+        OfficeConnection connection = pollConnection();
+        if (connection == null && acquireTimeoutInMillis > 0) {
+            waitingTasks.incrementAndGet();
+            try {
+                connection = connectionsQueue.poll(acquireTimeoutInMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ReportingInterruptedException("Open office task interrupted");
+            } finally {
+                waitingTasks.decrementAndGet();
+            }
+        }
+
+        long waitTime = System.nanoTime() - start;
+        totalWaitTimeNanos.addAndGet(waitTime);
+        maxWaitTimeNanos.accumulateAndGet(waitTime, Math::max);
         if (connection != null) {
+            acquisitions.incrementAndGet();
+            connection.markAcquired();
             return connection;
         } else {
+            acquireTimeouts.incrementAndGet();
             throw new NoFreePortsException("Couldn't get free port from pool");
         }
     }
 
+    /**
+     * @return free connection or null if all connections are busy
+     */
+    protected OfficeConnection pollConnection() {
+        return connectionsQueue.poll();
+    }
+
     protected void releaseConnection(OfficeConnection officeConnection) {
-        connectionsQueue.add(officeConnection);
+        officeConnection.markReleased();
+        //connection could be already returned by hardReloadAccessPorts
+        if (!connectionsQueue.contains(officeConnection)) {
+            connectionsQueue.offer(officeConnection);
+        }
+        dispatchTasks();
+    }
+
+    /**
+     * @return number of submitted tasks waiting for a free connection
+     */
+    public int getPendingTasksCount() {
+        return pendingTasks.size();
+    }
+
+    /**
+     * @return number of submitted tasks which are waiting or running
+     */
+    public int getSubmittedTasksCount() {
+        return submittedTasks.get();
+    }
+
+    /**
+     * @return number of tasks rejected because too many tasks had been submitted
+     */
+    public long getRejectedTasksCount() {
+        return rejectedTasks.get();
+    }
+
+    /**
+     * @return number of tasks waiting for a free connection
+     */
+    public int getWaitingTasksCount() {
+        return waitingTasks.get();
+    }
+
+    public long getAcquisitionsCount() {
+        return acquisitions.get();
+    }
+
+    /**
+     * @return number of tasks which have not got a free connection in time
+     */
+    public long getAcquireTimeoutsCount() {
+        return acquireTimeouts.get();
+    }
+
+    public long getTotalWaitTime(TimeUnit unit) {
+        return unit.convert(totalWaitTimeNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    public long getMaxWaitTime(TimeUnit unit) {
+        return unit.convert(maxWaitTimeNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return share of time each port has been used by tasks, from 0 to 1
+     */
+    public Map<Integer, Double> getPortsUtilization() {
+        Map<Integer, Double> utilization = new LinkedHashMap<>();
+        for (OfficeConnection connection : connections) {
+            utilization.put(connection.getPort(), connection.getUtilization());
+        }
+        return utilization;
     }
 
     protected void initConnections(Integer[] ports) {
@@ -193,6 +505,43 @@ public class OfficeIntegration implements OfficeIntegrationAPI {
         return new OfficeConnection(openOfficePath, port, resolveProcessManager(), this);
     }
 
+    protected static class AsyncTask {
+        protected final OfficeTask officeTask;
+        protected final int timeoutInSeconds;
+        protected final CompletableFuture<Void> result;
+        protected final long submittedAt = System.nanoTime();
+        protected volatile Future<?> execution;
+        protected volatile Thread runner;
+        protected volatile ScheduledFuture<?> timeout;
+        protected boolean finished;
+
+        public AsyncTask(OfficeTask officeTask, int timeoutInSeconds, CompletableFuture<Void> result) {
+            this.officeTask = officeTask;
+            this.timeoutInSeconds = timeoutInSeconds;
+            this.result = result;
+        }
+
+        public void cancelTimeout() {
+            ScheduledFuture<?> timeout = this.timeout;
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+        }
+
+        /**
+         * Marks the task finished by the runner or by the timeout, only the first of them completes the result.
+         * The action is run under the lock, so the connection is not released to other tasks before it is closed.
+         */
+        public synchronized boolean finish(Runnable action) {
+            if (finished) {
+                return false;
+            }
+            finished = true;
+            action.run();
+            return true;
+        }
+    }
+
     protected ProcessManager resolveProcessManager() {
         if (platformDependProcessManagement) {
             String os = System.getProperty("os.name").toLowerCase();
@@ -16,6 +16,8 @@
 
 package com.haulmont.yarg.formatters.impl.doc.connector;
 
+import java.util.concurrent.CompletableFuture;
+
 public interface OfficeIntegrationAPI {
     String getTemporaryDirPath();
 
@@ -26,4 +28,12 @@ public interface OfficeIntegrationAPI {
     Boolean isDisplayDeviceAvailable();
 
     void runTaskWithTimeout(OfficeTask officeTask, int timeoutInSeconds) throws NoFreePortsException;
+
+    /**
+     * Submits the task for asynchronous execution.
+     * Cancellation of the returned future cancels the task, the future fails if the task is not done in time.
+     */
+    default CompletableFuture<Void> submitTask(OfficeTask officeTask, int timeoutInSeconds) {
+        return CompletableFuture.runAsync(() -> runTaskWithTimeout(officeTask, timeoutInSeconds));
+    }
 }
@@ -34,46 +34,74 @@ import com.sun.star.util.XCloseable;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static com.haulmont.yarg.formatters.impl.doc.UnoConverter.as;
 
 public class OfficeResourceProvider {
+    protected static final Logger log = LoggerFactory.getLogger(OfficeResourceProvider.class);
+
     private static AtomicLong counter = new AtomicLong();
 
     protected XComponentContext xComponentContext;
     protected OfficeIntegration officeIntegration;
-    private File temporaryFile;
+    protected OfficeConnection officeConnection;
+    /**
+     * Temporary files of the loaded components, deleted when the component is closed.
+     */
+    protected final Map<XComponent, File> temporaryFiles = Collections.synchronizedMap(new IdentityHashMap<>());
+    /**
+     * Office services are looked up once per office session, they are reused by all documents of the session.
+     */
+    protected volatile XComponentLoader xComponentLoader;
+    protected volatile XDispatchHelper xDispatchHelper;
 
     public OfficeResourceProvider(XComponentContext xComponentContext, OfficeIntegration officeIntegration) throws Exception {
         this.xComponentContext = xComponentContext;
         this.officeIntegration = officeIntegration;
     }
 
+    public OfficeResourceProvider(XComponentContext xComponentContext, OfficeIntegration officeIntegration,
+                                  OfficeConnection officeConnection) throws Exception {
+        this(xComponentContext, officeIntegration);
+        this.officeConnection = officeConnection;
+    }
+
     public XComponentContext getXComponentContext() {
         return xComponentContext;
     }
 
     public XDispatchHelper getXDispatchHelper() {
-        try {
-            return createXDispatchHelper();
-        } catch (Exception e) {
-            throw new OpenOfficeException("Unable to create Open office components.", e);
+        if (xDispatchHelper == null) {
+            try {
+                xDispatchHelper = createXDispatchHelper();
+            } catch (Exception e) {
+                throw new OpenOfficeException("Unable to create Open office components.", e);
+            }
         }
+        return xDispatchHelper;
     }
 
     public XComponentLoader getXComponentLoader() {
-        try {
-            return as(XComponentLoader.class, createDesktop());
-        } catch (Exception e) {
-            throw new OpenOfficeException("Unable to create Open office components.", e);
+        if (xComponentLoader == null) {
+            try {
+                xComponentLoader = as(XComponentLoader.class, createDesktop());
+            } catch (Exception e) {
+                throw new OpenOfficeException("Unable to create Open office components.", e);
+            }
         }
+        return xComponentLoader;
     }
 
     public XComponent loadXComponent(InputStream inputStream) throws com.sun.star.lang.IllegalArgumentException, IOException {
@@ -93,8 +121,31 @@ public class OfficeResourceProvider {
         props[0].Value = Boolean.TRUE;
 
         File tempFile = createTempFile(bytes);
+        XComponent xComponent = null;
+        try {
+            xComponent = xComponentLoader.loadComponentFromURL(toURL(tempFile), "_blank", 0, props);
+        } finally {
+            if (xComponent != null) {
+                temporaryFiles.put(xComponent, tempFile);
+            } else {
+                FileUtils.deleteQuietly(tempFile);
+            }
+        }
+        return xComponent;
+    }
 
-        return xComponentLoader.loadComponentFromURL(toURL(tempFile), "_blank", 0, props);
+    /**
+     * Loads the document from memory without writing it to a temporary file.
+     * If office could not load the document from the stream, it is loaded from a temporary file.
+     */
+    public XComponent loadXComponentFromMemory(byte[] bytes) throws com.sun.star.lang.IllegalArgumentException, IOException {
+        XComponent xComponent = null;
+        try {
+            xComponent = loadXComponent((XInputStream) new OfficeInputStream(bytes));
+        } catch (com.sun.star.lang.IllegalArgumentException | IOException e) {
+            log.debug("Unable to load document from stream, it will be loaded from file", e);
+        }
+        return xComponent != null ? xComponent : loadXComponent(bytes);
     }
 
     public XComponent loadXComponent(XInputStream inputStream) throws com.sun.star.lang.IllegalArgumentException, IOException {
@@ -124,8 +175,18 @@ public class OfficeResourceProvider {
             xCloseable.close(false);
         } catch (com.sun.star.util.CloseVetoException e) {
             xComponent.dispose();
+        } finally {
+            FileUtils.deleteQuietly(temporaryFiles.remove(xComponent));
+        }
+    }
+
+    /**
+     * Closes the office connection of the session from another thread, so office calls of a hanging task fail.
+     */
+    public void closeConnection() {
+        if (officeConnection != null) {
+            officeConnection.close();
         }
-        FileUtils.deleteQuietly(temporaryFile);
     }
 
     public void saveXComponent(XComponent xComponent, XOutputStream xOutputStream, String filterName) throws IOException {
@@ -158,6 +219,7 @@ public class OfficeResourceProvider {
         try {
             String tempFileName = String.format("document%d", counter.incrementAndGet());
             String tempFileExt = ".tmp";
+            File temporaryFile;
             if (StringUtils.isNotBlank(officeIntegration.getTemporaryDirPath())) {
                 Path tempDir = Paths.get(officeIntegration.getTemporaryDirPath());
                 tempDir.toFile().mkdirs();
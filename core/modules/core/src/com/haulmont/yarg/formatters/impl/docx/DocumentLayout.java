@@ -0,0 +1,217 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.haulmont.yarg.formatters.impl.docx;
+
+import com.haulmont.yarg.formatters.impl.DocxFormatterDelegate;
+import org.docx4j.TraversalUtil;
+import org.docx4j.XmlUtils;
+import org.docx4j.openpackaging.packages.WordprocessingMLPackage;
+import org.docx4j.openpackaging.parts.Part;
+import org.docx4j.wml.Tbl;
+import org.docx4j.wml.Text;
+import org.docx4j.wml.Tr;
+import org.jvnet.jaxb2_commons.ppp.Child;
+
+import java.util.*;
+
+/**
+ * Positions of the template elements processed on rendering: tables with bands and texts with aliases.
+ * The layout is collected once from the template after aliases split into several runs are merged,
+ * and then applied to each package loaded from the saved preprocessed template, so the document is not traversed again.
+ * Positions are child index paths from the document part, children are taken by {@link TraversalUtil#getChildrenImpl(Object)}.
+ */
+public class DocumentLayout {
+    protected final List<TableLayout> tables = new ArrayList<>();
+    protected final List<ElementPosition> texts = new ArrayList<>();
+
+    /**
+     * Collects tables and texts of the document, merging runs of the aliases.
+     *
+     * @return layout or null if positions of some elements could not be determined
+     */
+    public static DocumentLayout compile(DocxFormatterDelegate docxFormatter, WordprocessingMLPackage wordprocessingMLPackage) {
+        DocumentWrapper documentWrapper = new DocumentWrapper(docxFormatter, wordprocessingMLPackage, true);
+        PositionCollector positionCollector = new PositionCollector();
+        DocumentLayout layout = new DocumentLayout();
+
+        for (TableManager table : documentWrapper.getTables()) {
+            ElementPosition tablePosition = positionCollector.getPosition(table.getTable());
+            ElementPosition firstRowPosition = positionCollector.getPosition(table.getFirstRow());
+            if (tablePosition == null || firstRowPosition == null) {
+                return null;
+            }
+
+            TableLayout tableLayout = new TableLayout(tablePosition, firstRowPosition, table.getBandName());
+            for (Map.Entry<Tr, List<String>> entry : table.getRowAliases().entrySet()) {
+                ElementPosition rowPosition = positionCollector.getPosition(entry.getKey());
+                if (rowPosition == null) {
+                    return null;
+                }
+                tableLayout.rowAliases.put(rowPosition, entry.getValue());
+            }
+            layout.tables.add(tableLayout);
+        }
+
+        for (TextWrapper text : documentWrapper.getTexts()) {
+            ElementPosition textPosition = positionCollector.getPosition(text.text);
+            if (textPosition == null) {
+                return null;
+            }
+            layout.texts.add(textPosition);
+        }
+
+        return layout;
+    }
+
+    /**
+     * Resolves the layout in the package loaded from the preprocessed template.
+     *
+     * @return document wrapper or null if the package does not match the layout
+     */
+    public DocumentWrapper createDocumentWrapper(DocxFormatterDelegate docxFormatter, WordprocessingMLPackage wordprocessingMLPackage) {
+        Map<String, Part> parts = new HashMap<>();
+        for (Part part : wordprocessingMLPackage.getParts().getParts().values()) {
+            parts.put(part.getPartName().getName(), part);
+        }
+
+        Set<TableManager> tableManagers = new LinkedHashSet<>();
+        for (TableLayout tableLayout : tables) {
+            Tbl table = tableLayout.tablePosition.resolve(parts, Tbl.class);
+            Tr firstRow = tableLayout.firstRowPosition.resolve(parts, Tr.class);
+            if (table == null || firstRow == null) {
+                return null;
+            }
+
+            TableManager tableManager = new TableManager(docxFormatter, table);
+            tableManager.bandName = tableLayout.bandName;
+            tableManager.firstRow = firstRow;
+            for (Map.Entry<ElementPosition, List<String>> entry : tableLayout.rowAliases.entrySet()) {
+                Tr row = entry.getKey().resolve(parts, Tr.class);
+                if (row == null) {
+                    return null;
+                }
+                if (tableManager.rowWithAliases == null && tableManager.isRowWithAliases(entry.getValue())) {
+                    tableManager.rowWithAliases = row;
+                }
+            }
+            tableManagers.add(tableManager);
+        }
+
+        Set<TextWrapper> textWrappers = new HashSet<>();
+        for (ElementPosition textPosition : texts) {
+            Text text = textPosition.resolve(parts, Text.class);
+            if (text == null) {
+                return null;
+            }
+            textWrappers.add(new TextWrapper(docxFormatter, text));
+        }
+
+        return new DocumentWrapper(docxFormatter, wordprocessingMLPackage, tableManagers, textWrappers);
+    }
+
+    protected static class TableLayout {
+        protected final ElementPosition tablePosition;
+        protected final ElementPosition firstRowPosition;
+        protected final String bandName;
+        protected final Map<ElementPosition, List<String>> rowAliases = new LinkedHashMap<>();
+
+        protected TableLayout(ElementPosition tablePosition, ElementPosition firstRowPosition, String bandName) {
+            this.tablePosition = tablePosition;
+            this.firstRowPosition = firstRowPosition;
+            this.bandName = bandName;
+        }
+    }
+
+    protected static class ElementPosition {
+        protected final String partName;
+        protected final int[] path;
+
+        protected ElementPosition(String partName, int[] path) {
+            this.partName = partName;
+            this.path = path;
+        }
+
+        /**
+         * Finds the element by the path and sets missing parents on the way, as a traversal would do.
+         * Existing parents are kept, e.g. the body for the children of the document part.
+         */
+        protected <T> T resolve(Map<String, Part> parts, Class<T> elementClass) {
+            Object current = parts.get(partName);
+            if (current == null) {
+                return null;
+            }
+
+            for (int index : path) {
+                List<Object> children = TraversalUtil.getChildrenImpl(current);
+                if (children == null || index >= children.size()) {
+                    return null;
+                }
+                Object child = XmlUtils.unwrap(children.get(index));
+                if (child instanceof Child && ((Child) child).getParent() == null) {
+                    ((Child) child).setParent(current);
+                }
+                current = child;
+            }
+
+            return elementClass.isInstance(current) ? elementClass.cast(current) : null;
+        }
+    }
+
+    /**
+     * Determines positions by parents of the elements, which are set by the traversal collecting the elements.
+     */
+    protected static class PositionCollector {
+        protected Map<Object, Map<Object, Integer>> childIndexes = new IdentityHashMap<>();
+
+        protected ElementPosition getPosition(Object element) {
+            Deque<Integer> path = new ArrayDeque<>();
+            Object current = element;
+            while (!(current instanceof Part)) {
+                if (!(current instanceof Child)) {
+                    return null;
+                }
+                Object parent = XmlUtils.unwrap(((Child) current).getParent());
+                Integer index = parent != null ? getChildIndexes(parent).get(current) : null;
+                if (index == null) {
+                    return null;
+                }
+                path.push(index);
+                current = parent;
+            }
+
+            int[] pathArray = new int[path.size()];
+            int i = 0;
+            for (Integer index : path) {
+                pathArray[i++] = index;
+            }
+            return new ElementPosition(((Part) current).getPartName().getName(), pathArray);
+        }
+
+        protected Map<Object, Integer> getChildIndexes(Object parent) {
+            return childIndexes.computeIfAbsent(parent, key -> {
+                Map<Object, Integer> indexes = new IdentityHashMap<>();
+                List<Object> children = TraversalUtil.getChildrenImpl(key);
+                if (children != null) {
+                    for (int i = 0; i < children.size(); i++) {
+                        indexes.putIfAbsent(XmlUtils.unwrap(children.get(i)), i);
+                    }
+                }
+                return indexes;
+            });
+        }
+    }
+}
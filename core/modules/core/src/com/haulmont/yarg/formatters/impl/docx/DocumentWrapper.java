@@ -32,14 +32,35 @@ public class DocumentWrapper {
     protected MainDocumentPart mainDocumentPart;
     protected Set<TableManager> tables;
     protected Set<TextWrapper> texts;
+    protected boolean collectAllTableRows;
 
     public DocumentWrapper(DocxFormatterDelegate docxFormatter, WordprocessingMLPackage wordprocessingMLPackage) {
+        this(docxFormatter, wordprocessingMLPackage, false);
+    }
+
+    /**
+     * @param collectAllTableRows if true, aliases of all table rows are collected (used for template compilation)
+     */
+    public DocumentWrapper(DocxFormatterDelegate docxFormatter, WordprocessingMLPackage wordprocessingMLPackage, boolean collectAllTableRows) {
         this.docxFormatter = docxFormatter;
         this.wordprocessingMLPackage = wordprocessingMLPackage;
         this.mainDocumentPart = wordprocessingMLPackage.getMainDocumentPart();
+        this.collectAllTableRows = collectAllTableRows;
         collectData();
     }
 
+    /**
+     * Creates wrapper for already collected tables and texts, the document is not traversed.
+     */
+    protected DocumentWrapper(DocxFormatterDelegate docxFormatter, WordprocessingMLPackage wordprocessingMLPackage,
+                              Set<TableManager> tables, Set<TextWrapper> texts) {
+        this.docxFormatter = docxFormatter;
+        this.wordprocessingMLPackage = wordprocessingMLPackage;
+        this.mainDocumentPart = wordprocessingMLPackage.getMainDocumentPart();
+        this.tables = tables;
+        this.texts = texts;
+    }
+
     protected void collectDataFromObjects(Object... objects) {
         for (Object object : objects) {
             if (object != null) {
@@ -71,7 +92,7 @@ public class DocumentWrapper {
     }
 
     protected void collectTables() {
-        TableCollector collectTablesCallback = new TableCollector(docxFormatter);
+        TableCollector collectTablesCallback = new TableCollector(docxFormatter, collectAllTableRows);
         new TraversalUtil(mainDocumentPart, collectTablesCallback);
         tables = collectTablesCallback.tableManagers;
     }
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.haulmont.yarg.formatters.impl.docx;
+
+import org.docx4j.TraversalUtil;
+import org.docx4j.XmlUtils;
+import org.docx4j.convert.in.xhtml.XHTMLImporterImpl;
+import org.docx4j.openpackaging.exceptions.Docx4JException;
+import org.docx4j.openpackaging.packages.WordprocessingMLPackage;
+import org.docx4j.wml.*;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Converts HTML alt chunks of a document to WordML content.
+ * One importer is used for all chunks of the document, so its style and font setup is done once.
+ * Results are cached by HTML, identical chunks get copies of the first conversion result
+ * unless it contains elements that have to be unique in the document (numbering, bookmarks, drawings).
+ * <p>
+ * Conversion changes the package (numbering, images, relationships), so chunks are converted one by one,
+ * only preprocessing of the HTML is done in parallel if enabled.
+ */
+public class HtmlChunkConverter {
+    protected final WordprocessingMLPackage wordprocessingMLPackage;
+    protected final HtmlImportProcessor htmlImportProcessor;
+    protected final boolean parallelProcessing;
+
+    protected XHTMLImporterImpl importer;
+    protected Map<String, String> processedHtml = new HashMap<>();
+    protected Map<String, List<Object>> results = new HashMap<>();
+
+    public HtmlChunkConverter(WordprocessingMLPackage wordprocessingMLPackage,
+                              HtmlImportProcessor htmlImportProcessor, boolean parallelProcessing) {
+        this.wordprocessingMLPackage = wordprocessingMLPackage;
+        this.htmlImportProcessor = htmlImportProcessor;
+        this.parallelProcessing = parallelProcessing;
+    }
+
+    /**
+     * Preprocesses HTML of the chunks which are going to be converted, each distinct HTML once.
+     */
+    public void processHtml(Collection<String> sources) {
+        Set<String> notProcessed = sources.stream()
+                .filter(source -> !processedHtml.containsKey(source))
+                .collect(Collectors.toSet());
+        if (notProcessed.size() > 1 && parallelProcessing) {
+            processedHtml.putAll(notProcessed.parallelStream()
+                    .collect(Collectors.toMap(Function.identity(), htmlImportProcessor::processHtml)));
+        } else {
+            for (String source : notProcessed) {
+                processedHtml.put(source, htmlImportProcessor.processHtml(source));
+            }
+        }
+    }
+
+    /**
+     * @return content to be put into the document instead of the chunk, the list is not shared
+     */
+    public List<Object> convert(String source) throws Docx4JException {
+        String html = processedHtml.get(source);
+        if (html == null) {
+            html = htmlImportProcessor.processHtml(source);
+            processedHtml.put(source, html);
+        }
+
+        List<Object> cachedResult = results.get(html);
+        if (cachedResult != null) {
+            List<Object> result = new ArrayList<>(cachedResult.size());
+            for (Object element : cachedResult) {
+                result.add(XmlUtils.deepCopy(element));
+            }
+            return result;
+        }
+
+        List<Object> result = convertHtml(html);
+        if (isReusable(result)) {
+            List<Object> copy = new ArrayList<>(result.size());
+            for (Object element : result) {
+                copy.add(XmlUtils.deepCopy(element));
+            }
+            results.put(html, copy);
+        }
+        return result;
+    }
+
+    protected List<Object> convertHtml(String html) throws Docx4JException {
+        if (importer == null) {
+            importer = new XHTMLImporterImpl(wordprocessingMLPackage);
+        }
+
+        try {
+            //importer collects the result in its own body, it is cleared to be ready for the next chunk
+            List<Object> importedContent = importer.convert(html, null);
+            List<Object> result = new ArrayList<>(importedContent);
+            importedContent.clear();
+            return result;
+        } catch (Docx4JException | RuntimeException e) {
+            //state of the importer is unknown after failure
+            importer = null;
+            throw e;
+        }
+    }
+
+    protected boolean isReusable(List<Object> result) {
+        UniqueElementFinder finder = new UniqueElementFinder();
+        new TraversalUtil(result, finder);
+        return !finder.found;
+    }
+
+    protected static class UniqueElementFinder extends TraversalUtil.CallbackImpl {
+        protected boolean found;
+
+        @Override
+        public List<Object> apply(Object object) {
+            if (object instanceof P) {
+                PPr pPr = ((P) object).getPPr();
+                found |= pPr != null && pPr.getNumPr() != null;
+            } else {
+                found |= object instanceof CTBookmark || object instanceof CTMarkupRange
+                        || object instanceof Drawing || object instanceof Pict;
+            }
+            return null;
+        }
+
+        @Override
+        public boolean shouldTraverse(Object object) {
+            return !found;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.haulmont.yarg.formatters.impl.docx;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.haulmont.yarg.exception.ReportingInterruptedException;
+import org.apache.commons.io.IOUtils;
+import org.apache.fop.apps.FopConfParser;
+import org.apache.fop.apps.FopFactory;
+import org.docx4j.Docx4J;
+import org.docx4j.convert.out.FOSettings;
+import org.docx4j.fonts.IdentityPlusMapper;
+import org.docx4j.fonts.Mapper;
+import org.docx4j.fonts.fop.util.FopConfigUtil;
+import org.docx4j.openpackaging.exceptions.Docx4JException;
+import org.docx4j.openpackaging.packages.WordprocessingMLPackage;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Converts docx documents to PDF with docx4j and Apache FOP, keeping the expensive setup between conversions.
+ * The font mapper is created once, so physical fonts are discovered once, and FOP factories are cached
+ * by their configuration, which depends only on the fonts used by the document.
+ * Conversions run in the calling thread, the number of simultaneous conversions is bounded
+ * as each of them keeps the whole layout of the document in memory.
+ */
+public class PdfConverter {
+    public static final String FOP_FACTORY_SETTING = "fopFactory";
+    public static final int FOP_FACTORIES_CACHE_SIZE = 16;
+
+    protected final Semaphore permits;
+    protected final int maxConcurrentConversions;
+    protected final Cache<String, FopFactory> fopFactories = CacheBuilder.newBuilder()
+            .maximumSize(FOP_FACTORIES_CACHE_SIZE)
+            .build();
+    protected volatile Mapper fontMapper;
+
+    protected final AtomicLong conversions = new AtomicLong();
+    protected final AtomicLong failedConversions = new AtomicLong();
+    protected final AtomicLong conversionTimeNanos = new AtomicLong();
+    protected final AtomicLong waitTimeNanos = new AtomicLong();
+    protected final AtomicLong createdFopFactories = new AtomicLong();
+
+    public PdfConverter() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public PdfConverter(int maxConcurrentConversions) {
+        if (maxConcurrentConversions <= 0) {
+            throw new IllegalArgumentException("Max concurrent conversions should be positive");
+        }
+        this.maxConcurrentConversions = maxConcurrentConversions;
+        this.permits = new Semaphore(maxConcurrentConversions, true);
+    }
+
+    public void convertToPdf(WordprocessingMLPackage wordprocessingMLPackage, OutputStream outputStream) throws Docx4JException {
+        if (!Docx4J.pdfViaFO()) {
+            Docx4J.toPDF(wordprocessingMLPackage, outputStream);
+            return;
+        }
+
+        long waitStart = System.nanoTime();
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ReportingInterruptedException("PDF conversion interrupted");
+        }
+
+        long start = System.nanoTime();
+        waitTimeNanos.addAndGet(start - waitStart);
+        boolean success = false;
+        try {
+            FOSettings foSettings = createFOSettings(wordprocessingMLPackage);
+            Docx4J.toFO(foSettings, outputStream, Docx4J.FLAG_NONE);
+            success = true;
+        } finally {
+            permits.release();
+            conversions.incrementAndGet();
+            conversionTimeNanos.addAndGet(System.nanoTime() - start);
+            if (!success) {
+                failedConversions.incrementAndGet();
+            }
+        }
+    }
+
+    protected FOSettings createFOSettings(WordprocessingMLPackage wordprocessingMLPackage) throws Docx4JException {
+        try {
+            wordprocessingMLPackage.setFontMapper(getFontMapper(), true);
+        } catch (Exception e) {
+            throw new Docx4JException("An error occurred while mapping fonts of the document", e);
+        }
+
+        String configuration = FopConfigUtil.createDefaultConfiguration(getFontMapper(),
+                wordprocessingMLPackage.getMainDocumentPart().fontsInUse());
+
+        FOSettings foSettings = Docx4J.createFOSettings();
+        foSettings.setWmlPackage(wordprocessingMLPackage);
+        foSettings.setApacheFopMime(FOSettings.MIME_PDF);
+        foSettings.setApacheFopConfiguration(configuration);
+        foSettings.getSettings().put(FOP_FACTORY_SETTING, getFopFactory(configuration));
+        return foSettings;
+    }
+
+    protected Mapper getFontMapper() {
+        if (fontMapper == null) {
+            synchronized (this) {
+                if (fontMapper == null) {
+                    fontMapper = new IdentityPlusMapper();
+                }
+            }
+        }
+        return fontMapper;
+    }
+
+    protected FopFactory getFopFactory(String configuration) throws Docx4JException {
+        try {
+            return fopFactories.get(configuration, () -> createFopFactory(configuration));
+        } catch (ExecutionException e) {
+            throw new Docx4JException("An error occurred while creating FOP factory", e.getCause() instanceof Exception
+                    ? (Exception) e.getCause() : e);
+        }
+    }
+
+    protected FopFactory createFopFactory(String configuration) throws Exception {
+        try (InputStream configurationStream = IOUtils.toInputStream(configuration, StandardCharsets.UTF_8)) {
+            //the same way as docx4j creates the factory for each conversion
+            FopFactory fopFactory = new FopConfParser(configurationStream, new URI("http://dummy.domain"))
+                    .getFopFactoryBuilder()
+                    .build();
+            createdFopFactories.incrementAndGet();
+            return fopFactory;
+        }
+    }
+
+    public int getMaxConcurrentConversions() {
+        return maxConcurrentConversions;
+    }
+
+    public int getActiveConversions() {
+        return maxConcurrentConversions - permits.availablePermits();
+    }
+
+    /**
+     * @return estimated number of threads waiting for conversion
+     */
+    public int getWaitingConversions() {
+        return permits.getQueueLength();
+    }
+
+    public long getConversions() {
+        return conversions.get();
+    }
+
+    public long getFailedConversions() {
+        return failedConversions.get();
+    }
+
+    public long getConversionTime(TimeUnit unit) {
+        return unit.convert(conversionTimeNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    public long getWaitTime(TimeUnit unit) {
+        return unit.convert(waitTimeNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    public long getCreatedFopFactories() {
+        return createdFopFactories.get();
+    }
+
+    public long getCachedFopFactories() {
+        return fopFactories.size();
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.haulmont.yarg.formatters.impl.docx;
+
+import com.haulmont.yarg.exception.ReportFormattingException;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.DeferredFileOutputStream;
+import org.docx4j.XmlUtils;
+import org.docx4j.jaxb.Context;
+import org.docx4j.openpackaging.parts.relationships.Namespaces;
+import org.docx4j.wml.CTBookmark;
+import org.docx4j.wml.Tr;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.namespace.QName;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Table rows serialized as soon as they are filled, so tables with a huge number of rows are not kept as JAXB objects.
+ * Rows are kept in memory up to the threshold and then in a temporary file.
+ * In the document the rows are represented by a placeholder bookmark,
+ * which is replaced with the rows when the document is saved by {@link StreamingZipPartStore}.
+ */
+public class StreamedRows implements Closeable {
+    public static final int MEMORY_THRESHOLD = 4 * 1024 * 1024;
+
+    protected static final Pattern NAMESPACE_DECLARATION_PATTERN = Pattern.compile("\\s+xmlns:([\\w.\\-]+)=\"([^\"]*)\"");
+
+    protected final String name = "_yargRows" + UUID.randomUUID().toString().replace("-", "");
+    protected final DeferredFileOutputStream rows = new DeferredFileOutputStream(MEMORY_THRESHOLD, "yarg-docx-rows", ".xml", null);
+    protected final Map<String, String> namespaces = new LinkedHashMap<>();
+    protected int rowCount;
+
+    /**
+     * Serializes the row. Namespace declarations are removed from the row,
+     * they are declared on the document element instead.
+     */
+    public void addRow(Tr row) {
+        String rowXml = XmlUtils.marshaltoString(row, true, false);
+        Matcher matcher = NAMESPACE_DECLARATION_PATTERN.matcher(rowXml);
+        matcher.region(0, rowXml.indexOf('>'));
+
+        StringBuilder result = new StringBuilder(rowXml.length());
+        int position = 0;
+        while (matcher.find()) {
+            namespaces.putIfAbsent(matcher.group(1), matcher.group(2));
+            result.append(rowXml, position, matcher.start());
+            position = matcher.end();
+        }
+        result.append(rowXml, position, rowXml.length());
+
+        try {
+            rows.write(result.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new ReportFormattingException("An error occurred while writing table row", e);
+        }
+        rowCount++;
+    }
+
+    /**
+     * @return bookmark to be put into the table instead of the rows
+     */
+    public JAXBElement<CTBookmark> createPlaceholder() {
+        CTBookmark bookmark = Context.getWmlObjectFactory().createCTBookmark();
+        bookmark.setId(BigInteger.ZERO);
+        bookmark.setName(name);
+        return new JAXBElement<>(new QName(Namespaces.NS_WORD12, "bookmarkStart"), CTBookmark.class, bookmark);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return namespaces used by the rows, by prefix
+     */
+    public Map<String, String> getNamespaces() {
+        return namespaces;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public void writeTo(OutputStream outputStream) throws IOException {
+        rows.close();
+        if (rows.isInMemory()) {
+            outputStream.write(rows.getData());
+        } else {
+            Files.copy(rows.getFile().toPath(), outputStream);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        rows.close();
+        if (!rows.isInMemory()) {
+            FileUtils.deleteQuietly(rows.getFile());
+        }
+    }
+}
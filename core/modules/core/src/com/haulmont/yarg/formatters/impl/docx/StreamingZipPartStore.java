@@ -0,0 +1,134 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.haulmont.yarg.formatters.impl.docx;
+
+import org.docx4j.openpackaging.exceptions.Docx4JException;
+import org.docx4j.openpackaging.exceptions.InvalidFormatException;
+import org.docx4j.openpackaging.io3.stores.ZipPartStore;
+import org.docx4j.openpackaging.packages.WordprocessingMLPackage;
+import org.docx4j.openpackaging.parts.JaxbXmlPart;
+import org.docx4j.openpackaging.parts.WordprocessingML.MainDocumentPart;
+
+import javax.xml.bind.JAXBException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.regex.Matcher;
+
+/**
+ * Part store which saves the package writing streamed table rows into the main document part instead of their placeholders.
+ * Only the document without the streamed rows is marshalled, the rows are copied to the zip as they were serialized.
+ */
+public class StreamingZipPartStore extends ZipPartStore {
+    protected final MainDocumentPart mainDocumentPart;
+    protected final List<StreamedRows> streamedRows;
+
+    public StreamingZipPartStore(WordprocessingMLPackage wordprocessingMLPackage, List<StreamedRows> streamedRows) {
+        this.mainDocumentPart = wordprocessingMLPackage.getMainDocumentPart();
+        this.streamedRows = streamedRows;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void saveJaxbXmlPart(JaxbXmlPart part) throws Docx4JException {
+        if (part != mainDocumentPart || streamedRows.isEmpty()) {
+            super.saveJaxbXmlPart(part);
+        } else {
+            super.saveJaxbXmlPart(new StreamedDocumentPart());
+        }
+    }
+
+    protected void writeDocument(String document, OutputStream out) throws IOException {
+        NavigableMap<Integer, StreamedRows> rowsByPosition = new TreeMap<>();
+        for (StreamedRows rows : streamedRows) {
+            int namePosition = document.indexOf("\"" + rows.getName() + "\"");
+            if (namePosition >= 0) {
+                rowsByPosition.put(document.lastIndexOf('<', namePosition), rows);
+            }
+        }
+
+        int rootStart = document.indexOf('<', document.startsWith("<?") ? document.indexOf("?>") : 0);
+        int rootEnd = document.indexOf('>', rootStart);
+        write(out, document, 0, rootEnd);
+        write(out, getMissingNamespaceDeclarations(document.substring(rootStart, rootEnd)));
+
+        int position = rootEnd;
+        for (Map.Entry<Integer, StreamedRows> entry : rowsByPosition.entrySet()) {
+            write(out, document, position, entry.getKey());
+            entry.getValue().writeTo(out);
+            position = document.indexOf("/>", entry.getKey()) + 2;
+        }
+        write(out, document, position, document.length());
+    }
+
+    /**
+     * Namespace declarations are removed from the streamed rows, so all their namespaces are declared on the root element.
+     */
+    protected String getMissingNamespaceDeclarations(String rootElement) {
+        Set<String> declaredPrefixes = new HashSet<>();
+        Matcher matcher = StreamedRows.NAMESPACE_DECLARATION_PATTERN.matcher(rootElement);
+        while (matcher.find()) {
+            declaredPrefixes.add(matcher.group(1));
+        }
+
+        StringBuilder declarations = new StringBuilder();
+        for (StreamedRows rows : streamedRows) {
+            for (Map.Entry<String, String> namespace : rows.getNamespaces().entrySet()) {
+                if (declaredPrefixes.add(namespace.getKey())) {
+                    declarations.append(" xmlns:").append(namespace.getKey())
+                            .append("=\"").append(namespace.getValue()).append('"');
+                }
+            }
+        }
+        return declarations.toString();
+    }
+
+    protected void write(OutputStream out, String document, int start, int end) throws IOException {
+        write(out, document.substring(start, end));
+    }
+
+    protected void write(OutputStream out, String value) throws IOException {
+        out.write(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Stands for the main document part when it is saved, the store writes the part to the zip entry with its name.
+     */
+    protected class StreamedDocumentPart extends JaxbXmlPart<Object> {
+        public StreamedDocumentPart() throws InvalidFormatException {
+            super(mainDocumentPart.getPartName());
+        }
+
+        @Override
+        public boolean isUnmarshalled() {
+            return true;
+        }
+
+        @Override
+        public void marshal(OutputStream out) throws JAXBException {
+            ByteArrayOutputStream document = new ByteArrayOutputStream();
+            mainDocumentPart.marshal(document);
+            try {
+                writeDocument(new String(document.toByteArray(), StandardCharsets.UTF_8), out);
+            } catch (IOException e) {
+                throw new JAXBException("An error occurred while writing document with streamed rows", e);
+            }
+        }
+    }
+}
@@ -34,8 +34,18 @@ public class TableCollector extends TraversalUtil.CallbackImpl {
     protected Stack<TableManager> currentTables = new Stack<TableManager>();
     protected Set<TableManager> tableManagers = new LinkedHashSet<TableManager>();
 
+    protected boolean collectAllRows;
+
     public TableCollector(DocxFormatterDelegate docxFormatter) {this.docxFormatter = docxFormatter;}
 
+    /**
+     * @param collectAllRows if true, aliases of all table rows are collected into {@link TableManager#getRowAliases()}
+     */
+    public TableCollector(DocxFormatterDelegate docxFormatter, boolean collectAllRows) {
+        this.docxFormatter = docxFormatter;
+        this.collectAllRows = collectAllRows;
+    }
+
     public List<Object> apply(Object object) {
         final TableManager currentTable = !currentTables.isEmpty() ? currentTables.peek() : null;
         if (currentTable == null || currentTable.isSkipIt()) {
@@ -57,26 +67,15 @@ public class TableCollector extends TraversalUtil.CallbackImpl {
                 }
             }
 
-            if (currentTable.rowWithAliases == null) {
+            if (currentTable.rowWithAliases == null || collectAllRows) {
                 RegexpCollectionFinder<P> aliasFinder = new RegexpCollectionFinder<P>(docxFormatter, AbstractFormatter.UNIVERSAL_ALIAS_PATTERN, P.class);
                 new TraversalUtil(currentRow, aliasFinder);
                 List<String> foundAliases = aliasFinder.getValues();
                 if (!foundAliases.isEmpty()) {
-                    boolean fromCurrentBand = false;
-                    for (String foundAlias : foundAliases) {
-                        String parameterName = docxFormatter.unwrapParameterName(foundAlias);
-                        if (parameterName != null) {
-                            String[] parts = parameterName.split("\\.");
-                            if (parts.length == 1) {
-                                fromCurrentBand = true;
-                                break;
-                            } else if (docxFormatter.findBandByPath(parts[0]) == null) {
-                                fromCurrentBand = true;
-                                break;
-                            }
-                        }
+                    if (collectAllRows) {
+                        currentTable.rowAliases.put(currentRow, foundAliases);
                     }
-                    if (fromCurrentBand) {
+                    if (currentTable.rowWithAliases == null && currentTable.isRowWithAliases(foundAliases)) {
                         currentTable.rowWithAliases = currentRow;
                     }
                 }
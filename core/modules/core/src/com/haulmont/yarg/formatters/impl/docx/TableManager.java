@@ -18,13 +18,25 @@ package com.haulmont.yarg.formatters.impl.docx;
 
 import com.haulmont.yarg.formatters.impl.AbstractFormatter;
 import com.haulmont.yarg.formatters.impl.DocxFormatterDelegate;
+import com.haulmont.yarg.exception.ReportFormattingException;
 import com.haulmont.yarg.structure.BandData;
 import org.docx4j.TraversalUtil;
 import org.docx4j.XmlUtils;
+import org.docx4j.jaxb.Context;
+import org.docx4j.jaxb.JaxbValidationEventHandler;
 import org.docx4j.wml.Tbl;
 import org.docx4j.wml.Text;
 import org.docx4j.wml.Tr;
-
+import org.w3c.dom.Document;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 
 import static org.apache.commons.lang3.StringUtils.isBlank;
@@ -37,6 +49,7 @@ public class TableManager {
     protected Tr rowWithAliases = null;
     protected String bandName = null;
     protected boolean skipIt = false;
+    protected Map<Tr, List<String>> rowAliases = new LinkedHashMap<>();
 
     TableManager(DocxFormatterDelegate docxFormatter, Tbl tbl) {
         this.docxFormatter = docxFormatter;
@@ -57,6 +70,58 @@ public class TableManager {
         return copiedRow;
     }
 
+    /**
+     * Replaces the row with its copies filled from each of the bands.
+     * The row is serialized once and all copies are put into the table in a single operation.
+     */
+    public void fillRowsFromBands(Tr row, List<BandData> bands) {
+        List<Object> rows = new ArrayList<>(bands.size());
+        fillRowCopies(row, bands, rows::add);
+        replaceRow(row, rows);
+    }
+
+    /**
+     * Replaces the row with its copies filled from each of the bands, each copy is written to the streamed rows
+     * as soon as it is filled. The row is replaced with the placeholder of the streamed rows.
+     */
+    public void streamRowsFromBands(Tr row, List<BandData> bands, StreamedRows streamedRows) {
+        fillRowCopies(row, bands, newRow -> {
+            docxFormatter.convertAltChunks(newRow.getContent());
+            streamedRows.addRow(newRow);
+        });
+        replaceRow(row, Collections.singletonList(streamedRows.createPlaceholder()));
+    }
+
+    protected void fillRowCopies(Tr row, List<BandData> bands, Consumer<Tr> rowConsumer) {
+        Tr prototype = XmlUtils.deepCopy(row);
+        new TraversalUtil(prototype, INVARIANTS_SETTER);//merge aliases split into several runs once for all copies
+        Document serializedPrototype = XmlUtils.marshaltoW3CDomDocument(prototype);
+
+        try {
+            Unmarshaller unmarshaller = Context.jc.createUnmarshaller();
+            unmarshaller.setEventHandler(new JaxbValidationEventHandler());
+            for (BandData band : bands) {
+                docxFormatter.checkThreadInterrupted();
+                Tr newRow = (Tr) XmlUtils.unwrap(unmarshaller.unmarshal(serializedPrototype));
+                newRow.setParent(table);
+                if (controlTable()) {
+                    new TraversalUtil(newRow, INVARIANTS_SETTER);//nested tables are not traversed on filling
+                }
+                fillRowFromBand(newRow, band);
+                rowConsumer.accept(newRow);
+            }
+        } catch (JAXBException e) {
+            throw new ReportFormattingException("An error occurred while copying table row", e);
+        }
+    }
+
+    protected void replaceRow(Tr row, List<Object> rows) {
+        List<Object> content = table.getContent();
+        int index = content.indexOf(row);
+        content.remove(index);
+        content.addAll(index, rows);
+    }
+
     public void fillRowFromBand(Tr row, final BandData band) {
         new TraversalUtil(row, new AliasVisitor(docxFormatter) {
             @Override
@@ -105,6 +170,24 @@ public class TableManager {
         });
     }
 
+    /**
+     * @return true if the row with the aliases should be filled from the table band
+     */
+    public boolean isRowWithAliases(List<String> foundAliases) {
+        for (String foundAlias : foundAliases) {
+            String parameterName = docxFormatter.unwrapParameterName(foundAlias);
+            if (parameterName != null) {
+                String[] parts = parameterName.split("\\.");
+                if (parts.length == 1) {
+                    return true;
+                } else if (docxFormatter.findBandByPath(parts[0]) == null) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     public Tbl getTable() {
         return table;
     }
@@ -117,6 +200,13 @@ public class TableManager {
         return rowWithAliases;
     }
 
+    /**
+     * @return aliases of the table rows, filled only if the table was collected with all rows
+     */
+    public Map<Tr, List<String>> getRowAliases() {
+        return rowAliases;
+    }
+
     public String getBandName() {
         return bandName;
     }
@@ -44,7 +44,7 @@ public class TextWrapper {
             AbstractFormatter.BandPathAndParameterName bandAndParameter = docxFormatter.separateBandNameAndParameterName(alias);
 
             if (isBlank(bandAndParameter.getBandPath()) || isBlank(bandAndParameter.getParameterName())) {
-                if (alias.matches("[A-z0-9_\\.]+?")) {//skip aliases in tables
+                if (AbstractFormatter.TABLE_ALIAS_PATTERN.matcher(alias).matches()) {//skip aliases in tables
                     continue;
                 }
 
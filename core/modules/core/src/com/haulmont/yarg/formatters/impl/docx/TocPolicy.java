@@ -0,0 +1,37 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.haulmont.yarg.formatters.impl.docx;
+
+/**
+ * Defines how the table of contents of a docx document is updated after the document is filled.
+ */
+public enum TocPolicy {
+    /**
+     * Table of contents is left as it is in the template, e.g. to be updated by the office on conversion
+     */
+    NONE,
+
+    /**
+     * Entries are regenerated without page numbers, the document layout is not computed
+     */
+    ENTRIES_ONLY,
+
+    /**
+     * Entries are regenerated with page numbers
+     */
+    FULL
+}
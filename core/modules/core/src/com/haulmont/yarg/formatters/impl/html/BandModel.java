@@ -0,0 +1,92 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.haulmont.yarg.formatters.impl.html;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.haulmont.yarg.structure.BandData;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Template model of a band: map with "fields" - data of the band and "bands" - models of the children bands by name.
+ * The model is a view of the band, it does not copy the band tree, models of the children are created on access
+ * by the model factory, so the formatter decides how every band of the tree is presented.
+ * <p>
+ * FreeMarker accesses the model through the hash and sequence models of its beans wrapper,
+ * which also wrap the model lazily, and Groovy templates use it as a map.
+ */
+public class BandModel extends AbstractMap<String, Object> {
+    public static final String FIELDS = "fields";
+    public static final String BANDS = "bands";
+
+    protected final BandData band;
+    protected final Function<BandData, ? extends Map<String, Object>> modelFactory;
+
+    public BandModel(BandData band) {
+        this(band, BandModel::new);
+    }
+
+    /**
+     * @param modelFactory creates models of the children bands
+     */
+    public BandModel(BandData band, Function<BandData, ? extends Map<String, Object>> modelFactory) {
+        this.band = band;
+        this.modelFactory = modelFactory;
+    }
+
+    public BandData getBand() {
+        return band;
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (FIELDS.equals(key)) {
+            return band.getData();
+        } else if (BANDS.equals(key)) {
+            return getBands();
+        }
+        return null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return FIELDS.equals(key) || BANDS.equals(key);
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        Map<String, Object> model = new LinkedHashMap<>(2);
+        model.put(BANDS, getBands());
+        model.put(FIELDS, band.getData());
+        return Collections.unmodifiableMap(model).entrySet();
+    }
+
+    /**
+     * @return view of the children bands by name, lists of the children are views as well
+     */
+    protected Map<String, List<Map<String, Object>>> getBands() {
+        Map<String, List<BandData>> childrenBands = band.getChildrenBands();
+        if (childrenBands == null) {
+            return ImmutableMap.of();
+        }
+        return Collections.unmodifiableMap(Maps.transformValues(childrenBands,
+                children -> Lists.transform(children, modelFactory::apply)));
+    }
+}
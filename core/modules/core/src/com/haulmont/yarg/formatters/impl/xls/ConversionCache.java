@@ -0,0 +1,239 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.haulmont.yarg.formatters.impl.xls;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Disk cache of document conversion results, keyed by a hash of the converted document and the output filter.
+ * Least recently used results are evicted when the total size of the cache exceeds the limit.
+ * Results stored in the directory by another instance of the cache are picked up on creation.
+ */
+public class ConversionCache {
+    protected static final Logger log = LoggerFactory.getLogger(ConversionCache.class);
+
+    protected static final String ENTRY_EXTENSION = ".result";
+    protected static final String TEMP_EXTENSION = ".tmp";
+
+    protected final File directory;
+    protected final long maxSizeInBytes;
+
+    protected final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    protected long sizeInBytes;
+
+    protected final AtomicLong hits = new AtomicLong();
+    protected final AtomicLong misses = new AtomicLong();
+
+    public ConversionCache(File directory, long maxSizeInBytes) {
+        if (maxSizeInBytes <= 0) {
+            throw new IllegalArgumentException("Max size of the conversion cache should be positive");
+        }
+        this.directory = directory;
+        this.maxSizeInBytes = maxSizeInBytes;
+        loadEntries();
+    }
+
+    /**
+     * Creates key of the conversion result.
+     * Content of zip based documents (xlsx, docx, odt) is hashed without zip metadata,
+     * so the same document saved at a different time gets the same key.
+     */
+    public String createKey(byte[] documentBytes, String filterName) {
+        Hasher hasher = Hashing.sha256().newHasher();
+        hasher.putString(filterName, StandardCharsets.UTF_8);
+        if (!putZipContent(hasher, documentBytes)) {
+            hasher = Hashing.sha256().newHasher();
+            hasher.putString(filterName, StandardCharsets.UTF_8);
+            hasher.putBytes(documentBytes);
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * @return cached result or null if there is no result for the key
+     */
+    public byte[] get(String key) {
+        synchronized (this) {
+            if (entries.get(key) == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+        }
+
+        File file = getFile(key);
+        try {
+            byte[] result = FileUtils.readFileToByteArray(file);
+            file.setLastModified(System.currentTimeMillis());
+            hits.incrementAndGet();
+            return result;
+        } catch (IOException e) {
+            log.debug("Unable to read conversion result {}", file, e);
+            remove(key);
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    public void put(String key, byte[] result) {
+        if (result.length > maxSizeInBytes) {
+            return;
+        }
+
+        File file = getFile(key);
+        try {
+            File tempFile = File.createTempFile("conversion", TEMP_EXTENSION, directory);
+            FileUtils.writeByteArrayToFile(tempFile, result);
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Unable to store conversion result {}", file, e);
+            return;
+        }
+
+        List<String> evicted = new ArrayList<>();
+        synchronized (this) {
+            addEntry(key, result.length);
+            Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+            while (sizeInBytes > maxSizeInBytes && iterator.hasNext()) {
+                Map.Entry<String, Long> eldest = iterator.next();
+                if (!eldest.getKey().equals(key)) {
+                    sizeInBytes -= eldest.getValue();
+                    evicted.add(eldest.getKey());
+                    iterator.remove();
+                }
+            }
+        }
+        for (String evictedKey : evicted) {
+            FileUtils.deleteQuietly(getFile(evictedKey));
+        }
+    }
+
+    public synchronized void clear() {
+        for (String key : entries.keySet()) {
+            FileUtils.deleteQuietly(getFile(key));
+        }
+        entries.clear();
+        sizeInBytes = 0;
+    }
+
+    public synchronized int getEntriesCount() {
+        return entries.size();
+    }
+
+    public synchronized long getSizeInBytes() {
+        return sizeInBytes;
+    }
+
+    public long getMaxSizeInBytes() {
+        return maxSizeInBytes;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    protected synchronized void remove(String key) {
+        Long size = entries.remove(key);
+        if (size != null) {
+            sizeInBytes -= size;
+        }
+    }
+
+    protected void addEntry(String key, long size) {
+        Long previousSize = entries.put(key, size);
+        sizeInBytes += size - (previousSize != null ? previousSize : 0);
+    }
+
+    protected File getFile(String key) {
+        return new File(directory, key + ENTRY_EXTENSION);
+    }
+
+    protected void loadEntries() {
+        directory.mkdirs();
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TEMP_EXTENSION)) {
+                FileUtils.deleteQuietly(file);//left after failure
+            } else if (name.endsWith(ENTRY_EXTENSION)) {
+                addEntry(name.substring(0, name.length() - ENTRY_EXTENSION.length()), file.length());
+            }
+        }
+
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (sizeInBytes > maxSizeInBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            sizeInBytes -= eldest.getValue();
+            FileUtils.deleteQuietly(getFile(eldest.getKey()));
+            iterator.remove();
+        }
+    }
+
+    protected boolean putZipContent(Hasher hasher, byte[] documentBytes) {
+        if (documentBytes.length < 4 || documentBytes[0] != 'P' || documentBytes[1] != 'K') {
+            return false;
+        }
+
+        SortedMap<String, byte[]> entryHashes = new TreeMap<>();
+        try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(documentBytes))) {
+            ZipEntry zipEntry;
+            byte[] buffer = new byte[8192];
+            while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+                Hasher entryHasher = Hashing.sha256().newHasher();
+                int read;
+                while ((read = zipInputStream.read(buffer)) != -1) {
+                    entryHasher.putBytes(buffer, 0, read);
+                }
+                entryHashes.put(zipEntry.getName(), entryHasher.hash().asBytes());
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        if (entryHashes.isEmpty()) {
+            return false;
+        }
+
+        for (Map.Entry<String, byte[]> entry : entryHashes.entrySet()) {
+            hasher.putString(entry.getKey(), StandardCharsets.UTF_8);
+            hasher.putBytes(entry.getValue());
+        }
+        return true;
+    }
+}
@@ -15,7 +15,12 @@
  */
 package com.haulmont.yarg.formatters.impl.xls;
 
+import com.haulmont.yarg.exception.ReportingInterruptedException;
+
+import java.io.ByteArrayOutputStream;
 import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
 
 public interface DocumentConverter {
     enum FileType {
@@ -26,4 +31,56 @@ public interface DocumentConverter {
     void convertToPdf(FileType fileType, byte[] documentBytes, OutputStream outputStream);
 
     void convertToHtml(FileType fileType, byte[] documentBytes, OutputStream outputStream);
+
+    /**
+     * Converts documents one by one, a failure of one document does not stop conversion of the others.
+     * Documents are read from the iterator as they are converted, results are passed to the handler.
+     * If the conversion is interrupted, the document being converted is reported as failed and the exception is thrown.
+     */
+    default void convertToPdf(FileType fileType, Iterator<byte[]> documents, ConversionResultHandler handler) {
+        for (int index = 0; documents.hasNext(); index++) {
+            byte[] documentBytes = documents.next();
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            try {
+                convertToPdf(fileType, documentBytes, outputStream);
+            } catch (ReportingInterruptedException e) {
+                handler.onFailed(index, e);
+                throw e;
+            } catch (Exception e) {
+                handler.onFailed(index, e);
+                continue;
+            }
+            handler.onConverted(index, outputStream.toByteArray());
+        }
+    }
+
+    /**
+     * Receives results of batch conversion, is called once for each document read from the iterator.
+     * Results may come from a thread other than the caller one.
+     */
+    interface ConversionResultHandler {
+        /**
+         * @param index order number of the document in the batch, from 0
+         */
+        void onConverted(int index, byte[] result);
+
+        /**
+         * @param index order number of the document in the batch, from 0
+         */
+        void onFailed(int index, Exception e);
+    }
+
+    /**
+     * Converts the document asynchronously, the output stream is written when the conversion is done.
+     */
+    default CompletableFuture<Void> convertToPdfAsync(FileType fileType, byte[] documentBytes, OutputStream outputStream) {
+        return CompletableFuture.runAsync(() -> convertToPdf(fileType, documentBytes, outputStream));
+    }
+
+    /**
+     * Converts the document asynchronously, the output stream is written when the conversion is done.
+     */
+    default CompletableFuture<Void> convertToHtmlAsync(FileType fileType, byte[] documentBytes, OutputStream outputStream) {
+        return CompletableFuture.runAsync(() -> convertToHtml(fileType, documentBytes, outputStream));
+    }
 }
\ No newline at end of file
@@ -16,6 +16,7 @@
 
 package com.haulmont.yarg.formatters.impl.xls;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.haulmont.yarg.exception.ReportingException;
 import com.haulmont.yarg.exception.ReportingInterruptedException;
 import com.haulmont.yarg.formatters.impl.doc.OfficeOutputStream;
@@ -23,11 +24,26 @@ import com.haulmont.yarg.formatters.impl.doc.connector.NoFreePortsException;
 import com.haulmont.yarg.formatters.impl.doc.connector.OfficeIntegrationAPI;
 import com.haulmont.yarg.formatters.impl.doc.connector.OfficeResourceProvider;
 import com.haulmont.yarg.formatters.impl.doc.connector.OfficeTask;
+import com.sun.star.lang.DisposedException;
 import com.sun.star.lang.XComponent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class DocumentConverterImpl implements DocumentConverter {
     protected static final Logger log = LoggerFactory.getLogger(DocumentConverterImpl.class);
@@ -37,26 +53,317 @@ public class DocumentConverterImpl implements DocumentConverter {
     private static final String XLS_TO_HTML_OUTPUT_FILE = "XHTML Calc File";
     private static final String ODT_TO_HTML_OUTPUT_FILE = "XHTML Writer File";
 
+    /**
+     * Closes office connections of batch tasks which do not convert a document in time.
+     */
+    protected static final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                    .setNameFormat("DocumentConverterWatchdog-%d")
+                    .setDaemon(true)
+                    .build());
+
     protected OfficeIntegrationAPI officeIntegration;
+    protected ConversionCache conversionCache;
+    protected int batchSize = 100;
 
     public DocumentConverterImpl(OfficeIntegrationAPI officeIntegration) {
         this.officeIntegration = officeIntegration;
     }
 
+    public ConversionCache getConversionCache() {
+        return conversionCache;
+    }
+
+    /**
+     * Sets cache of conversion results, documents with the same content are converted once.
+     */
+    public void setConversionCache(ConversionCache conversionCache) {
+        this.conversionCache = conversionCache;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets how many documents of a batch are converted within one office task,
+     * each document of the task is converted within the office timeout.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
     public void convertToPdf(FileType fileType, final byte[] documentBytes, final OutputStream outputStream) {
         String convertPattern = FileType.SPREADSHEET == fileType ? XLS_TO_PDF_OUTPUT_FILE : ODT_TO_PDF_OUTPUT_FILE;
-        convertWithRetry(convertPattern, documentBytes, outputStream);
+        convert(convertPattern, documentBytes, outputStream);
     }
 
     @Override
     public void convertToHtml(FileType fileType, byte[] documentBytes, OutputStream outputStream) {
         String convertPattern = FileType.SPREADSHEET == fileType ? XLS_TO_HTML_OUTPUT_FILE : ODT_TO_HTML_OUTPUT_FILE;
-        convertWithRetry(convertPattern, documentBytes, outputStream);
+        convert(convertPattern, documentBytes, outputStream);
+    }
+
+    /**
+     * Converts documents in office tasks of up to {@link #getBatchSize()} documents, so a connection is acquired
+     * and office services are looked up once for all documents of the task.
+     * If the office fails during the task or does not convert a document within the office timeout,
+     * the document being converted is reported as failed and the rest of the documents are converted in a new task.
+     * Retries are counted for tasks which fail without converting any document, so an office failure
+     * does not make the documents converted after it fail.
+     * If the conversion is interrupted or there are no free office ports, documents of the current task
+     * are reported as failed and the exception is thrown, documents not read from the iterator are not reported.
+     */
+    @Override
+    public void convertToPdf(FileType fileType, Iterator<byte[]> documents, ConversionResultHandler handler) {
+        String convertPattern = FileType.SPREADSHEET == fileType ? XLS_TO_PDF_OUTPUT_FILE : ODT_TO_PDF_OUTPUT_FILE;
+        List<BatchDocument> batch = new ArrayList<>();
+        for (int index = 0; documents.hasNext(); index++) {
+            byte[] documentBytes = documents.next();
+            String key = conversionCache != null ? conversionCache.createKey(documentBytes, convertPattern) : null;
+            byte[] cachedResult = key != null ? conversionCache.get(key) : null;
+            if (cachedResult != null) {
+                handler.onConverted(index, cachedResult);
+            } else {
+                batch.add(new BatchDocument(index, documentBytes, key));
+            }
+
+            if (batch.size() >= batchSize) {
+                convertBatch(convertPattern, batch, handler);
+                batch = new ArrayList<>();
+            }
+        }
+        if (!batch.isEmpty()) {
+            convertBatch(convertPattern, batch, handler);
+        }
+    }
+
+    protected void convertBatch(String convertPattern, List<BatchDocument> documents, ConversionResultHandler handler) {
+        int retries = officeIntegration.getCountOfRetry();
+        BatchState state = new BatchState(documents);
+        while (state.hasNext()) {
+            Exception error = null;
+            try {
+                //each document has its own deadline, the task timeout is only a backstop
+                officeIntegration.runTaskWithTimeout(createBatchTask(convertPattern, state, handler),
+                        officeIntegration.getTimeoutInSeconds() * state.getRemaining());
+            } catch (ReportingInterruptedException | NoFreePortsException e) {
+                BatchDocument failedDocument = state.abort();
+                if (failedDocument != null) {
+                    handler.onFailed(failedDocument.index, e);
+                }
+                for (BatchDocument document : state.getRemainingDocuments()) {
+                    handler.onFailed(document.index, e);
+                }
+                throw e;
+            } catch (Exception e) {
+                error = e;
+            }
+            if (error == null && !state.isExpired()) {
+                return;
+            }
+            if (state.isExpired()) {
+                error = new ReportingException(String.format("Document is not converted in %d seconds",
+                        officeIntegration.getTimeoutInSeconds()), error);
+            }
+
+            if (state.getCompleted() > 0) {
+                retries = officeIntegration.getCountOfRetry();
+            }
+            //the task may be still running, it stops at the next document
+            BatchDocument failedDocument = state.abort();
+            if (failedDocument != null) {
+                handler.onFailed(failedDocument.index, error);
+            }
+            List<BatchDocument> remaining = state.getRemainingDocuments();
+            if (retries-- <= 0) {
+                for (BatchDocument document : remaining) {
+                    handler.onFailed(document.index, error);
+                }
+                return;
+            }
+            log.warn("An error occurred while converting documents. System will convert the rest of documents in a new task.", error);
+            state = new BatchState(remaining);
+        }
+    }
+
+    protected OfficeTask createBatchTask(String convertPattern, BatchState state, ConversionResultHandler handler) {
+        return ooResourceProvider -> {
+            BatchDocument document;
+            while ((document = state.current()) != null) {
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                Exception error = null;
+                ScheduledFuture<?> deadline = scheduleDeadline(ooResourceProvider, state, document);
+                try {
+                    XComponent xComponent = ooResourceProvider.loadXComponentFromMemory(document.bytes);
+                    saveAndClose(ooResourceProvider, xComponent, outputStream, convertPattern);
+                } catch (DisposedException e) {
+                    //office is not available anymore, the task fails
+                    throw e;
+                } catch (Exception e) {
+                    error = e;
+                } finally {
+                    deadline.cancel(false);
+                }
+
+                if (!state.complete(document)) {
+                    return;
+                }
+                if (error != null) {
+                    handler.onFailed(document.index, error);
+                } else {
+                    byte[] result = outputStream.toByteArray();
+                    if (document.key != null) {
+                        conversionCache.put(document.key, result);
+                    }
+                    handler.onConverted(document.index, result);
+                }
+            }
+        };
+    }
+
+    /**
+     * Closes the office connection if the document is not converted within the office timeout,
+     * so the task does not hang and the rest of the documents are converted in a new task.
+     */
+    protected ScheduledFuture<?> scheduleDeadline(OfficeResourceProvider ooResourceProvider, BatchState state, BatchDocument document) {
+        return watchdog.schedule(() -> {
+            if (state.expire(document)) {
+                ooResourceProvider.closeConnection();
+            }
+        }, officeIntegration.getTimeoutInSeconds(), TimeUnit.SECONDS);
+    }
+
+    /**
+     * Converts the document without blocking the caller, see {@link OfficeIntegrationAPI#submitTask(OfficeTask, int)}.
+     * Cancellation of the returned future cancels the conversion.
+     */
+    @Override
+    public CompletableFuture<Void> convertToPdfAsync(FileType fileType, byte[] documentBytes, OutputStream outputStream) {
+        String convertPattern = FileType.SPREADSHEET == fileType ? XLS_TO_PDF_OUTPUT_FILE : ODT_TO_PDF_OUTPUT_FILE;
+        return convertAsync(convertPattern, documentBytes, outputStream);
+    }
+
+    /**
+     * Converts the document without blocking the caller, see {@link OfficeIntegrationAPI#submitTask(OfficeTask, int)}.
+     * Cancellation of the returned future cancels the conversion.
+     */
+    @Override
+    public CompletableFuture<Void> convertToHtmlAsync(FileType fileType, byte[] documentBytes, OutputStream outputStream) {
+        String convertPattern = FileType.SPREADSHEET == fileType ? XLS_TO_HTML_OUTPUT_FILE : ODT_TO_HTML_OUTPUT_FILE;
+        return convertAsync(convertPattern, documentBytes, outputStream);
+    }
+
+    protected CompletableFuture<Void> convertAsync(String convertPattern, byte[] documentBytes, OutputStream outputStream) {
+        String key = conversionCache != null ? conversionCache.createKey(documentBytes, convertPattern) : null;
+        byte[] cachedResult = key != null ? conversionCache.get(key) : null;
+        CompletableFuture<byte[]> conversion = cachedResult != null
+                ? CompletableFuture.completedFuture(cachedResult)
+                : submitWithRetry(convertPattern, documentBytes);
+
+        CompletableFuture<Void> result = conversion.thenAccept(convertedBytes -> {
+            if (key != null && cachedResult == null) {
+                conversionCache.put(key, convertedBytes);
+            }
+            try {
+                outputStream.write(convertedBytes);
+            } catch (IOException e) {
+                throw new ReportingException("An error occurred while writing converted document", e);
+            }
+        });
+        result.whenComplete((r, e) -> {
+            if (result.isCancelled()) {
+                conversion.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    protected CompletableFuture<byte[]> submitWithRetry(String convertPattern, byte[] documentBytes) {
+        CompletableFuture<byte[]> result = new CompletableFuture<>();
+        AtomicReference<Future<?>> attempt = new AtomicReference<>();
+        result.whenComplete((r, e) -> {
+            Future<?> currentAttempt = attempt.get();
+            if (result.isCancelled() && currentAttempt != null) {
+                currentAttempt.cancel(true);
+            }
+        });
+        submitAttempt(convertPattern, documentBytes, result, attempt, officeIntegration.getCountOfRetry(), null);
+        return result;
+    }
+
+    protected void submitAttempt(String convertPattern, byte[] documentBytes, CompletableFuture<byte[]> result,
+                                 AtomicReference<Future<?>> attempt, int retriesLeft, Throwable firstError) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        CompletableFuture<Void> future = officeIntegration.submitTask(createConversionTask(convertPattern, documentBytes, outputStream),
+                officeIntegration.getTimeoutInSeconds());
+        attempt.set(future);
+        if (result.isDone()) {
+            future.cancel(true);
+            return;
+        }
+
+        future.whenComplete((r, e) -> {
+            if (e == null) {
+                result.complete(outputStream.toByteArray());
+                return;
+            }
+
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (result.isDone() || cause instanceof CancellationException || cause instanceof ReportingInterruptedException
+                    || cause instanceof NoFreePortsException) {
+                result.completeExceptionally(cause);
+            } else if (retriesLeft > 0) {
+                log.warn("An error occurred while converting. System will retry to generate report again.", cause);
+                submitAttempt(convertPattern, documentBytes, result, attempt, retriesLeft - 1, firstError != null ? firstError : cause);
+            } else {
+                result.completeExceptionally(new ReportingException("An error occurred while converting.",
+                        firstError != null ? firstError : cause));
+            }
+        });
+    }
+
+    protected void convert(String convertPattern, byte[] documentBytes, OutputStream outputStream) {
+        if (conversionCache == null) {
+            convertWithRetry(convertPattern, documentBytes, outputStream);
+            return;
+        }
+
+        String key = conversionCache.createKey(documentBytes, convertPattern);
+        byte[] result = conversionCache.get(key);
+        if (result == null) {
+            result = convertWithRetry(convertPattern, documentBytes);
+            conversionCache.put(key, result);
+        }
+
+        try {
+            outputStream.write(result);
+        } catch (IOException e) {
+            throw new ReportingException("An error occurred while writing converted document", e);
+        }
     }
 
     protected void convertWithRetry(String convertPattern, final byte[] documentBytes, final OutputStream outputStream) {
+        runWithRetry(() -> convertOnes(convertPattern, documentBytes, outputStream));
+    }
+
+    /**
+     * Each attempt writes to its own buffer, so the result contains only the output of the successful attempt,
+     * even if a failed attempt has written something or is still writing after timeout.
+     */
+    protected byte[] convertWithRetry(String convertPattern, byte[] documentBytes) {
+        AtomicReference<byte[]> result = new AtomicReference<>();
+        runWithRetry(() -> {
+            ByteArrayOutputStream attemptStream = new ByteArrayOutputStream();
+            convertOnes(convertPattern, documentBytes, attemptStream);
+            result.set(attemptStream.toByteArray());
+        });
+        return result.get();
+    }
+
+    protected void runWithRetry(Runnable attempt) {
         try {
-            convertOnes(convertPattern, documentBytes, outputStream);
+            attempt.run();
         } catch (ReportingInterruptedException e) {
             throw e;
         } catch (Exception e) {
@@ -66,7 +373,7 @@ public class DocumentConverterImpl implements DocumentConverter {
                     if (Thread.interrupted()) {
                         throw new ReportingInterruptedException("Document conversation task interrupted");
                     }
-                    convertOnes(convertPattern, documentBytes, outputStream);
+                    attempt.run();
                     return;
                 } catch (NoFreePortsException e1) {
                     if (e instanceof NoFreePortsException) {
@@ -80,15 +387,19 @@ public class DocumentConverterImpl implements DocumentConverter {
     }
 
     protected void convertOnes(final String convertPattern, final byte[] documentBytes, final OutputStream outputStream) throws NoFreePortsException {
-        OfficeTask officeTask = ooResourceProvider -> {
+        officeIntegration.runTaskWithTimeout(createConversionTask(convertPattern, documentBytes, outputStream),
+                officeIntegration.getTimeoutInSeconds());
+    }
+
+    protected OfficeTask createConversionTask(String convertPattern, byte[] documentBytes, OutputStream outputStream) {
+        return ooResourceProvider -> {
             try {
-                XComponent xComponent = ooResourceProvider.loadXComponent(documentBytes);
+                XComponent xComponent = ooResourceProvider.loadXComponentFromMemory(documentBytes);
                 saveAndClose(ooResourceProvider, xComponent, outputStream, convertPattern);
             } catch (Exception e) {
                 throw new ReportingException("An error occurred while running task in Open Office server", e);
             }
         };
-        officeIntegration.runTaskWithTimeout(officeTask, officeIntegration.getTimeoutInSeconds());
     }
 
     protected void saveAndClose(OfficeResourceProvider ooResourceProvider, XComponent xComponent, OutputStream outputStream, String filterName) throws com.sun.star.io.IOException {
@@ -96,4 +407,83 @@ public class DocumentConverterImpl implements DocumentConverter {
         ooResourceProvider.saveXComponent(xComponent, officeOutputStream, filterName);
         ooResourceProvider.closeXComponent(xComponent);
     }
-}
\ No newline at end of file
+
+    protected static class BatchDocument {
+        protected final int index;
+        protected final byte[] bytes;
+        protected final String key;
+
+        public BatchDocument(int index, byte[] bytes, String key) {
+            this.index = index;
+            this.bytes = bytes;
+            this.key = key;
+        }
+    }
+
+    /**
+     * Position of the office task in the batch, shared by the task and the caller,
+     * so a task left running after failure does not take documents which are passed to the next task.
+     */
+    protected static class BatchState {
+        protected final List<BatchDocument> documents;
+        protected int next;
+        protected boolean aborted;
+        protected boolean expired;
+
+        public BatchState(List<BatchDocument> documents) {
+            this.documents = documents;
+        }
+
+        public synchronized boolean hasNext() {
+            return next < documents.size();
+        }
+
+        public synchronized int getRemaining() {
+            return documents.size() - next;
+        }
+
+        public synchronized int getCompleted() {
+            return next;
+        }
+
+        public synchronized BatchDocument current() {
+            return !aborted && next < documents.size() ? documents.get(next) : null;
+        }
+
+        public synchronized boolean complete(BatchDocument document) {
+            if (aborted || next >= documents.size() || documents.get(next) != document) {
+                return false;
+            }
+            next++;
+            return true;
+        }
+
+        /**
+         * Aborts the task if the document is still being converted.
+         */
+        public synchronized boolean expire(BatchDocument document) {
+            if (aborted || next >= documents.size() || documents.get(next) != document) {
+                return false;
+            }
+            aborted = true;
+            expired = true;
+            return true;
+        }
+
+        public synchronized boolean isExpired() {
+            return expired;
+        }
+
+        /**
+         * @return document which has been converted when the task is aborted
+         */
+        public synchronized BatchDocument abort() {
+            aborted = true;
+            return next < documents.size() ? documents.get(next++) : null;
+        }
+
+        public synchronized List<BatchDocument> getRemainingDocuments() {
+            return new ArrayList<>(documents.subList(next, documents.size()));
+        }
+    }
+}
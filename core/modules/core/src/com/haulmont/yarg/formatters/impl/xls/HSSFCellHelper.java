@@ -15,15 +15,78 @@
  */
 package com.haulmont.yarg.formatters.impl.xls;
 
+import org.apache.poi.hssf.record.CellValueRecordInterface;
+import org.apache.poi.hssf.record.aggregates.FormulaRecordAggregate;
 import org.apache.poi.hssf.usermodel.HSSFCell;
 import org.apache.poi.hssf.usermodel.HSSFRow;
 import org.apache.poi.hssf.usermodel.HSSFSheet;
+import org.apache.poi.ss.formula.ptg.OperandPtg;
+import org.apache.poi.ss.formula.ptg.Ptg;
+import org.apache.poi.ss.usermodel.CellType;
 import org.apache.poi.ss.util.CellReference;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
 public final class HSSFCellHelper {
+    private static final Method cellValueRecordMethod = getCellValueRecordMethod();
+
     private HSSFCellHelper() {
     }
 
+    /**
+     * Returns formula record of the cell, it allows to work with formula tokens without parsing formula text.
+     * POI exposes the record only through protected {@code HSSFCell.getCellValueRecord()}.
+     *
+     * @param cell - formula cell
+     * @return formula record
+     */
+    public static FormulaRecordAggregate getFormulaRecord(HSSFCell cell) {
+        if (cell.getCellType() != CellType.FORMULA) {
+            throw new IllegalArgumentException("Cell does not contain formula");
+        }
+
+        return (FormulaRecordAggregate) getCellValueRecord(cell);
+    }
+
+    /**
+     * Returns BIFF8 record of the cell value, formula cells are represented by {@link FormulaRecordAggregate}.
+     *
+     * @param cell - cell
+     * @return cell value record
+     */
+    public static CellValueRecordInterface getCellValueRecord(HSSFCell cell) {
+        try {
+            return (CellValueRecordInterface) cellValueRecordMethod.invoke(cell);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Unable to get HSSFCell record", e);
+        }
+    }
+
+    /**
+     * Copies formula tokens to shift their references, operand tokens are copied, the others are stateless.
+     *
+     * @param ptgs - formula tokens
+     * @return copy of the formula tokens
+     */
+    public static Ptg[] copyFormulaTokens(Ptg[] ptgs) {
+        Ptg[] copy = new Ptg[ptgs.length];
+        for (int i = 0; i < ptgs.length; i++) {
+            copy[i] = ptgs[i] instanceof OperandPtg ? ((OperandPtg) ptgs[i]).copy() : ptgs[i];
+        }
+        return copy;
+    }
+
+    private static Method getCellValueRecordMethod() {
+        try {
+            Method method = HSSFCell.class.getDeclaredMethod("getCellValueRecord");
+            method.setAccessible(true);
+            return method;
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Unable to find HSSFCell record accessor", e);
+        }
+    }
+
     public static HSSFCell getCellFromReference(CellReference cref, HSSFSheet templateSheet) {
         return getCellFromReference(templateSheet, cref.getCol(), cref.getRow());
     }
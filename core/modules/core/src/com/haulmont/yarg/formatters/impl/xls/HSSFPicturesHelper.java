@@ -37,6 +37,19 @@ public final class HSSFPicturesHelper {
         return pictures;
     }
 
+    public static HSSFClientAnchor copyAnchor(HSSFClientAnchor anchor) {
+        HSSFClientAnchor copy = new HSSFClientAnchor();
+        copy.setDx1(anchor.getDx1());
+        copy.setDx2(anchor.getDx2());
+        copy.setDy1(anchor.getDy1());
+        copy.setDy2(anchor.getDy2());
+        copy.setRow1(anchor.getRow1());
+        copy.setRow2(anchor.getRow2());
+        copy.setCol1(anchor.getCol1());
+        copy.setCol2(anchor.getCol2());
+        return copy;
+    }
+
     public static void searchForAnchors(List escherRecords, List<HSSFClientAnchor> pictures) {
         Iterator recordIter = escherRecords.iterator();
         HSSFClientAnchor anchor = null;
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.haulmont.yarg.formatters.impl.xls;
+
+import com.haulmont.yarg.formatters.impl.xls.hints.XlsHint;
+import org.apache.poi.hssf.usermodel.HSSFCell;
+import org.apache.poi.hssf.usermodel.HSSFSheet;
+import org.apache.poi.ss.formula.ptg.Ptg;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.util.AreaReference;
+import org.apache.poi.ss.util.CellReference;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiled form of a template named range.
+ * It is built once per range and replayed for each band instance,
+ * so the named range and its template cells are not resolved again.
+ */
+public class RangeLayout {
+    protected final String rangeName;
+    protected final HSSFSheet templateSheet;
+    protected final AreaReference templateArea;
+    protected final CellReference[] cellReferences;
+    protected final List<RowLayout> rows = new ArrayList<>();
+
+    public RangeLayout(String rangeName, HSSFSheet templateSheet, AreaReference templateArea) {
+        this.rangeName = rangeName;
+        this.templateSheet = templateSheet;
+        this.templateArea = templateArea;
+        this.cellReferences = templateArea.getAllReferencedCells();
+    }
+
+    public String getRangeName() {
+        return rangeName;
+    }
+
+    public HSSFSheet getTemplateSheet() {
+        return templateSheet;
+    }
+
+    public AreaReference getTemplateArea() {
+        return templateArea;
+    }
+
+    public CellReference[] getCellReferences() {
+        return cellReferences;
+    }
+
+    public int getFirstRow() {
+        return cellReferences[0].getRow();
+    }
+
+    public int getFirstColumn() {
+        return cellReferences[0].getCol();
+    }
+
+    public int getLastColumn() {
+        return cellReferences[cellReferences.length - 1].getCol();
+    }
+
+    public List<RowLayout> getRows() {
+        return rows;
+    }
+
+    public RowLayout addRow(int rowOffset, short height, boolean dynamicHeight, boolean pageBreak) {
+        RowLayout rowLayout = new RowLayout(rowOffset, height, dynamicHeight, pageBreak);
+        rows.add(rowLayout);
+        return rowLayout;
+    }
+
+    public static class RowLayout {
+        protected final int rowOffset;
+        protected final short height;
+        protected final boolean dynamicHeight;
+        protected final boolean pageBreak;
+        protected final List<CellLayout> cells = new ArrayList<>();
+
+        public RowLayout(int rowOffset, short height, boolean dynamicHeight, boolean pageBreak) {
+            this.rowOffset = rowOffset;
+            this.height = height;
+            this.dynamicHeight = dynamicHeight;
+            this.pageBreak = pageBreak;
+        }
+
+        /**
+         * @return offset of the row from the first row of the range
+         */
+        public int getRowOffset() {
+            return rowOffset;
+        }
+
+        public short getHeight() {
+            return height;
+        }
+
+        /**
+         * @return true if height of the row should not be copied from the template
+         */
+        public boolean isDynamicHeight() {
+            return dynamicHeight;
+        }
+
+        /**
+         * @return true if the template row is followed by a page break
+         */
+        public boolean isPageBreak() {
+            return pageBreak;
+        }
+
+        public List<CellLayout> getCells() {
+            return cells;
+        }
+
+        public void addCell(CellLayout cellLayout) {
+            cells.add(cellLayout);
+        }
+    }
+
+    public static class CellLayout {
+        protected final HSSFCell templateCell;
+        protected final int columnOffset;
+        protected final int columnWidth;
+        protected final CellType cellType;
+        protected final String value;
+        protected final boolean alias;
+        protected final List<XlsHint> hints;
+        protected final Ptg[] formulaTokens;
+
+        /**
+         * @param templateCell  template cell
+         * @param columnOffset  offset of the cell from the first column of the range
+         * @param columnWidth   width of the template column
+         * @param value         template value of the cell without hints, for non string cells - its string representation
+         * @param alias         true if the cell contains just one alias
+         * @param hints         hints applicable to the cell
+         * @param formulaTokens parsed formula of the cell or null if the formula is written as text
+         */
+        public CellLayout(HSSFCell templateCell, int columnOffset, int columnWidth,
+                          String value, boolean alias, List<XlsHint> hints, Ptg[] formulaTokens) {
+            this.templateCell = templateCell;
+            this.columnOffset = columnOffset;
+            this.columnWidth = columnWidth;
+            this.cellType = templateCell.getCellType();
+            this.value = value;
+            this.alias = alias;
+            this.hints = hints;
+            this.formulaTokens = formulaTokens;
+        }
+
+        public HSSFCell getTemplateCell() {
+            return templateCell;
+        }
+
+        public int getColumnOffset() {
+            return columnOffset;
+        }
+
+        public int getColumnWidth() {
+            return columnWidth;
+        }
+
+        public CellType getCellType() {
+            return cellType;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public boolean isAlias() {
+            return alias;
+        }
+
+        public List<XlsHint> getHints() {
+            return hints;
+        }
+
+        /**
+         * @return parsed formula of the template cell, tokens are shared and must be copied before modification
+         */
+        public Ptg[] getFormulaTokens() {
+            return formulaTokens;
+        }
+    }
+}
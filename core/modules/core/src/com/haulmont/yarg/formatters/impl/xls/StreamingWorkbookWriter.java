@@ -0,0 +1,419 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.haulmont.yarg.formatters.impl.xls;
+
+import com.haulmont.yarg.exception.ReportFormattingException;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.DeferredFileOutputStream;
+import org.apache.poi.hpsf.DocumentSummaryInformation;
+import org.apache.poi.hpsf.SummaryInformation;
+import org.apache.poi.hpsf.WritingNotSupportedException;
+import org.apache.poi.hssf.record.BOFRecord;
+import org.apache.poi.hssf.record.BoundSheetRecord;
+import org.apache.poi.hssf.record.CellValueRecordInterface;
+import org.apache.poi.hssf.record.DBCellRecord;
+import org.apache.poi.hssf.record.DimensionsRecord;
+import org.apache.poi.hssf.record.EOFRecord;
+import org.apache.poi.hssf.record.IndexRecord;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.hssf.record.RowRecord;
+import org.apache.poi.hssf.record.aggregates.RecordAggregate;
+import org.apache.poi.hssf.usermodel.HSSFCell;
+import org.apache.poi.hssf.usermodel.HSSFRow;
+import org.apache.poi.hssf.usermodel.HSSFSheet;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.util.LittleEndian;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static com.haulmont.yarg.formatters.impl.xls.HSSFCellHelper.getCellValueRecord;
+
+/**
+ * Writes xls workbook with sheet rows serialized to BIFF8 records while the report is rendered,
+ * so rows and cells are not kept by the workbook.
+ * Serialized rows of each sheet are kept in memory up to the threshold and then in a temporary file.
+ * When the workbook is written, the Workbook stream written by POI for the rest of the workbook
+ * (shared strings, styles, drawings, sheet settings) is completed with the serialized rows
+ * and put into a file backed OLE2 container.
+ */
+public class StreamingWorkbookWriter implements Closeable {
+    public static final int MEMORY_THRESHOLD = 4 * 1024 * 1024;
+
+    protected static final String WORKBOOK_ENTRY_NAME = "Workbook";
+    protected static final int RECORD_HEADER_SIZE = 4;
+    protected static final int ROWS_PER_BLOCK = DBCellRecord.BLOCK_SIZE;
+
+    private static final Method rowRecordMethod = getRowRecordMethod();
+
+    protected final HSSFWorkbook workbook;
+    protected final Map<HSSFSheet, StreamedSheetRows> sheetRows = new IdentityHashMap<>();
+
+    public StreamingWorkbookWriter(HSSFWorkbook workbook) {
+        this.workbook = workbook;
+    }
+
+    /**
+     * Serializes rows of the sheet which are above the row number and removes them from the sheet.
+     * Rows are serialized in complete blocks of 32 rows, the rest of the rows is kept in the sheet,
+     * so the number of blocks fits into INDEX record of the sheet.
+     *
+     * @param sheet     - sheet of the workbook
+     * @param rowNumber - number of the first row to keep in the sheet
+     */
+    public void flushRows(HSSFSheet sheet, int rowNumber) {
+        List<HSSFRow> rows = getRows(sheet, rowNumber);
+        flushRows(sheet, rows.subList(0, rows.size() - rows.size() % ROWS_PER_BLOCK));
+    }
+
+    protected List<HSSFRow> getRows(HSSFSheet sheet, int rowNumber) {
+        List<HSSFRow> rows = new ArrayList<>();
+        for (Iterator<Row> iterator = sheet.rowIterator(); iterator.hasNext(); ) {
+            HSSFRow row = (HSSFRow) iterator.next();
+            if (row.getRowNum() >= rowNumber) {
+                break;
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    protected void flushRows(HSSFSheet sheet, List<HSSFRow> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        StreamedSheetRows streamedRows = sheetRows.computeIfAbsent(sheet, s -> new StreamedSheetRows());
+        if (isRowFlushed(sheet, rows.get(0).getRowNum())) {
+            throw new ReportFormattingException(String.format("Row %d of sheet [%s] is written after the rows below it",
+                    rows.get(0).getRowNum() + 1, sheet.getSheetName()));
+        }
+
+        try {
+            for (int i = 0; i < rows.size(); i += ROWS_PER_BLOCK) {
+                streamedRows.addBlock(rows.subList(i, Math.min(i + ROWS_PER_BLOCK, rows.size())));
+            }
+        } catch (IOException e) {
+            throw new ReportFormattingException("An error occurred while writing xls rows", e);
+        }
+
+        //rows are removed from the last one, so the sheet does not search for its new last row each time
+        for (int i = rows.size() - 1; i >= 0; i--) {
+            sheet.removeRow(rows.get(i));
+        }
+    }
+
+    /**
+     * @return true if the row of the sheet is already serialized and can not be changed
+     */
+    public boolean isRowFlushed(HSSFSheet sheet, int rowNumber) {
+        StreamedSheetRows streamedRows = sheetRows.get(sheet);
+        return streamedRows != null && streamedRows.lastRow >= rowNumber;
+    }
+
+    /**
+     * Flushes remaining rows of all sheets and writes the workbook.
+     */
+    public void write(OutputStream outputStream) throws IOException {
+        for (int sheetNumber = 0; sheetNumber < workbook.getNumberOfSheets(); sheetNumber++) {
+            HSSFSheet sheet = workbook.getSheetAt(sheetNumber);
+            flushRows(sheet, getRows(sheet, Integer.MAX_VALUE));
+        }
+
+        File file = Files.createTempFile("yarg-xls", ".xls").toFile();
+        try {
+            try (POIFSFileSystem fileSystem = POIFSFileSystem.create(file);
+                 InputStream workbookStream = createWorkbookStream()) {
+                fileSystem.createDocument(workbookStream, WORKBOOK_ENTRY_NAME);
+                writeProperties(fileSystem);
+                fileSystem.writeFilesystem();
+            }
+            Files.copy(file.toPath(), outputStream);
+        } finally {
+            FileUtils.deleteQuietly(file);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (StreamedSheetRows streamedRows : sheetRows.values()) {
+            streamedRows.close();
+        }
+    }
+
+    /**
+     * Creates Workbook stream: the stream serialized by POI without rows is split to substreams (globals and sheets),
+     * serialized rows are inserted after DIMENSIONS record of each sheet,
+     * INDEX and DIMENSIONS records of the sheet and sheet offsets in BOUNDSHEET records are recalculated.
+     */
+    protected InputStream createWorkbookStream() throws IOException {
+        byte[] records = workbook.getBytes();
+        List<Substream> substreams = readSubstreams(records);
+        Substream globals = substreams.get(0);
+
+        List<InputStream> parts = new ArrayList<>();
+        parts.add(new ByteArrayInputStream(records, globals.start, globals.end - globals.start));
+
+        List<Integer> sheetOffsets = new ArrayList<>();
+        int offset = globals.end - globals.start;
+        for (int sheetNumber = 0; sheetNumber < workbook.getNumberOfSheets(); sheetNumber++) {
+            Substream sheetStream = substreams.get(sheetNumber + 1);
+            StreamedSheetRows streamedRows = sheetRows.get(workbook.getSheetAt(sheetNumber));
+            sheetOffsets.add(offset);
+
+            if (streamedRows == null) {
+                parts.add(new ByteArrayInputStream(records, sheetStream.start, sheetStream.end - sheetStream.start));
+                offset += sheetStream.end - sheetStream.start;
+                continue;
+            }
+
+            if (sheetStream.indexRecord < 0 || sheetStream.dimensionsRecord < 0) {
+                throw new ReportFormattingException("Unable to find INDEX and DIMENSIONS records of sheet " + sheetNumber);
+            }
+
+            int indexRecordEnd = getRecordEnd(records, sheetStream.indexRecord);
+            int dimensionsRecordEnd = getRecordEnd(records, sheetStream.dimensionsRecord);
+            int indexSize = IndexRecord.getRecordSizeForBlockCount(streamedRows.dbCellOffsets.size());
+            int rowsOffset = offset + sheetStream.dimensionsRecord - sheetStream.start
+                    - (indexRecordEnd - sheetStream.indexRecord) + indexSize
+                    + (dimensionsRecordEnd - sheetStream.dimensionsRecord);
+
+            parts.add(new ByteArrayInputStream(records, sheetStream.start, sheetStream.indexRecord - sheetStream.start));
+            parts.add(new ByteArrayInputStream(streamedRows.createIndexRecord(rowsOffset).serialize()));
+            parts.add(new ByteArrayInputStream(records, indexRecordEnd, sheetStream.dimensionsRecord - indexRecordEnd));
+            parts.add(new ByteArrayInputStream(streamedRows.createDimensionsRecord().serialize()));
+            parts.add(streamedRows.getRecords());
+            parts.add(new ByteArrayInputStream(records, dimensionsRecordEnd, sheetStream.end - dimensionsRecordEnd));
+
+            offset = rowsOffset + streamedRows.size + sheetStream.end - dimensionsRecordEnd;
+        }
+
+        for (int i = 0; i < globals.boundSheetRecords.size(); i++) {
+            //BOUNDSHEET record data starts with the stream position of the sheet BOF record
+            LittleEndian.putInt(records, globals.boundSheetRecords.get(i) + RECORD_HEADER_SIZE, sheetOffsets.get(i));
+        }
+
+        return new SequenceInputStream(Collections.enumeration(parts));
+    }
+
+    protected List<Substream> readSubstreams(byte[] records) {
+        List<Substream> substreams = new ArrayList<>();
+        Substream substream = null;
+        int depth = 0;
+        for (int position = 0; position < records.length; position = getRecordEnd(records, position)) {
+            int sid = LittleEndian.getUShort(records, position);
+            if (sid == BOFRecord.sid) {
+                if (depth++ == 0) {
+                    substream = new Substream(position);
+                }
+            } else if (sid == EOFRecord.sid) {
+                if (--depth == 0) {
+                    substream.end = getRecordEnd(records, position);
+                    substreams.add(substream);
+                }
+            } else if (depth == 1) {
+                //records of embedded chart substreams are skipped
+                if (sid == BoundSheetRecord.sid) {
+                    substream.boundSheetRecords.add(position);
+                } else if (sid == IndexRecord.sid && substream.indexRecord < 0) {
+                    substream.indexRecord = position;
+                } else if (sid == DimensionsRecord.sid && substream.dimensionsRecord < 0) {
+                    substream.dimensionsRecord = position;
+                }
+            }
+        }
+
+        if (substreams.size() != workbook.getNumberOfSheets() + 1) {
+            throw new ReportFormattingException("Unexpected number of substreams in xls Workbook stream");
+        }
+        return substreams;
+    }
+
+    protected int getRecordEnd(byte[] records, int position) {
+        return position + RECORD_HEADER_SIZE + LittleEndian.getUShort(records, position + 2);
+    }
+
+    protected void writeProperties(POIFSFileSystem fileSystem) throws IOException {
+        try {
+            SummaryInformation summaryInformation = workbook.getSummaryInformation();
+            if (summaryInformation != null) {
+                fileSystem.createDocument(summaryInformation.toInputStream(), SummaryInformation.DEFAULT_STREAM_NAME);
+            }
+            DocumentSummaryInformation documentSummaryInformation = workbook.getDocumentSummaryInformation();
+            if (documentSummaryInformation != null) {
+                fileSystem.createDocument(documentSummaryInformation.toInputStream(), DocumentSummaryInformation.DEFAULT_STREAM_NAME);
+            }
+        } catch (WritingNotSupportedException e) {
+            throw new IOException("Unable to write workbook properties", e);
+        }
+    }
+
+    protected static RowRecord getRowRecord(HSSFRow row) {
+        try {
+            return (RowRecord) rowRecordMethod.invoke(row);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Unable to get HSSFRow record", e);
+        }
+    }
+
+    private static Method getRowRecordMethod() {
+        try {
+            Method method = HSSFRow.class.getDeclaredMethod("getRowRecord");
+            method.setAccessible(true);
+            return method;
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Unable to find HSSFRow record accessor", e);
+        }
+    }
+
+    /**
+     * Position of records in Workbook stream
+     */
+    protected static class Substream {
+        protected final int start;
+        protected int end;
+        protected int indexRecord = -1;
+        protected int dimensionsRecord = -1;
+        protected final List<Integer> boundSheetRecords = new ArrayList<>();
+
+        protected Substream(int start) {
+            this.start = start;
+        }
+    }
+
+    /**
+     * Serialized rows of the sheet, rows are written in blocks of 32 rows followed by their cells and DBCELL record
+     * the same way as POI writes them.
+     */
+    protected static class StreamedSheetRows implements Closeable {
+        protected final DeferredFileOutputStream records = new DeferredFileOutputStream(MEMORY_THRESHOLD, "yarg-xls-rows", ".bin", null);
+        protected final List<Integer> dbCellOffsets = new ArrayList<>();
+        protected int size;
+        protected int firstRow = -1;
+        protected int lastRow = -1;
+        protected int firstColumn = -1;
+        protected int lastColumn = -1;
+
+        protected void addBlock(List<HSSFRow> rows) throws IOException {
+            ByteArrayOutputStream block = new ByteArrayOutputStream();
+            for (HSSFRow row : rows) {
+                block.write(getRowRecord(row).serialize());
+                updateBounds(row);
+            }
+
+            DBCellRecord.Builder dbCell = new DBCellRecord.Builder();
+            //offset of the first row cells is counted from the second ROW record
+            int cellOffset = block.size() - RowRecord.ENCODED_SIZE;
+            for (HSSFRow row : rows) {
+                int rowStart = block.size();
+                for (int column = Math.max(row.getFirstCellNum(), 0); column < row.getLastCellNum(); column++) {
+                    HSSFCell cell = row.getCell(column);
+                    if (cell != null) {
+                        writeCell(block, cell);
+                    }
+                }
+                int rowCellsSize = block.size() - rowStart;
+                if (rowCellsSize > 0) {
+                    dbCell.addCellOffset(cellOffset);
+                    cellOffset = rowCellsSize;
+                }
+            }
+
+            dbCellOffsets.add(size + block.size());
+            block.write(dbCell.build(block.size()).serialize());
+            block.writeTo(records);
+            size += block.size();
+        }
+
+        protected void writeCell(ByteArrayOutputStream block, HSSFCell cell) {
+            CellValueRecordInterface cellRecord = getCellValueRecord(cell);
+            if (cellRecord instanceof RecordAggregate) {
+                //formula record is followed by its string result and shared formula records
+                ((RecordAggregate) cellRecord).visitContainedRecords(record -> writeRecord(block, record));
+            } else {
+                writeRecord(block, (Record) cellRecord);
+            }
+        }
+
+        protected void writeRecord(ByteArrayOutputStream block, Record record) {
+            byte[] data = record.serialize();
+            block.write(data, 0, data.length);
+        }
+
+        protected void updateBounds(HSSFRow row) {
+            if (firstRow < 0) {
+                firstRow = row.getRowNum();
+            }
+            lastRow = row.getRowNum();
+            if (row.getFirstCellNum() >= 0) {
+                firstColumn = firstColumn < 0 ? row.getFirstCellNum() : Math.min(firstColumn, row.getFirstCellNum());
+                lastColumn = Math.max(lastColumn, row.getLastCellNum());
+            }
+        }
+
+        /**
+         * @param rowsOffset - stream position of the first serialized row
+         */
+        protected IndexRecord createIndexRecord(int rowsOffset) {
+            IndexRecord indexRecord = new IndexRecord();
+            indexRecord.setFirstRow(firstRow);
+            indexRecord.setLastRowAdd1(lastRow + 1);
+            for (int dbCellOffset : dbCellOffsets) {
+                indexRecord.addDbcell(rowsOffset + dbCellOffset);
+            }
+            return indexRecord;
+        }
+
+        protected DimensionsRecord createDimensionsRecord() {
+            DimensionsRecord dimensionsRecord = new DimensionsRecord();
+            dimensionsRecord.setFirstRow(firstRow);
+            dimensionsRecord.setLastRow(lastRow + 1);
+            dimensionsRecord.setFirstCol((short) Math.max(firstColumn, 0));
+            dimensionsRecord.setLastCol((short) Math.max(lastColumn, 0));
+            return dimensionsRecord;
+        }
+
+        protected InputStream getRecords() throws IOException {
+            records.close();
+            return records.isInMemory() ? new ByteArrayInputStream(records.getData()) : Files.newInputStream(records.getFile().toPath());
+        }
+
+        @Override
+        public void close() throws IOException {
+            records.close();
+            if (!records.isInMemory()) {
+                FileUtils.deleteQuietly(records.getFile());
+            }
+        }
+    }
+}
@@ -27,6 +27,7 @@ public class HSSFFontCacheKey implements Serializable {
 
     protected final HSSFFont font;
     protected final FontRecord fontRecord;
+    protected final int hash;
 
     public HSSFFontCacheKey(HSSFFont font) {
         this.font = font;
@@ -35,6 +36,7 @@ public class HSSFFontCacheKey implements Serializable {
         } else {
             this.fontRecord = null;
         }
+        this.hash = fontRecord == null ? 0 : fontRecord.hashCode();
     }
 
     @Override
@@ -63,6 +65,6 @@ public class HSSFFontCacheKey implements Serializable {
 
     @Override
     public int hashCode() {
-        return fontRecord == null ? 0 : fontRecord.hashCode();
+        return hash;
     }
 }
\ No newline at end of file
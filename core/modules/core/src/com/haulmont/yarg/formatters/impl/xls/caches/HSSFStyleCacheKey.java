@@ -27,6 +27,7 @@ public class HSSFStyleCacheKey implements Serializable {
 
     protected final HSSFCellStyle style;
     protected final ExtendedFormatRecord format;
+    protected final int hash;
 
     public HSSFStyleCacheKey(HSSFCellStyle style) {
         this.style = style;
@@ -35,6 +36,7 @@ public class HSSFStyleCacheKey implements Serializable {
         } else {
             this.format = null;
         }
+        this.hash = format == null ? 0 : format.hashCode();
     }
 
     @Override
@@ -63,6 +65,6 @@ public class HSSFStyleCacheKey implements Serializable {
 
     @Override
     public int hashCode() {
-        return format == null ? 0 : format.hashCode();
+        return hash;
     }
 }
\ No newline at end of file
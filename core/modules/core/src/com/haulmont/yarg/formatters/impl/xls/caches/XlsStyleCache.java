@@ -39,6 +39,16 @@ public class XlsStyleCache {
         return cellStyle;
     }
 
+    /**
+     * Registers cell style with precomputed key.
+     *
+     * @return cached style equal to the given one, or the given style if there is no such style yet
+     */
+    public HSSFCellStyle processCellStyle(HSSFStyleCacheKey key, HSSFCellStyle cellStyle) {
+        HSSFCellStyle cachedCellStyle = cellStyles.putIfAbsent(key, cellStyle);
+        return cachedCellStyle != null ? cachedCellStyle : cellStyle;
+    }
+
     public HSSFCellStyle getCellStyleByTemplate(HSSFCellStyle templateCellStyle) {
         return cellStyles.get(new HSSFStyleCacheKey(templateCellStyle));
     }
@@ -102,6 +102,16 @@ public class Document {
         return null;
     }
 
+    public WorksheetPart getWorksheetPart(Worksheet worksheet) {
+        for (Document.SheetWrapper sheetWrapper : worksheets) {
+            if (worksheet == getWorksheetContents(sheetWrapper)) {
+                return sheetWrapper.getWorksheet();
+            }
+        }
+
+        return null;
+    }
+
     public String getCellValue(Cell cell) {
         if (cell.getV() == null) return null;
         if (cell.getT().equals(STCellType.S)) {
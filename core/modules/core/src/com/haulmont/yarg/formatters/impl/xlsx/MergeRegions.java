@@ -0,0 +1,77 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.haulmont.yarg.formatters.impl.xlsx;
+
+import java.util.Comparator;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * Merge regions of one sheet, sorted by position.
+ * Duplicate regions are ignored and intersecting regions are collapsed into their bounding region,
+ * because a worksheet with overlapping merged cells is considered corrupted by Excel.
+ */
+public class MergeRegions {
+    protected static final Comparator<Range> POSITION_ORDER = Comparator
+            .comparingInt(Range::getFirstRow)
+            .thenComparingInt(Range::getFirstColumn)
+            .thenComparingInt(Range::getLastRow)
+            .thenComparingInt(Range::getLastColumn);
+
+    protected NavigableSet<Range> regions = new TreeSet<>(POSITION_ORDER);
+    protected int maxHeight = 0;
+
+    public void add(Range region) {
+        Range collapsed = region;
+        Range intersecting;
+        while ((intersecting = findIntersecting(collapsed)) != null) {
+            regions.remove(intersecting);
+            collapsed = new Range(collapsed.getSheet(),
+                    Math.min(collapsed.getFirstColumn(), intersecting.getFirstColumn()),
+                    Math.min(collapsed.getFirstRow(), intersecting.getFirstRow()),
+                    Math.max(collapsed.getLastColumn(), intersecting.getLastColumn()),
+                    Math.max(collapsed.getLastRow(), intersecting.getLastRow()));
+        }
+
+        regions.add(collapsed);
+        maxHeight = Math.max(maxHeight, collapsed.getLastRow() - collapsed.getFirstRow() + 1);
+    }
+
+    public NavigableSet<Range> getRegions() {
+        return regions;
+    }
+
+    public int size() {
+        return regions.size();
+    }
+
+    protected Range findIntersecting(Range region) {
+        if (regions.isEmpty()) {
+            return null;
+        }
+
+        //only regions starting no more than maxHeight rows above can reach the region
+        Range from = new Range(region.getSheet(), Integer.MIN_VALUE, region.getFirstRow() - maxHeight + 1, Integer.MIN_VALUE, Integer.MIN_VALUE);
+        Range to = new Range(region.getSheet(), Integer.MAX_VALUE, region.getLastRow(), Integer.MAX_VALUE, Integer.MAX_VALUE);
+        for (Range candidate : regions.subSet(from, true, to, true)) {
+            if (candidate.intersects(region)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+}
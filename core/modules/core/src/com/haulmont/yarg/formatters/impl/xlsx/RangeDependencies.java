@@ -18,12 +18,11 @@ package com.haulmont.yarg.formatters.impl.xlsx;
 
 import com.google.common.collect.ArrayListMultimap;
 
-import java.util.Collection;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 
 public class RangeDependencies {
     protected ArrayListMultimap<Range, Range> rangeDependencies = ArrayListMultimap.create();
+    protected Map<String, List<Range>> templatesBySheet;
 
     public Set<Range> templates(){
         return rangeDependencies.keySet();
@@ -37,7 +36,36 @@ public class RangeDependencies {
         return rangeDependencies.get(template);
     }
 
+    /**
+     * @return template ranges of the sheet, in the same order as {@link #templates()} returns them
+     */
+    public List<Range> templatesForSheet(String sheet) {
+        if (templatesBySheet == null) {
+            templatesBySheet = new HashMap<>();
+            for (Range template : rangeDependencies.keySet()) {
+                templatesBySheet.computeIfAbsent(template.getSheet(), s -> new ArrayList<>()).add(template);
+            }
+        }
+        List<Range> templates = templatesBySheet.get(sheet);
+        return templates != null ? templates : Collections.emptyList();
+    }
+
+    /**
+     * @return first template range which contains the range or null if there is no such template range
+     */
+    public Range templateContaining(Range range) {
+        for (Range template : templatesForSheet(range.getSheet())) {
+            if (template.contains(range)) {
+                return template;
+            }
+        }
+        return null;
+    }
+
     public void addDependency(Range templateRange, Range resultRange) {
+        if (!rangeDependencies.containsKey(templateRange)) {
+            templatesBySheet = null;
+        }
         rangeDependencies.put(templateRange, resultRange);
     }
 }
\ No newline at end of file
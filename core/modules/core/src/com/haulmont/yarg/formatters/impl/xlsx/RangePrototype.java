@@ -0,0 +1,204 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.haulmont.yarg.formatters.impl.xlsx;
+
+import org.docx4j.XmlUtils;
+import org.xlsx4j.jaxb.Context;
+import org.xlsx4j.sml.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Precompiled form of a template named range.
+ * It is built once per range and then used to stamp out result rows for each band instance,
+ * so the template sheet is not searched for cells, columns and page breaks again.
+ */
+public class RangePrototype {
+    protected final Range templateRange;
+    protected final List<RowPrototype> rows = new ArrayList<>();
+    protected final List<Range> mergeRegions = new ArrayList<>();
+
+    public RangePrototype(Range templateRange) {
+        this.templateRange = templateRange;
+    }
+
+    public Range getTemplateRange() {
+        return templateRange;
+    }
+
+    public List<RowPrototype> getRows() {
+        return rows;
+    }
+
+    /**
+     * @return template merge regions which should be copied with the range
+     */
+    public List<Range> getMergeRegions() {
+        return mergeRegions;
+    }
+
+    public void addMergeRegion(Range mergeRegion) {
+        mergeRegions.add(mergeRegion);
+    }
+
+    public RowPrototype addRow(Row templateRow, List<CTBreak> templateBreaks) {
+        RowPrototype rowPrototype = new RowPrototype(templateRow, templateBreaks);
+        rows.add(rowPrototype);
+        return rowPrototype;
+    }
+
+    public static class RowPrototype {
+        protected final Row templateRow;
+        protected final List<CTBreak> templateBreaks;
+        protected final List<CellPrototype> cells = new ArrayList<>();
+
+        public RowPrototype(Row templateRow, List<CTBreak> templateBreaks) {
+            this.templateRow = templateRow;
+            this.templateBreaks = templateBreaks;
+        }
+
+        /**
+         * @return template row or null if the template range has no stored cells in this row
+         */
+        public Row getTemplateRow() {
+            return templateRow;
+        }
+
+        /**
+         * @return page breaks of the template row or null if the template sheet has no row breaks at all
+         */
+        public List<CTBreak> getTemplateBreaks() {
+            return templateBreaks;
+        }
+
+        public List<CellPrototype> getCells() {
+            return cells;
+        }
+
+        public void addCell(CellPrototype cellPrototype) {
+            cells.add(cellPrototype);
+        }
+    }
+
+    public static class CellPrototype {
+        protected final Cell templateCell;
+        protected final CellReference templateReference;
+        protected final Col templateColumn;
+        protected final String value;
+        protected final String parameterName;
+        protected final boolean innerFormula;
+
+        /**
+         * @param templateCell      template cell (or fake empty cell)
+         * @param templateReference reference of the template cell
+         * @param templateColumn    column definition of the template cell, if any
+         * @param value             static template value of the cell (shared strings are resolved)
+         * @param parameterName     alias slot name if the cell contains just one alias, otherwise null
+         * @param innerFormula      true if the cell formula references only cells of the template range
+         */
+        public CellPrototype(Cell templateCell, CellReference templateReference, Col templateColumn,
+                             String value, String parameterName, boolean innerFormula) {
+            this.templateCell = templateCell;
+            this.templateReference = templateReference;
+            this.templateColumn = templateColumn;
+            this.value = value;
+            this.parameterName = parameterName;
+            this.innerFormula = innerFormula;
+        }
+
+        public Cell getTemplateCell() {
+            return templateCell;
+        }
+
+        public CellReference getTemplateReference() {
+            return templateReference;
+        }
+
+        public Col getTemplateColumn() {
+            return templateColumn;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public String getParameterName() {
+            return parameterName;
+        }
+
+        public boolean isAlias() {
+            return parameterName != null;
+        }
+
+        public boolean hasFormula() {
+            return templateCell.getF() != null;
+        }
+
+        public boolean isInnerFormula() {
+            return innerFormula;
+        }
+
+        /**
+         * Creates result cell sharing immutable values with the template cell.
+         * Only mutable parts (formula, inline string and extensions) are copied.
+         */
+        public Cell createCell(String reference) {
+            Cell newCell = Context.getsmlObjectFactory().createCell();
+            newCell.setR(reference);
+            newCell.setV(templateCell.getV());
+            //default attribute values are not copied to keep the result markup the same as the template one
+            if (templateCell.getS() != 0) newCell.setS(templateCell.getS());
+            if (templateCell.getT() != STCellType.N) newCell.setT(templateCell.getT());
+            if (templateCell.getCm() != 0) newCell.setCm(templateCell.getCm());
+            if (templateCell.getVm() != 0) newCell.setVm(templateCell.getVm());
+            if (templateCell.isPh()) newCell.setPh(true);
+            if (templateCell.getF() != null) {
+                CTCellFormula formula = copyFormula(templateCell.getF());
+                formula.setParent(newCell);
+                newCell.setF(formula);
+            }
+            if (templateCell.getIs() != null) {
+                CTRst is = XmlUtils.deepCopy(templateCell.getIs(), Context.jcSML);
+                is.setParent(newCell);
+                newCell.setIs(is);
+            }
+            if (templateCell.getExtLst() != null) {
+                newCell.setExtLst(XmlUtils.deepCopy(templateCell.getExtLst(), Context.jcSML));
+            }
+            return newCell;
+        }
+
+        protected CTCellFormula copyFormula(CTCellFormula templateFormula) {
+            CTCellFormula formula = Context.getsmlObjectFactory().createCTCellFormula();
+            formula.setValue(templateFormula.getValue());
+            if (templateFormula.getT() != STCellFormulaType.NORMAL) formula.setT(templateFormula.getT());
+            formula.setRef(templateFormula.getRef());
+            formula.setR1(templateFormula.getR1());
+            formula.setR2(templateFormula.getR2());
+            formula.setSi(templateFormula.getSi());
+            if (templateFormula.isAca()) formula.setAca(true);
+            if (templateFormula.isDt2D()) formula.setDt2D(true);
+            if (templateFormula.isDtr()) formula.setDtr(true);
+            if (templateFormula.isDel1()) formula.setDel1(true);
+            if (templateFormula.isDel2()) formula.setDel2(true);
+            if (templateFormula.isCa()) formula.setCa(true);
+            if (templateFormula.isBx()) formula.setBx(true);
+            return formula;
+        }
+    }
+}
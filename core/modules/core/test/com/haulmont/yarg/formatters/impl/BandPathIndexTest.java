@@ -0,0 +1,72 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.haulmont.yarg.formatters.impl;
+
+import com.haulmont.yarg.structure.BandData;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BandPathIndexTest {
+    @Test
+    public void testLookupsMatchRecursiveSearch() {
+        BandData root = createData();
+        BandPathIndex index = new BandPathIndex(root);
+
+        for (String name : new String[]{BandData.ROOT_BAND_NAME, "Band1", "Band2", "Band11", "Band21", "Same", "Missing"}) {
+            Assert.assertSame(root.findBandRecursively(name), index.findBand(root, name));
+        }
+
+        BandData band2 = root.getChildByName("Band2");
+        Assert.assertSame(band2.findBandRecursively("Same"), index.findBand(band2, "Same"));
+        Assert.assertNull(index.findBand(band2, "Band11"));
+
+        Assert.assertSame(root, index.findBandByPath(BandData.ROOT_BAND_NAME));
+        Assert.assertSame(band2.getChildByName("Band21"), index.findBandByPath("Band2.Band21"));
+        Assert.assertNull(index.findBandByPath("Band1.Band21"));
+    }
+
+    @Test
+    public void testAliasSeparation() {
+        BandPathIndex index = new BandPathIndex(createData());
+
+        AbstractFormatter.BandPathAndParameterName alias = index.separateBandNameAndParameterName("Band2.Band21.value");
+        Assert.assertEquals("Band2.Band21", alias.getBandPath());
+        Assert.assertEquals("value", alias.getParameterName());
+        Assert.assertSame(alias, index.separateBandNameAndParameterName("Band2.Band21.value"));
+
+        alias = index.separateBandNameAndParameterName("value");
+        Assert.assertEquals("", alias.getBandPath());
+        Assert.assertEquals("value", alias.getParameterName());
+    }
+
+    private BandData createData() {
+        BandData root = new BandData(BandData.ROOT_BAND_NAME);
+
+        BandData band1 = new BandData("Band1", root);
+        BandData band2 = new BandData("Band2", root);
+        root.addChild(band1);
+        root.addChild(band2);
+
+        band1.addChild(new BandData("Band11", band1));
+        band1.addChild(new BandData("Same", band1));
+
+        BandData band21 = new BandData("Band21", band2);
+        band2.addChild(band21);
+        band21.addChild(new BandData("Same", band21));
+        return root;
+    }
+}
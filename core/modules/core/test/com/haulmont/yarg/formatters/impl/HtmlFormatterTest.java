@@ -0,0 +1,143 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.haulmont.yarg.formatters.impl;
+
+import com.haulmont.yarg.exception.ReportingException;
+import com.haulmont.yarg.formatters.factory.FormatterFactoryInput;
+import com.haulmont.yarg.formatters.impl.html.BandModel;
+import com.haulmont.yarg.structure.BandData;
+import com.haulmont.yarg.structure.BandOrientation;
+import com.haulmont.yarg.structure.ReportOutputType;
+import com.haulmont.yarg.structure.impl.ReportTemplateImpl;
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+public class HtmlFormatterTest {
+    @Test
+    public void testCachedTemplateFollowsCurrentData() throws Exception {
+        String template = "<#assign user = Root.bands.User[0]>${user.fields.login}";
+
+        Assert.assertEquals("admin", render("cached.ftl", template, createRootBand("admin")));
+        Assert.assertEquals("guest", render("cached.ftl", template, createRootBand("guest")));
+    }
+
+    @Test
+    public void testIncludeIsNotResolved() throws Exception {
+        File includedFile = new File("included.ftl");
+        try {
+            //the file exists in the working directory, but templates must not read it
+            FileUtils.writeStringToFile(includedFile, "included", StandardCharsets.UTF_8);
+            render("include.ftl", "<#include \"included.ftl\">", createRootBand("admin"));
+            Assert.fail("Include is expected to fail");
+        } catch (ReportingException e) {
+            //expected
+        } finally {
+            FileUtils.deleteQuietly(includedFile);
+        }
+    }
+
+    @Test
+    public void testBandModel() throws Exception {
+        BandData root = createRootBand("admin");
+        root.addData("title", "Users");
+
+        String freemarkerTemplate = "${Root.fields.title}:<#list Root.bands.User as user>" +
+                "${user.fields.login}/${user.bands.Role[0].fields.name}</#list>";
+        Assert.assertEquals("Users:admin/manager",
+                render(createTemplate("model.ftl", freemarkerTemplate, false), root, false));
+
+        String groovyTemplate = "${Root.fields.title}:<% Root.bands.User.each { user -> %>" +
+                "${user.fields.login}/${user.bands.Role[0].fields.name}<% } %>";
+        Assert.assertEquals("Users:admin/manager",
+                render(createTemplate("model.groovy", groovyTemplate, true), root, false));
+    }
+
+    @Test
+    public void testBandModelOfChildrenIsCreatedByFormatter() throws Exception {
+        BandData root = createRootBand("admin");
+
+        Assert.assertEquals("Role",
+                render(createTemplate("named.ftl", "${Root.bands.User[0].bands.Role[0].name}", false), root, true));
+        Assert.assertEquals("Role",
+                render(createTemplate("named.groovy", "${Root.bands.User[0].bands.Role[0].name}", true), root, true));
+    }
+
+    protected String render(String templateName, String templateContent, BandData root) throws Exception {
+        return render(createTemplate(templateName, templateContent, false), root, false);
+    }
+
+    protected String render(ReportTemplateImpl reportTemplate, BandData root, boolean namedModels) throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        FormatterFactoryInput input = new FormatterFactoryInput("ftl", root, reportTemplate, outputStream);
+        HtmlFormatter formatter = namedModels ? new NamedModelHtmlFormatter(input) : new HtmlFormatter(input);
+        formatter.renderDocument();
+        return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    protected ReportTemplateImpl createTemplate(String templateName, String templateContent, boolean groovyTemplate) throws Exception {
+        return new ReportTemplateImpl("", templateName, templateName,
+                new ByteArrayInputStream(templateContent.getBytes(StandardCharsets.UTF_8)), ReportOutputType.html) {
+            {
+                groovy = groovyTemplate;
+            }
+        };
+    }
+
+    protected BandData createRootBand(String login) {
+        BandData root = new BandData("Root", null, BandOrientation.HORIZONTAL);
+        root.setData(new HashMap<>());
+
+        BandData user = new BandData("User", root, BandOrientation.HORIZONTAL);
+        user.setData(new HashMap<>());
+        user.addData("login", login);
+        root.addChild(user);
+
+        BandData role = new BandData("Role", user, BandOrientation.HORIZONTAL);
+        role.setData(new HashMap<>());
+        role.addData("name", "manager");
+        user.addChild(role);
+        return root;
+    }
+
+    /**
+     * Adds the name of the band to the model of every band.
+     */
+    protected static class NamedModelHtmlFormatter extends HtmlFormatter {
+        public NamedModelHtmlFormatter(FormatterFactoryInput formatterFactoryInput) {
+            super(formatterFactoryInput);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected Map getBandModel(BandData band) {
+            return new BandModel(band, this::getBandModel) {
+                @Override
+                public Object get(Object key) {
+                    return "name".equals(key) ? band.getName() : super.get(key);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.haulmont.yarg.formatters.impl.doc.connector;
+
+import com.haulmont.yarg.exception.OpenOfficeException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+public class OfficeIntegrationTest {
+    @Test
+    public void testTasksWaitForFreeConnection() throws Exception {
+        FakeOfficeIntegration officeIntegration = new FakeOfficeIntegration(8100, 8101);
+        officeIntegration.setAcquireTimeoutInMillis(10000);
+
+        runConcurrently(officeIntegration, 6, 100);
+
+        Assert.assertEquals(6, officeIntegration.getAcquisitionsCount());
+        Assert.assertEquals(0, officeIntegration.getAcquireTimeoutsCount());
+        Assert.assertEquals(0, officeIntegration.getWaitingTasksCount());
+        Assert.assertTrue(officeIntegration.getMaxWaitTime(TimeUnit.MILLISECONDS) >= 100);
+        Assert.assertEquals(2, officeIntegration.getPortsUtilization().size());
+        for (Double utilization : officeIntegration.getPortsUtilization().values()) {
+            Assert.assertTrue(utilization > 0);
+        }
+    }
+
+    @Test
+    public void testAcquireTimeout() throws Exception {
+        FakeOfficeIntegration officeIntegration = new FakeOfficeIntegration(8100);
+        officeIntegration.setAcquireTimeoutInMillis(50);
+
+        try {
+            runConcurrently(officeIntegration, 2, 500);
+            Assert.fail("NoFreePortsException expected");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof NoFreePortsException);
+        }
+        Assert.assertEquals(1, officeIntegration.getAcquireTimeoutsCount());
+    }
+
+    @Test
+    public void testElasticPool() throws Exception {
+        FakeElasticOfficeIntegration officeIntegration = new FakeElasticOfficeIntegration(1, 3);
+        officeIntegration.setWarmSpares(1);
+        officeIntegration.setMaxTasksPerInstance(2);
+        officeIntegration.start();
+        try {
+            waitFor(() -> officeIntegration.getInstancesCount() == 1
+                    && officeIntegration.connections.stream().noneMatch(OfficeConnection::isClosed));
+
+            runConcurrently(officeIntegration, 3, 100);
+            Assert.assertEquals(3, officeIntegration.getInstancesCount());
+            Assert.assertEquals(0, officeIntegration.getAcquireTimeoutsCount());
+
+            runConcurrently(officeIntegration, 6, 10);
+            Assert.assertEquals(3, officeIntegration.getInstancesCount());
+            for (OfficeConnection connection : officeIntegration.connections) {
+                Assert.assertTrue(connection.getTasksSinceOpen() < 2 || connection.isClosed());
+            }
+        } finally {
+            officeIntegration.stop();
+        }
+    }
+
+    @Test
+    public void testIdleConnectionIsGivenToPendingTask() throws Exception {
+        FakeElasticOfficeIntegration officeIntegration = new FakeElasticOfficeIntegration(0, 1);
+        officeIntegration.setAcquireTimeoutInMillis(10000);
+
+        //the only connection is taken by maintenance, as warm up or health check do
+        OfficeConnection connection;
+        synchronized (officeIntegration.poolLock) {
+            connection = officeIntegration.addConnection();
+        }
+        CompletableFuture<Void> result = officeIntegration.submitTask(ooResourceProvider -> {}, 10);
+        Assert.assertEquals(1, officeIntegration.getPendingTasksCount());
+
+        officeIntegration.returnIdleConnection(connection);
+        result.get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(0, officeIntegration.getPendingTasksCount());
+    }
+
+    @Test
+    public void testMemoryGrowthIsCheckedByHealthCheck() throws Exception {
+        FakeElasticOfficeIntegration officeIntegration = new FakeElasticOfficeIntegration(1, 1);
+        officeIntegration.setMaxMemoryGrowthInBytes(100);
+        officeIntegration.setWarmSpares(0);
+
+        FakeOfficeConnection connection;
+        synchronized (officeIntegration.poolLock) {
+            connection = (FakeOfficeConnection) officeIntegration.addConnection();
+        }
+        officeIntegration.connectionsQueue.add(connection);
+        connection.memory = 1000;
+        officeIntegration.runTaskWithTimeout(ooResourceProvider -> {}, 10);
+        //the baseline is taken on open, releases do not probe memory
+        Assert.assertEquals(1, connection.memoryProbes);
+
+        connection.memory = 2000;
+        officeIntegration.checkHealth();
+        Assert.assertEquals(2, connection.memoryProbes);
+        Assert.assertTrue(connection.isClosed());
+    }
+
+    @Test
+    public void testSubmittedTasksWaitWithoutThreads() throws Exception {
+        FakeOfficeIntegration officeIntegration = new FakeOfficeIntegration(8100, 8101);
+        officeIntegration.setAcquireTimeoutInMillis(10000);
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            futures.add(officeIntegration.submitTask(ooResourceProvider -> sleep(100), 10));
+        }
+        Assert.assertEquals(4, officeIntegration.getPendingTasksCount());
+
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(6, officeIntegration.getAcquisitionsCount());
+        waitFor(() -> officeIntegration.getSubmittedTasksCount() == 0 && officeIntegration.connectionsQueue.size() == 2);
+    }
+
+    @Test
+    public void testSubmittedTaskCancellation() throws Exception {
+        FakeOfficeIntegration officeIntegration = new FakeOfficeIntegration(8100);
+        officeIntegration.setAcquireTimeoutInMillis(10000);
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CompletableFuture<Void> running = officeIntegration.submitTask(ooResourceProvider -> {
+            started.countDown();
+            try {
+                Thread.sleep(10000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+        }, 10);
+        CompletableFuture<Void> pending = officeIntegration.submitTask(ooResourceProvider -> Assert.fail(), 10);
+
+        pending.cancel(true);
+        Assert.assertEquals(0, officeIntegration.getPendingTasksCount());
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        running.cancel(true);
+        Assert.assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+
+        officeIntegration.submitTask(ooResourceProvider -> {}, 10).get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testSubmittedTaskTimeoutAndBackpressure() throws Exception {
+        FakeOfficeIntegration officeIntegration = new FakeOfficeIntegration(8100);
+        officeIntegration.setMaxSubmittedTasks(1);
+
+        CompletableFuture<Void> hanging = officeIntegration.submitTask(ooResourceProvider -> sleep(10000), 1);
+        try {
+            officeIntegration.submitTask(ooResourceProvider -> {}, 10).get(5, TimeUnit.SECONDS);
+            Assert.fail("NoFreePortsException expected");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof NoFreePortsException);
+        }
+        Assert.assertEquals(1, officeIntegration.getRejectedTasksCount());
+
+        try {
+            hanging.get(5, TimeUnit.SECONDS);
+            Assert.fail("OpenOfficeException expected");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof OpenOfficeException);
+        }
+        officeIntegration.submitTask(ooResourceProvider -> {}, 10).get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testDependentActionGetsReleasedConnection() throws Exception {
+        FakeOfficeIntegration officeIntegration = new FakeOfficeIntegration(8100);
+        officeIntegration.setAcquireTimeoutInMillis(10000);
+
+        //the dependent action is run by the thread completing the first task and waits for the only connection
+        CompletableFuture<Void> result = officeIntegration.submitTask(ooResourceProvider -> sleep(100), 10)
+                .thenRun(() -> officeIntegration.submitTask(ooResourceProvider -> {}, 10).join());
+        result.get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(2, officeIntegration.getAcquisitionsCount());
+    }
+
+    protected void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    protected void waitFor(Callable<Boolean> condition) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.call()) {
+            Assert.assertTrue("Condition is not met in time", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    protected void runConcurrently(OfficeIntegrationAPI officeIntegration, int tasksCount, long taskDuration) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(tasksCount);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < tasksCount; i++) {
+                futures.add(executor.submit(() -> {
+                    officeIntegration.runTaskWithTimeout(ooResourceProvider -> {
+                        try {
+                            Thread.sleep(taskDuration);
+                        } catch (InterruptedException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }, 10);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Office integration with connections which do not start office, tasks are run without resource provider.
+     */
+    protected static class FakeOfficeIntegration extends OfficeIntegration {
+        public FakeOfficeIntegration(Integer... ports) {
+            super("", ports);
+        }
+
+        @Override
+        protected OfficeConnection createConnection(Integer port) {
+            return new FakeOfficeConnection(port, this);
+        }
+    }
+
+    protected static class FakeElasticOfficeIntegration extends ElasticOfficeIntegration {
+        public FakeElasticOfficeIntegration(int minInstances, int maxInstances) {
+            super("", 18100, minInstances, maxInstances);
+        }
+
+        @Override
+        protected OfficeConnection createConnection(Integer port) {
+            return new FakeOfficeConnection(port, this);
+        }
+    }
+
+    protected static class FakeOfficeConnection extends OfficeConnection {
+        protected volatile long memory = -1;
+        protected volatile int memoryProbes;
+
+        public FakeOfficeConnection(Integer port, OfficeIntegration officeIntegration) {
+            super("", port, new JavaProcessManager(), officeIntegration);
+        }
+
+        @Override
+        public void open() {
+            if (closed) {
+                tasksSinceOpen = 0;
+                closed = false;
+                initProcessMemory();
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        @Override
+        public boolean isAlive() {
+            return !closed;
+        }
+
+        @Override
+        public long getProcessMemory() {
+            memoryProbes++;
+            return closed ? -1 : memory;
+        }
+    }
+}
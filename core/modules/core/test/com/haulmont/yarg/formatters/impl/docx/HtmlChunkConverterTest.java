@@ -0,0 +1,58 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.haulmont.yarg.formatters.impl.docx;
+
+import org.docx4j.XmlUtils;
+import org.docx4j.openpackaging.packages.WordprocessingMLPackage;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class HtmlChunkConverterTest {
+    @Test
+    public void testIdenticalChunksGetCopies() throws Exception {
+        HtmlChunkConverter converter = new HtmlChunkConverter(WordprocessingMLPackage.createPackage(),
+                new HtmlImportProcessorImpl(), true);
+        String table = "<html><body><table><tr><td>cell</td></tr></table></body></html>";
+        String paragraph = "<html><body><p>text</p></body></html>";
+        converter.processHtml(Arrays.asList(table, paragraph, table));
+
+        List<Object> first = converter.convert(table);
+        List<Object> second = converter.convert(paragraph);
+        List<Object> third = converter.convert(table);
+
+        Assert.assertEquals(1, first.size());
+        Assert.assertEquals(1, second.size());
+        Assert.assertNotSame(first.get(0), third.get(0));
+        Assert.assertEquals(XmlUtils.marshaltoString(first.get(0)), XmlUtils.marshaltoString(third.get(0)));
+        Assert.assertTrue(XmlUtils.marshaltoString(second.get(0)).contains("text"));
+    }
+
+    @Test
+    public void testListsAreConvertedForEachChunk() throws Exception {
+        HtmlChunkConverter converter = new HtmlChunkConverter(WordprocessingMLPackage.createPackage(),
+                new HtmlImportProcessorImpl(), false);
+        String list = "<html><body><ol><li>item</li></ol></body></html>";
+
+        converter.convert(list);
+        converter.convert(list);
+
+        Assert.assertTrue(converter.results.isEmpty());
+    }
+}
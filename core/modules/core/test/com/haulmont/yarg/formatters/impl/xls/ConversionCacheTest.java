@@ -0,0 +1,89 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.haulmont.yarg.formatters.impl.xls;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class ConversionCacheTest {
+    protected File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("conversion-cache").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(directory);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedResultsAreEvicted() throws Exception {
+        ConversionCache cache = new ConversionCache(directory, 10);
+        cache.put("a", new byte[4]);
+        cache.put("b", new byte[4]);
+        Assert.assertNotNull(cache.get("a"));
+        cache.put("c", new byte[4]);
+
+        Assert.assertNotNull(cache.get("a"));
+        Assert.assertNull(cache.get("b"));
+        Assert.assertNotNull(cache.get("c"));
+        Assert.assertEquals(8, cache.getSizeInBytes());
+        Assert.assertEquals(2, directory.list().length);
+
+        ConversionCache reloadedCache = new ConversionCache(directory, 10);
+        Assert.assertEquals(2, reloadedCache.getEntriesCount());
+        Assert.assertArrayEquals(new byte[4], reloadedCache.get("c"));
+    }
+
+    @Test
+    public void testZipMetadataIsNotPartOfKey() throws Exception {
+        ConversionCache cache = new ConversionCache(directory, 10);
+        byte[] document = zip("content", 1500000000000L);
+        byte[] savedLater = zip("content", 1600000000000L);
+        byte[] changedDocument = zip("changed content", 1500000000000L);
+
+        Assert.assertFalse(Arrays.equals(document, savedLater));
+        Assert.assertEquals(cache.createKey(document, "pdf"), cache.createKey(savedLater, "pdf"));
+        Assert.assertNotEquals(cache.createKey(document, "pdf"), cache.createKey(document, "html"));
+        Assert.assertNotEquals(cache.createKey(document, "pdf"), cache.createKey(changedDocument, "pdf"));
+    }
+
+    protected byte[] zip(String content, long time) throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream)) {
+            ZipEntry entry = new ZipEntry("content.xml");
+            entry.setTime(time);
+            zipOutputStream.putNextEntry(entry);
+            zipOutputStream.write(content.getBytes(StandardCharsets.UTF_8));
+            zipOutputStream.closeEntry();
+        }
+        return outputStream.toByteArray();
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.haulmont.yarg.formatters.impl.xls;
+
+import com.haulmont.yarg.exception.ReportingInterruptedException;
+import com.haulmont.yarg.formatters.impl.doc.connector.NoFreePortsException;
+import com.haulmont.yarg.formatters.impl.doc.connector.OfficeIntegrationAPI;
+import com.haulmont.yarg.formatters.impl.doc.connector.OfficeResourceProvider;
+import com.haulmont.yarg.formatters.impl.doc.connector.OfficeTask;
+import com.sun.star.io.XOutputStream;
+import com.sun.star.lang.DisposedException;
+import com.sun.star.lang.XComponent;
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+
+public class DocumentConverterImplTest {
+    @Test
+    public void testBatchConversionIsolatesFailures() throws Exception {
+        FakeOfficeIntegration officeIntegration = new FakeOfficeIntegration();
+        DocumentConverterImpl documentConverter = new DocumentConverterImpl(officeIntegration);
+        documentConverter.setBatchSize(3);
+
+        List<String> documents = Arrays.asList("a", "invalid", "b", "crash", "c", "d", "e");
+        Map<Integer, String> converted = new TreeMap<>();
+        Set<Integer> failed = new TreeSet<>();
+        documentConverter.convertToPdf(DocumentConverter.FileType.DOCUMENT, toBytes(documents),
+                new DocumentConverter.ConversionResultHandler() {
+                    @Override
+                    public void onConverted(int index, byte[] result) {
+                        converted.put(index, new String(result, StandardCharsets.UTF_8));
+                    }
+
+                    @Override
+                    public void onFailed(int index, Exception e) {
+                        failed.add(index);
+                    }
+                });
+
+        Assert.assertEquals(new HashSet<>(Arrays.asList(1, 3)), failed);
+        Assert.assertEquals(Arrays.asList("A", "B", "C", "D", "E"), new ArrayList<>(converted.values()));
+        //the second batch fails on crash, the rest of it is converted in a new task before the last batch
+        Assert.assertEquals(4, officeIntegration.tasks);
+    }
+
+    @Test
+    public void testBatchRetriesAreCountedPerFailure() throws Exception {
+        FakeOfficeIntegration officeIntegration = new FakeOfficeIntegration();
+        DocumentConverterImpl documentConverter = new DocumentConverterImpl(officeIntegration);
+
+        List<String> documents = Arrays.asList("a", "crash", "b", "crash", "c", "crash", "d", "crash", "e");
+        Map<Integer, String> converted = new TreeMap<>();
+        Set<Integer> failed = new TreeSet<>();
+        documentConverter.convertToPdf(DocumentConverter.FileType.DOCUMENT, toBytes(documents),
+                new DocumentConverter.ConversionResultHandler() {
+                    @Override
+                    public void onConverted(int index, byte[] result) {
+                        converted.put(index, new String(result, StandardCharsets.UTF_8));
+                    }
+
+                    @Override
+                    public void onFailed(int index, Exception e) {
+                        failed.add(index);
+                    }
+                });
+
+        //each task converts a document before the crash, so the crashes do not use up the retries
+        Assert.assertEquals(new HashSet<>(Arrays.asList(1, 3, 5, 7)), failed);
+        Assert.assertEquals(Arrays.asList("A", "B", "C", "D", "E"), new ArrayList<>(converted.values()));
+        Assert.assertEquals(5, officeIntegration.tasks);
+    }
+
+    @Test
+    public void testBatchInterruptionReportsRemainingDocuments() throws Exception {
+        FakeOfficeIntegration officeIntegration = new FakeOfficeIntegration();
+        officeIntegration.interruptedTask = 2;
+        DocumentConverterImpl documentConverter = new DocumentConverterImpl(officeIntegration);
+
+        List<String> documents = Arrays.asList("a", "crash", "b", "c");
+        Map<Integer, String> converted = new TreeMap<>();
+        Map<Integer, Exception> failed = new TreeMap<>();
+        try {
+            documentConverter.convertToPdf(DocumentConverter.FileType.DOCUMENT, toBytes(documents),
+                    new DocumentConverter.ConversionResultHandler() {
+                        @Override
+                        public void onConverted(int index, byte[] result) {
+                            converted.put(index, new String(result, StandardCharsets.UTF_8));
+                        }
+
+                        @Override
+                        public void onFailed(int index, Exception e) {
+                            failed.put(index, e);
+                        }
+                    });
+            Assert.fail("Interruption is expected");
+        } catch (ReportingInterruptedException e) {
+            //expected
+        }
+
+        Assert.assertEquals(Collections.singletonList("A"), new ArrayList<>(converted.values()));
+        Assert.assertEquals(new HashSet<>(Arrays.asList(1, 2, 3)), failed.keySet());
+        Assert.assertTrue(failed.get(2) instanceof ReportingInterruptedException);
+        Assert.assertTrue(failed.get(3) instanceof ReportingInterruptedException);
+    }
+
+    @Test
+    public void testBatchDocumentDeadline() throws Exception {
+        FakeOfficeIntegration officeIntegration = new FakeOfficeIntegration();
+        officeIntegration.timeoutInSeconds = 1;
+        DocumentConverterImpl documentConverter = new DocumentConverterImpl(officeIntegration);
+
+        List<String> documents = Arrays.asList("a", "hang", "b");
+        Map<Integer, String> converted = new TreeMap<>();
+        Map<Integer, Exception> failed = new TreeMap<>();
+        long start = System.currentTimeMillis();
+        documentConverter.convertToPdf(DocumentConverter.FileType.DOCUMENT, toBytes(documents),
+                new DocumentConverter.ConversionResultHandler() {
+                    @Override
+                    public void onConverted(int index, byte[] result) {
+                        converted.put(index, new String(result, StandardCharsets.UTF_8));
+                    }
+
+                    @Override
+                    public void onFailed(int index, Exception e) {
+                        failed.put(index, e);
+                    }
+                });
+
+        //the hanging document is stopped after its own timeout, not after the timeout of the whole batch
+        Assert.assertTrue(System.currentTimeMillis() - start < 3000);
+        Assert.assertEquals(Collections.singleton(1), failed.keySet());
+        Assert.assertTrue(failed.get(1).getMessage().contains("Document is not converted in 1 seconds"));
+        Assert.assertEquals(Arrays.asList("A", "B"), new ArrayList<>(converted.values()));
+        Assert.assertEquals(2, officeIntegration.tasks);
+    }
+
+    @Test
+    public void testCachedResultContainsOnlySuccessfulAttempt() throws Exception {
+        FakeOfficeIntegration officeIntegration = new FakeOfficeIntegration();
+        officeIntegration.closeFailures = 1;
+        DocumentConverterImpl documentConverter = new DocumentConverterImpl(officeIntegration);
+        File directory = Files.createTempDirectory("conversion-cache").toFile();
+        try {
+            ConversionCache conversionCache = new ConversionCache(directory, 1024);
+            documentConverter.setConversionCache(conversionCache);
+
+            byte[] document = "a".getBytes(StandardCharsets.UTF_8);
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            documentConverter.convertToPdf(DocumentConverter.FileType.DOCUMENT, document, outputStream);
+
+            //the first attempt has saved the document and failed on close
+            Assert.assertEquals(2, officeIntegration.tasks);
+            Assert.assertEquals("A", new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+            String key = conversionCache.createKey(document, "writer_pdf_Export");
+            Assert.assertEquals("A", new String(conversionCache.get(key), StandardCharsets.UTF_8));
+        } finally {
+            FileUtils.deleteQuietly(directory);
+        }
+    }
+
+    protected Iterator<byte[]> toBytes(List<String> documents) {
+        return documents.stream()
+                .map(document -> document.getBytes(StandardCharsets.UTF_8))
+                .iterator();
+    }
+
+    /**
+     * Runs tasks in the calling thread with resource provider "converting" documents to upper case.
+     */
+    protected static class FakeOfficeIntegration implements OfficeIntegrationAPI {
+        protected int tasks;
+        protected int closeFailures;
+        protected int timeoutInSeconds = 10;
+        protected int interruptedTask;
+
+        @Override
+        public String getTemporaryDirPath() {
+            return null;
+        }
+
+        @Override
+        public Integer getTimeoutInSeconds() {
+            return timeoutInSeconds;
+        }
+
+        @Override
+        public int getCountOfRetry() {
+            return 2;
+        }
+
+        @Override
+        public Boolean isDisplayDeviceAvailable() {
+            return false;
+        }
+
+        @Override
+        public void runTaskWithTimeout(OfficeTask officeTask, int timeoutInSeconds) throws NoFreePortsException {
+            tasks++;
+            if (tasks == interruptedTask) {
+                throw new ReportingInterruptedException("Report generation is interrupted");
+            }
+            try {
+                officeTask.processTaskInOpenOffice(new FakeOfficeResourceProvider(this));
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    protected static class FakeOfficeResourceProvider extends OfficeResourceProvider {
+        protected FakeOfficeIntegration officeIntegration;
+        protected String document;
+        protected final CountDownLatch closed = new CountDownLatch(1);
+
+        public FakeOfficeResourceProvider(FakeOfficeIntegration officeIntegration) throws Exception {
+            super(null, null);
+            this.officeIntegration = officeIntegration;
+        }
+
+        @Override
+        public XComponent loadXComponentFromMemory(byte[] bytes) throws com.sun.star.lang.IllegalArgumentException {
+            document = new String(bytes, StandardCharsets.UTF_8);
+            if ("invalid".equals(document)) {
+                throw new com.sun.star.lang.IllegalArgumentException("Unsupported format");
+            } else if ("crash".equals(document)) {
+                throw new DisposedException("Office is terminated");
+            } else if ("hang".equals(document)) {
+                try {
+                    closed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new DisposedException("Office is terminated");
+            }
+            return (XComponent) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{XComponent.class},
+                    (proxy, method, args) -> null);
+        }
+
+        @Override
+        public void closeConnection() {
+            closed.countDown();
+        }
+
+        @Override
+        public void saveXComponent(XComponent xComponent, XOutputStream xOutputStream, String filterName) throws com.sun.star.io.IOException {
+            xOutputStream.writeBytes(document.toUpperCase().getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void closeXComponent(XComponent xComponent) {
+            if (officeIntegration.closeFailures > 0) {
+                officeIntegration.closeFailures--;
+                throw new DisposedException("Office is terminated");
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.haulmont.yarg.formatters.impl.xlsx;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class MergeRegionsTest {
+    @Test
+    public void testDuplicatesAndIntersectionsAreCollapsed() {
+        MergeRegions mergeRegions = new MergeRegions();
+        mergeRegions.add(Range.fromRange("Sheet", "A5:B5"));
+        mergeRegions.add(Range.fromRange("Sheet", "A1:B1"));
+        mergeRegions.add(Range.fromRange("Sheet", "A1:B1"));
+        mergeRegions.add(Range.fromRange("Sheet", "B2:C3"));
+        mergeRegions.add(Range.fromRange("Sheet", "C3:D4"));
+
+        List<String> refs = new ArrayList<>();
+        for (Range range : mergeRegions.getRegions()) {
+            refs.add(range.toRange());
+        }
+
+        Assert.assertEquals(3, mergeRegions.size());
+        Assert.assertEquals("A1:B1", refs.get(0));
+        Assert.assertEquals("B2:D4", refs.get(1));
+        Assert.assertEquals("A5:B5", refs.get(2));
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.haulmont.yarg.formatters.impl.xlsx;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xlsx4j.sml.CTCellFormula;
+import org.xlsx4j.sml.Cell;
+import org.xlsx4j.sml.STCellType;
+
+public class RangePrototypeTest {
+    @Test
+    public void testCreateCellDoesNotShareFormula() {
+        Cell templateCell = new Cell();
+        templateCell.setR("B2");
+        templateCell.setS(3L);
+        templateCell.setT(STCellType.STR);
+        templateCell.setV("${value}");
+        CTCellFormula formula = new CTCellFormula();
+        formula.setValue("SUM(A2:A2)");
+        templateCell.setF(formula);
+
+        RangePrototype.CellPrototype prototype = new RangePrototype.CellPrototype(templateCell,
+                new CellReference("Sheet", templateCell), null, "${value}", "value", true);
+
+        Cell newCell = prototype.createCell("B10");
+        Assert.assertEquals("B10", newCell.getR());
+        Assert.assertEquals(3L, newCell.getS());
+        Assert.assertEquals(STCellType.STR, newCell.getT());
+        Assert.assertEquals("${value}", newCell.getV());
+        Assert.assertNotSame(formula, newCell.getF());
+        Assert.assertEquals("SUM(A2:A2)", newCell.getF().getValue());
+
+        newCell.getF().setValue("SUM(A10:A10)");
+        Assert.assertEquals("SUM(A2:A2)", templateCell.getF().getValue());
+        Assert.assertEquals("B2", templateCell.getR());
+    }
+}
@@ -15,9 +15,11 @@
  */
 package integration;
 
+import com.haulmont.yarg.exception.ReportingException;
 import com.haulmont.yarg.formatters.ReportFormatter;
 import com.haulmont.yarg.formatters.factory.DefaultFormatterFactory;
 import com.haulmont.yarg.formatters.factory.FormatterFactoryInput;
+import com.haulmont.yarg.formatters.impl.XLSFormatter;
 import com.haulmont.yarg.structure.ReportOutputType;
 import com.haulmont.yarg.structure.BandData;
 import com.haulmont.yarg.structure.BandOrientation;
@@ -26,14 +28,22 @@ import junit.framework.Assert;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.poi.hssf.usermodel.HSSFCell;
+import org.apache.poi.hssf.usermodel.HSSFName;
 import org.apache.poi.hssf.usermodel.HSSFRow;
 import org.apache.poi.hssf.usermodel.HSSFSheet;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.util.CellRangeAddress;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.text.SimpleDateFormat;
 import java.util.*;
 
@@ -61,6 +71,150 @@ public class XlsIntegrationTest {
     }
 
 
+    @Test
+    public void testSheetRollover() throws Exception {
+        BandData root = new BandData("Root", null, BandOrientation.HORIZONTAL);
+        root.setData(new HashMap<>());
+        Date date = new SimpleDateFormat("dd-MM-yyyy").parse("12-04-1961");
+        for (int i = 0; i < 70000; i++) {
+            BandData band1 = new BandData("Band1", root, BandOrientation.HORIZONTAL);
+            band1.addData("date", date);
+            root.addChild(band1);
+        }
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        ReportFormatter formatter = new DefaultFormatterFactory().createFormatter(new FormatterFactoryInput("xls", root,
+                new ReportTemplateImpl("", "./modules/core/test/integration/test-formats.xls", "./modules/core/test/integration/test-formats.xls", ReportOutputType.xls), outputStream));
+
+        formatter.renderDocument();
+
+        HSSFWorkbook result = new HSSFWorkbook(new ByteArrayInputStream(outputStream.toByteArray()));
+        HSSFSheet firstSheet = result.getSheetAt(0);
+        HSSFSheet continuationSheet = result.getSheet(firstSheet.getSheetName() + " (2)");
+        Assert.assertNotNull(continuationSheet);
+        Assert.assertEquals(70000, firstSheet.getPhysicalNumberOfRows() + continuationSheet.getPhysicalNumberOfRows());
+        Assert.assertEquals(date, continuationSheet.getRow(0).getCell(0).getDateCellValue());
+    }
+
+    @Test
+    public void testSheetRolloverWithFormulas() throws Exception {
+        BandData root = createRootBandForRollover(false);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        new DefaultFormatterFactory().createFormatter(new FormatterFactoryInput("xls", root,
+                new ReportTemplateImpl("", "smoketest/test.xls", "./modules/core/test/integration/test-with-formulas.xls", ReportOutputType.xls), outputStream))
+                .renderDocument();
+
+        //formulas inside the band are shifted to the rows of the continuation sheet
+        HSSFWorkbook result = new HSSFWorkbook(new ByteArrayInputStream(outputStream.toByteArray()));
+        HSSFSheet continuationSheet = result.getSheet(result.getSheetAt(0).getSheetName() + " (2)");
+        Assert.assertEquals("SUM(A1:C1)", continuationSheet.getRow(0).getCell(3).getCellFormula());
+    }
+
+    @Test
+    public void testSheetRolloverFailsForFormulasAcrossSheets() throws Exception {
+        BandData root = createRootBandForRollover(true);
+        try {
+            new DefaultFormatterFactory().createFormatter(new FormatterFactoryInput("xls", root,
+                    new ReportTemplateImpl("", "smoketest/test.xls", "./modules/core/test/integration/test-with-formulas.xls", ReportOutputType.xls), new ByteArrayOutputStream()))
+                    .renderDocument();
+            Assert.fail("ReportingException expected");
+        } catch (ReportingException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("Formula of band [Footer] refers to band [Band1]"));
+        }
+    }
+
+    @Test
+    public void testSheetRolloverOfVerticalBand() throws Exception {
+        HSSFWorkbook template = new HSSFWorkbook();
+        HSSFSheet templateSheet = template.createSheet("Sheet1");
+        for (int row = 0; row < 3; row++) {
+            templateSheet.createRow(row).createCell(0).setCellValue("${value}");
+        }
+        HSSFName band1Name = template.createName();
+        band1Name.setNameName("Band1");
+        band1Name.setRefersToFormula("Sheet1!$A$1");
+        HSSFName band2Name = template.createName();
+        band2Name.setNameName("Band2");
+        band2Name.setRefersToFormula("Sheet1!$A$2:$A$3");
+
+        BandData root = new BandData("Root", null, BandOrientation.HORIZONTAL);
+        root.setData(new HashMap<>());
+        for (int i = 0; i < SpreadsheetVersion.EXCEL97.getMaxRows() - 1; i++) {
+            BandData band1 = new BandData("Band1", root, BandOrientation.HORIZONTAL);
+            band1.addData("value", "row");
+            root.addChild(band1);
+        }
+        for (String value : Arrays.asList("first", "second")) {
+            BandData band2 = new BandData("Band2", root, BandOrientation.VERTICAL);
+            band2.addData("value", value);
+            root.addChild(band2);
+        }
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        new DefaultFormatterFactory().createFormatter(new FormatterFactoryInput("xls", root,
+                new ReportTemplateImpl("", "test.xls", "test.xls", toInputStream(template), ReportOutputType.xls), outputStream))
+                .renderDocument();
+
+        //vertical band does not fit into the last row, so it starts continuation sheet
+        HSSFWorkbook result = new HSSFWorkbook(new ByteArrayInputStream(outputStream.toByteArray()));
+        HSSFSheet continuationSheet = result.getSheet("Sheet1 (2)");
+        Assert.assertEquals("first", continuationSheet.getRow(0).getCell(0).getStringCellValue());
+        Assert.assertEquals("second", continuationSheet.getRow(1).getCell(1).getStringCellValue());
+    }
+
+    @Test
+    public void testStreamedRowsWithFormulas() throws Exception {
+        DefaultFormatterFactory formatterFactory = new DefaultFormatterFactory();
+        formatterFactory.setXlsStreamingRowsThreshold(1);
+
+        FileOutputStream outputStream = new FileOutputStream("./result/integration/result-with-formulas-streamed.xls");
+        formatterFactory.createFormatter(new FormatterFactoryInput("xls", createRootBandForFormulas(),
+                new ReportTemplateImpl("", "smoketest/test.xls", "./modules/core/test/integration/test-with-formulas.xls", ReportOutputType.xls), outputStream))
+                .renderDocument();
+        IOUtils.closeQuietly(outputStream);
+
+        compareFiles("./modules/core/test/integration/etalon-with-formulas.xls", "./result/integration/result-with-formulas-streamed.xls");
+        HSSFWorkbook etalon = new HSSFWorkbook(FileUtils.openInputStream(new File("./modules/core/test/integration/etalon-with-formulas.xls")));
+        HSSFWorkbook result = new HSSFWorkbook(FileUtils.openInputStream(new File("./result/integration/result-with-formulas-streamed.xls")));
+        compareFormulas(etalon, result);
+    }
+
+    @Test
+    public void testStreamedRowsWithSheetRollover() throws Exception {
+        HSSFWorkbook template = new HSSFWorkbook(FileUtils.openInputStream(new File("./modules/core/test/integration/test-with-formulas.xls")));
+        HSSFSheet templateSheet = template.getSheetAt(0);
+        templateSheet.getHeader().setCenter("Report header");
+        templateSheet.getFooter().setRight("Report footer");
+        templateSheet.setMargin(Sheet.TopMargin, 1.5);
+        templateSheet.setRepeatingRows(CellRangeAddress.valueOf("1:1"));
+        templateSheet.createFreezePane(1, 1);
+
+        DefaultFormatterFactory formatterFactory = new DefaultFormatterFactory();
+        formatterFactory.setXlsStreamingRowsThreshold(1000);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        formatterFactory.createFormatter(new FormatterFactoryInput("xls", createRootBandForRollover(false),
+                new ReportTemplateImpl("", "test.xls", "test.xls", toInputStream(template), ReportOutputType.xls), outputStream))
+                .renderDocument();
+
+        HSSFWorkbook result = new HSSFWorkbook(new ByteArrayInputStream(outputStream.toByteArray()));
+        HSSFSheet firstSheet = result.getSheetAt(0);
+        HSSFSheet continuationSheet = result.getSheet(firstSheet.getSheetName() + " (2)");
+        Assert.assertEquals(70000, firstSheet.getPhysicalNumberOfRows() + continuationSheet.getPhysicalNumberOfRows());
+        Assert.assertEquals(3.0, firstSheet.getRow(firstSheet.getLastRowNum()).getCell(2).getNumericCellValue());
+        Assert.assertEquals("SUM(A40001:C40001)", firstSheet.getRow(40000).getCell(3).getCellFormula());
+        Assert.assertEquals("SUM(A1:C1)", continuationSheet.getRow(0).getCell(3).getCellFormula());
+
+        //sheet settings are copied to continuation sheet
+        Assert.assertEquals("Report header", continuationSheet.getHeader().getCenter());
+        Assert.assertEquals("Report footer", continuationSheet.getFooter().getRight());
+        Assert.assertEquals(1.5, continuationSheet.getMargin(Sheet.TopMargin));
+        Assert.assertEquals(0, continuationSheet.getRepeatingRows().getLastRow());
+        Assert.assertTrue(continuationSheet.getPaneInformation().isFreezePane());
+        Assert.assertEquals(firstSheet.getPaneInformation().getHorizontalSplitPosition(), continuationSheet.getPaneInformation().getHorizontalSplitPosition());
+        Assert.assertEquals(firstSheet.getPaneInformation().getVerticalSplitPosition(), continuationSheet.getPaneInformation().getVerticalSplitPosition());
+    }
+
     @Test
     public void testFormulas() throws Exception {
         BandData root = createRootBandForFormulas();
@@ -77,6 +231,21 @@ public class XlsIntegrationTest {
         compareFiles("./modules/core/test/integration/etalon-with-formulas.xls", "./result/integration/result-with-formulas.xls");
     }
 
+    @Test
+    public void testFormulasWithCompiledTemplate() throws Exception {
+        HSSFWorkbook etalon = new HSSFWorkbook(FileUtils.openInputStream(new File("./modules/core/test/integration/etalon-with-formulas.xls")));
+        for (int i = 0; i < 2; i++) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            ReportFormatter formatter = new DefaultFormatterFactory().createFormatter(new FormatterFactoryInput("xls", createRootBandForFormulas(),
+                    new ReportTemplateImpl("", "smoketest/test.xls", "./modules/core/test/integration/test-with-formulas.xls", ReportOutputType.xls), outputStream));
+            formatter.renderDocument();
+
+            //shared template formulas are not changed by shifting, so the second render has the same formulas
+            HSSFWorkbook result = new HSSFWorkbook(new ByteArrayInputStream(outputStream.toByteArray()));
+            compareFormulas(etalon, result);
+        }
+    }
+
     @Test
     public void testAggregations() throws Exception {
         BandData root = createRootBandForAggregation();
@@ -93,6 +262,42 @@ public class XlsIntegrationTest {
         compareFiles("./modules/core/test/integration/etalon-with-aggregation.xls", "./result/integration/result-with-aggregation.xls");
     }
 
+    @Test
+    public void testAggregationsWithCompiledTemplate() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            BandData root = createRootBandForAggregation();
+
+            FileOutputStream outputStream = new FileOutputStream("./result/integration/result-with-aggregation-compiled.xls");
+
+            ReportFormatter formatter = new DefaultFormatterFactory().createFormatter(new FormatterFactoryInput("xls", root,
+                    new ReportTemplateImpl("", "smoketest/test.xls", "./modules/core/test/integration/test-with-aggregation.xls", ReportOutputType.xls), outputStream));
+
+            formatter.renderDocument();
+
+            IOUtils.closeQuietly(outputStream);
+
+            compareFiles("./modules/core/test/integration/etalon-with-aggregation.xls", "./result/integration/result-with-aggregation-compiled.xls");
+        }
+    }
+
+    @Test
+    public void testTemplateCompilationKeepsFormatterState() throws Exception {
+        byte[] templateContent = FileUtils.readFileToByteArray(new File("./modules/core/test/integration/test-with-aggregation.xls"));
+
+        new XLSFormatter(new FormatterFactoryInput("xls", createRootBandForAggregation(),
+                new ReportTemplateImpl("", "smoketest/test.xls", "./modules/core/test/integration/test-with-aggregation.xls", ReportOutputType.xls),
+                new ByteArrayOutputStream())) {
+            {
+                CompiledTemplate compiled = compileTemplate(templateContent);
+
+                Assert.assertNotNull(compiled.getTemplateWorkbook());
+                Assert.assertNull(templateWorkbook);
+                Assert.assertTrue(mergeRegionsForRangeNames.isEmpty());
+                Assert.assertTrue(sheetToEscherAggregate.isEmpty());
+            }
+        };
+    }
+
     @Test
     public void testAggregationsEmpty() throws Exception {
         BandData root = new BandData("Root", null, BandOrientation.HORIZONTAL);
@@ -111,6 +316,26 @@ public class XlsIntegrationTest {
         compareFiles("./modules/core/test/integration/etalon-empty.xls", "./result/integration/result-empty.xls");
     }
 
+    private void compareFormulas(HSSFWorkbook etalon, HSSFWorkbook result) {
+        for (int row = 0; row < 10; row++) {
+            HSSFRow etalonRow = etalon.getSheetAt(0).getRow(row);
+            for (int cell = 0; etalonRow != null && cell < 10; cell++) {
+                HSSFCell etalonCell = etalonRow.getCell(cell);
+                if (etalonCell != null && etalonCell.getCellType() == CellType.FORMULA) {
+                    HSSFCell resultCell = result.getSheetAt(0).getRow(row).getCell(cell);
+                    Assert.assertEquals(String.format("fail on cell [%d,%d]", row, cell),
+                            etalonCell.getCellFormula(), resultCell.getCellFormula());
+                }
+            }
+        }
+    }
+
+    private InputStream toInputStream(HSSFWorkbook workbook) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        workbook.write(content);
+        return new ByteArrayInputStream(content.toByteArray());
+    }
+
     private void compareFiles(String etalonFile, String resultFile) throws IOException {
         HSSFWorkbook result = new HSSFWorkbook(FileUtils.openInputStream(new File(etalonFile)));
         HSSFWorkbook etalon = new HSSFWorkbook(FileUtils.openInputStream(new File(resultFile)));
@@ -140,6 +365,22 @@ public class XlsIntegrationTest {
         }
     }
 
+    private BandData createRootBandForRollover(boolean withFooter) {
+        BandData root = new BandData("Root", null, BandOrientation.HORIZONTAL);
+        root.setData(new HashMap<>());
+        for (int i = 0; i < 70000; i++) {
+            BandData band1 = new BandData("Band1", root, BandOrientation.HORIZONTAL);
+            band1.addData("col1", 1);
+            band1.addData("col2", 2);
+            band1.addData("col3", 3);
+            root.addChild(band1);
+        }
+        if (withFooter) {
+            root.addChild(new BandData("Footer", root, BandOrientation.HORIZONTAL));
+        }
+        return root;
+    }
+
     private BandData createRootBandForFormulas() {
         BandData root = new BandData("Root", null, BandOrientation.HORIZONTAL);
         HashMap<String, Object> rootData = new HashMap<String, Object>();
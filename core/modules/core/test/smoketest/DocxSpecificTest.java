@@ -18,15 +18,30 @@ package smoketest;
 import com.haulmont.yarg.formatters.ReportFormatter;
 import com.haulmont.yarg.formatters.factory.DefaultFormatterFactory;
 import com.haulmont.yarg.formatters.factory.FormatterFactoryInput;
+import com.haulmont.yarg.formatters.impl.docx.PdfConverter;
+import com.haulmont.yarg.formatters.impl.docx.TocPolicy;
 import com.haulmont.yarg.structure.BandData;
 import com.haulmont.yarg.structure.BandOrientation;
 import com.haulmont.yarg.structure.ReportOutputType;
 import com.haulmont.yarg.structure.impl.ReportFieldFormatImpl;
 import com.haulmont.yarg.structure.impl.ReportTemplateImpl;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.docx4j.TextUtils;
+import org.docx4j.XmlUtils;
+import org.docx4j.openpackaging.packages.WordprocessingMLPackage;
+import org.docx4j.openpackaging.parts.Part;
+import org.docx4j.openpackaging.parts.WordprocessingML.FooterPart;
+import org.docx4j.openpackaging.parts.WordprocessingML.HeaderPart;
+import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileOutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.HashMap;
 
 public class DocxSpecificTest extends AbstractFormatSpecificTest {
@@ -147,6 +162,40 @@ public class DocxSpecificTest extends AbstractFormatSpecificTest {
 
     }
 
+    @Test
+    public void testTableOfContentsPolicies() throws Exception {
+        int templateEntries = countTocEntries(renderTableOfContents(TocPolicy.NONE));
+        int entriesWithoutPages = countTocEntries(renderTableOfContents(TocPolicy.ENTRIES_ONLY));
+        int entries = countTocEntries(renderTableOfContents(TocPolicy.FULL));
+
+        Assert.assertTrue(templateEntries < entries);
+        Assert.assertEquals(entries, entriesWithoutPages);
+    }
+
+    private int countTocEntries(String document) {
+        return StringUtils.countMatches(document, "w:anchor=\"_Toc");
+    }
+
+    private String renderTableOfContents(TocPolicy tocPolicy) throws Exception {
+        BandData root = new BandData("Root", null, BandOrientation.HORIZONTAL);
+        root.setData(new HashMap<>());
+        randomBand("Project", root);
+        for (int i = 0; i < 3; i++) {
+            randomBand("Options", root);
+        }
+
+        DefaultFormatterFactory formatterFactory = new DefaultFormatterFactory();
+        formatterFactory.setDocxTocPolicy(tocPolicy);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ReportFormatter formatter = formatterFactory.createFormatter(new FormatterFactoryInput("docx", root,
+                new ReportTemplateImpl("", "./modules/core/test/smoketest/table-of-contents.docx", "./modules/core/test/smoketest/table-of-contents.docx",
+                        ReportOutputType.docx), outputStream));
+        formatter.renderDocument();
+
+        WordprocessingMLPackage result = WordprocessingMLPackage.load(new ByteArrayInputStream(outputStream.toByteArray()));
+        return XmlUtils.marshaltoString(result.getMainDocumentPart().getJaxbElement(), true, false);
+    }
+
     private BandData randomBand(String name, BandData root) {
         BandData band1 = new BandData(name, root, BandOrientation.HORIZONTAL);
         band1.setData(new RandomMap());
@@ -279,4 +328,164 @@ public class DocxSpecificTest extends AbstractFormatSpecificTest {
 
         IOUtils.closeQuietly(outputStream);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testStreamedTableRows() throws Exception {
+        String usualResult = renderTestDocx(0);
+        String streamedResult = renderTestDocx(2);
+
+        Assert.assertEquals(usualResult, streamedResult);
+        Assert.assertFalse(streamedResult.contains("_yargRows"));
+    }
+
+    @Test
+    public void testPdfConverter() throws Exception {
+        PdfConverter pdfConverter = new PdfConverter(1);
+        DefaultFormatterFactory formatterFactory = new DefaultFormatterFactory();
+        formatterFactory.setDocxPdfConverter(pdfConverter);
+
+        for (int i = 0; i < 2; i++) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            ReportFormatter formatter = formatterFactory.createFormatter(new FormatterFactoryInput("docx", createRootBand(),
+                    new ReportTemplateImpl("", "./modules/core/test/smoketest/test.docx", "./modules/core/test/smoketest/test.docx",
+                            ReportOutputType.pdf), outputStream));
+            formatter.renderDocument();
+            Assert.assertTrue(new String(outputStream.toByteArray(), 0, 5, StandardCharsets.US_ASCII).startsWith("%PDF"));
+        }
+
+        Assert.assertEquals(2, pdfConverter.getConversions());
+        Assert.assertEquals(0, pdfConverter.getFailedConversions());
+        Assert.assertEquals(1, pdfConverter.getCreatedFopFactories());
+        Assert.assertEquals(0, pdfConverter.getActiveConversions());
+    }
+
+    @Test
+    public void testCachedTemplateFollowsCurrentData() throws Exception {
+        BandData root = new BandData("Root", null, BandOrientation.HORIZONTAL);
+        root.setData(new HashMap<>());
+        root.addChild(dataBand("Band1", root, "value1", "band-1"));
+
+        String text = extractText(renderDocx("control-tables-1.docx", root).getMainDocumentPart().getJaxbElement());
+        Assert.assertFalse(text.contains("Header1"));
+
+        root = new BandData("Root", null, BandOrientation.HORIZONTAL);
+        root.setData(new HashMap<>());
+        root.addChild(dataBand("Control1", root, "value1", "control-1"));
+        root.addChild(dataBand("Band1", root, "value1", "band-1"));
+
+        text = extractText(renderDocx("control-tables-1.docx", root).getMainDocumentPart().getJaxbElement());
+        Assert.assertTrue(text.contains("Header1"));
+        Assert.assertTrue(text.contains("control-1"));
+
+        root = new BandData("Root", null, BandOrientation.HORIZONTAL);
+        root.setData(new HashMap<>());
+        root.addChild(dataBand("Cover", root, "index", "first-index"));
+        root.addChild(dataBand("Documents", root, "number", "first-document"));
+
+        text = extractText(renderDocx("splitted-aliases.docx", root).getMainDocumentPart().getJaxbElement());
+        Assert.assertTrue(text.contains("first-index"));
+        Assert.assertTrue(text.contains("first-document"));
+
+        root = new BandData("Root", null, BandOrientation.HORIZONTAL);
+        root.setData(new HashMap<>());
+        root.addChild(dataBand("Cover", root, "index", "second-index"));
+        root.addChild(dataBand("Documents", root, "number", "second-document"));
+        root.addChild(dataBand("Documents", root, "number", "third-document"));
+
+        text = extractText(renderDocx("splitted-aliases.docx", root).getMainDocumentPart().getJaxbElement());
+        Assert.assertTrue(text.contains("second-index"));
+        Assert.assertTrue(text.contains("second-document"));
+        Assert.assertTrue(text.contains("third-document"));
+        Assert.assertFalse(text.contains("first-index"));
+        Assert.assertFalse(text.contains("first-document"));
+        Assert.assertFalse(text.contains("##band="));
+    }
+
+    @Test
+    public void testCachedTemplateWithSplittedAliases() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            BandData root = new BandData("Root", null, BandOrientation.HORIZONTAL);
+            root.setData(new HashMap<>());
+            BandData ride = new BandData("ride", root, BandOrientation.HORIZONTAL);
+            ride.setData(new HashMap<>());
+            ride.addData("number", "number-" + i);
+            ride.addData("from_hours", "hours-" + i);
+            root.addChild(ride);
+
+            String text = extractText(renderDocx("splitted-aliases-in-table.docx", root).getMainDocumentPart().getJaxbElement());
+            Assert.assertTrue(text.contains("number-" + i));
+            Assert.assertTrue(text.contains("hours-" + i));
+            Assert.assertFalse(text.contains("##band=ride"));
+            Assert.assertFalse(text.contains("${"));
+        }
+
+        for (int i = 0; i < 2; i++) {
+            BandData root = new BandData("Root", null, BandOrientation.HORIZONTAL);
+            root.setData(new HashMap<>());
+            BandData letterTable = new BandData("letterTable", root, BandOrientation.HORIZONTAL);
+            letterTable.setData(new HashMap<>());
+            letterTable.addData("html", "letter-" + i);
+            BandData creatorInfo = new BandData("creatorInfo", root, BandOrientation.HORIZONTAL);
+            creatorInfo.setData(new HashMap<>());
+            creatorInfo.addData("name", "name-" + i);
+            creatorInfo.addData("phone", "phone-" + i);
+            root.addChild(letterTable);
+            root.addChild(creatorInfo);
+
+            WordprocessingMLPackage result = renderDocx("colontitules.docx", root);
+            Assert.assertTrue(extractText(result.getMainDocumentPart().getJaxbElement()).contains("letter-" + i));
+
+            StringBuilder footers = new StringBuilder();
+            for (Part part : result.getParts().getParts().values()) {
+                if (part instanceof HeaderPart) {
+                    footers.append(extractText(((HeaderPart) part).getJaxbElement()));
+                } else if (part instanceof FooterPart) {
+                    footers.append(extractText(((FooterPart) part).getJaxbElement()));
+                }
+            }
+            Assert.assertTrue(footers.toString().contains("name-" + i));
+            Assert.assertTrue(footers.toString().contains("phone-" + i));
+            Assert.assertFalse(footers.toString().contains("${"));
+        }
+    }
+
+    private BandData dataBand(String name, BandData parent, String field, Object value) {
+        BandData band = new BandData(name, parent, BandOrientation.HORIZONTAL);
+        band.setData(new HashMap<>());
+        band.addData(field, value);
+        return band;
+    }
+
+    private WordprocessingMLPackage renderDocx(String templateName, BandData root) throws Exception {
+        String templatePath = "./modules/core/test/smoketest/" + templateName;
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ReportFormatter formatter = new DefaultFormatterFactory().createFormatter(new FormatterFactoryInput("docx", root,
+                new ReportTemplateImpl("", templatePath, templatePath, ReportOutputType.docx), outputStream));
+        formatter.renderDocument();
+        return WordprocessingMLPackage.load(new ByteArrayInputStream(outputStream.toByteArray()));
+    }
+
+    private String extractText(Object jaxbElement) throws Exception {
+        StringWriter text = new StringWriter();
+        TextUtils.extractText(jaxbElement, text);
+        return text.toString();
+    }
+
+    private String renderTestDocx(int streamingRowsThreshold) throws Exception {
+        BandData root = createRootBand();
+        root.addReportFieldFormats(Collections.singletonList(new ReportFieldFormatImpl("Band1.col2", "${html}")));
+
+        DefaultFormatterFactory formatterFactory = new DefaultFormatterFactory();
+        formatterFactory.setDocxStreamingRowsThreshold(streamingRowsThreshold);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ReportFormatter formatter = formatterFactory.createFormatter(new FormatterFactoryInput("docx", root,
+                new ReportTemplateImpl("", "./modules/core/test/smoketest/test.docx", "./modules/core/test/smoketest/test.docx",
+                        ReportOutputType.docx), outputStream));
+        formatter.renderDocument();
+
+        WordprocessingMLPackage result = WordprocessingMLPackage.load(new ByteArrayInputStream(outputStream.toByteArray()));
+        StringWriter text = new StringWriter();
+        TextUtils.extractText(result.getMainDocumentPart().getJaxbElement(), text);
+        return text.toString();
+    }
+}